@@ -1,16 +0,0 @@
-//The Hardest part of the entire code right here
-
-/**
- * Entry point for Chris' Magical paint.
- * <p>
- *     This class contains the main method which launches the PaintApp GUI
- */
-public class Main{
-    /**
-     * Main Method to start the Paint App Application
-     * @param args command-line arguments (not used)
-     */
-    public static void main(String[] args) {
-        new PaintApp().showApp();
-    }
-}
\ No newline at end of file
@@ -0,0 +1,168 @@
+package paint;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Draws the shapes of {@link ShapeType} between two corner points.
+ * <p>
+ *     Polygons and stars are laid out from unit-circle vertex tables cached by vertex
+ *     count, scaled and moved into place, so stamping many of them costs no trigonometry.
+ *     {@link #drawShape} strokes them through a polygon kept per thread, and
+ *     {@link #outline} returns the same geometry for filling, hit-testing or drawing
+ *     with other hints.
+ */
+public class AdvancedShapeDrawer {
+    // Tables for more vertices than this are built for each call rather than kept
+    private static final int MAX_CACHED_VERTICES = 1024;
+
+    // cos and sin of each vertex angle, interleaved, by vertex count
+    private static final Map<Integer, double[]> POLYGON_TABLES = new ConcurrentHashMap<>();
+    private static final Map<Integer, double[]> STAR_TABLES = new ConcurrentHashMap<>();
+
+    // Reset and refilled by every drawShape on the thread; its arrays only ever grow
+    private static final ThreadLocal<Polygon> SCRATCH = ThreadLocal.withInitial(Polygon::new);
+
+    public static void drawShape(Graphics2D g2, ShapeType type, int x1, int y1, int x2, int y2, int polygonSides) {
+        Polygon p = SCRATCH.get();
+        if (!polygon(type, x1, y1, x2, y2, polygonSides, p)) {
+            ShapeDrawer.drawShape(g2, type, x1, y1, x2, y2);
+        } else if (p.npoints > 0) {
+            g2.drawPolygon(p);
+        }
+    }
+
+    /**
+     * Replaces the points of {@code into} with the vertices of a shape drawn as a polygon:
+     * none for a polygon of fewer than 3 sides.
+     *
+     * @return false if {@code type} is not drawn as a polygon, leaving into as it was
+     */
+    private static boolean polygon(ShapeType type, int x1, int y1, int x2, int y2, int polygonSides, Polygon into) {
+        int centerX = (x1 + x2) / 2;
+        int centerY = (y1 + y2) / 2;
+        int radius = Math.min(Math.abs(x2 - x1), Math.abs(y2 - y1)) / 2;
+
+        switch (type) {
+            case RIGHT_TRIANGLE:
+                into.reset();
+                into.addPoint(x1, y1);
+                into.addPoint(x1, y1);
+                into.addPoint(x2, y2);
+                return true;
+            case TRIANGLE:
+                into.reset();
+                into.addPoint(x1, y2);
+                into.addPoint(x2, y2);
+                into.addPoint(centerX, y1);
+                return true;
+            case KITE:
+                into.reset();
+                into.addPoint(centerX, y1);
+                into.addPoint(x1, centerY);
+                into.addPoint(centerX, y2);
+                into.addPoint(x2, centerY);
+                return true;
+            case POLYGON:
+                into.reset();
+                if (polygonSides >= 3) {
+                    place(polygonTable(polygonSides), centerX, centerY, radius, radius, into);
+                }
+                return true;
+            case STAR:
+                into.reset();
+                place(starTable(Math.max(4, polygonSides)), centerX, centerY, radius, Math.max(1, radius / 2), into);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds the vertices of {@code table} around the center, even ones at {@code outer}
+     * and odd ones at {@code inner} radius, truncated to whole pixels.
+     */
+    private static void place(double[] table, int centerX, int centerY, int outer, int inner, Polygon into) {
+        for (int i = 0; i < table.length / 2; i++) {
+            int r = (i % 2 == 0) ? outer : inner;
+            into.addPoint(centerX + (int) (r * table[2 * i]), centerY + (int) (r * table[2 * i + 1]));
+        }
+    }
+
+    private static double[] polygonTable(int sides) {
+        if (sides > MAX_CACHED_VERTICES) return buildPolygonTable(sides);
+        return POLYGON_TABLES.computeIfAbsent(sides, AdvancedShapeDrawer::buildPolygonTable);
+    }
+
+    private static double[] buildPolygonTable(int sides) {
+        double[] table = new double[2 * sides];
+        for (int i = 0; i < sides; i++) {
+            double angle = 2 * Math.PI * i / sides;
+            table[2 * i] = Math.cos(angle);
+            table[2 * i + 1] = Math.sin(angle);
+        }
+        return table;
+    }
+
+    private static double[] starTable(int points) {
+        if (2 * points > MAX_CACHED_VERTICES) return buildStarTable(points);
+        return STAR_TABLES.computeIfAbsent(points, AdvancedShapeDrawer::buildStarTable);
+    }
+
+    /**
+     * Outer and inner vertices in turn, starting straight up.
+     */
+    private static double[] buildStarTable(int points) {
+        int total = points * 2;
+        double[] table = new double[2 * total];
+        double angleStep = Math.PI / points;
+        double angle = -Math.PI / 2;
+        for (int i = 0; i < total; i++) {
+            table[2 * i] = Math.cos(angle);
+            table[2 * i + 1] = Math.sin(angle);
+            angle += angleStep;
+        }
+        return table;
+    }
+
+    /**
+     * @return the area {@link #drawShape} can touch between these corners with a stroke
+     *         that reaches {@code padding} pixels past the outline
+     */
+    public static Rectangle bounds(int x1, int y1, int x2, int y2, int padding) {
+        Rectangle bounds = new Rectangle(Math.min(x1, x2), Math.min(y1, y2),
+                Math.abs(x2 - x1) + 1, Math.abs(y2 - y1) + 1);
+        bounds.grow(padding, padding);
+        return bounds;
+    }
+
+    /**
+     * @return the outline {@link #drawShape} strokes for the same arguments, which can
+     *         also be filled or hit-tested, or null if it draws nothing
+     */
+    public static Shape outline(ShapeType type, int x1, int y1, int x2, int y2, int polygonSides) {
+        Polygon p = new Polygon();
+        if (polygon(type, x1, y1, x2, y2, polygonSides, p)) {
+            return p.npoints > 0 ? p : null;
+        }
+        int w = Math.abs(x2 - x1);
+        int h = Math.abs(y2 - y1);
+        int startX = Math.min(x1, x2);
+        int startY = Math.min(y1, y2);
+
+        switch (type) {
+            case RECTANGLE:
+                return new Rectangle(startX, startY, w, h);
+            case SQUARE:
+                return new Rectangle(startX, startY, Math.min(w, h), Math.min(w, h));
+            case CIRCLE:
+                return new Ellipse2D.Float(startX, startY, Math.min(w, h), Math.min(w, h));
+            case ELLIPSE:
+                return new Ellipse2D.Float(startX, startY, w, h);
+            default:
+                return null;
+        }
+    }
+}
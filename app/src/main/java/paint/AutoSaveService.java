@@ -0,0 +1,210 @@
+package paint;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Saves canvases in the background.
+ * <p>
+ *     {@link #save} is called on the event dispatch thread. It only takes a snapshot of
+ *     the canvas, which is cheap, and hands it to a background thread that encodes it to a
+ *     temporary file next to the target and then renames it into place, so a crash never
+ *     leaves a half-written file. Canvases whose version has not changed since their last
+ *     successful save are skipped. Progress is reported through the status callback on
+ *     the event dispatch thread.
+ */
+public class AutoSaveService {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autosave");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final Consumer<String> status;
+
+    // Only touched on the event dispatch thread
+    private final Map<CanvasSource, Long> savedVersions = new HashMap<>();
+    private final Set<CanvasSource> inProgress = new HashSet<>();
+
+    /**
+     * @param status receives progress messages on the event dispatch thread
+     */
+    public AutoSaveService(Consumer<String> status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the directory used for canvases that have never been saved to a file
+     */
+    public static File getAutoSaveDirectory() {
+        return new File(System.getProperty("user.home"), ".chris-paint" + File.separator + "autosave");
+    }
+
+    /**
+     * Queues a background save of the canvas to {@code file} unless it is unchanged since
+     * its last save or a save of it is still running.
+     *
+     * @return true if a save was queued
+     */
+    public boolean save(CanvasSource source, File file, String label) {
+        long version = source.getVersion();
+        Long saved = savedVersions.get(source);
+        if ((saved != null && saved == version) || inProgress.contains(source)) {
+            return false;
+        }
+        TiledCanvas snapshot = source.snapshot();
+        if (snapshot == null) return false;
+
+        inProgress.add(source);
+        status.accept("Autosaving " + label + "...");
+        executor.execute(() -> {
+            String message;
+            boolean ok;
+            try {
+                writeAtomically(snapshot, formatFor(file), file);
+                message = "Autosaved " + label + " to " + file.getAbsolutePath();
+                ok = true;
+            } catch (Exception ex) {
+                message = "Autosave of " + label + " failed: " + ex.getMessage();
+                ok = false;
+            }
+            String done = message;
+            boolean success = ok;
+            SwingUtilities.invokeLater(() -> {
+                inProgress.remove(source);
+                if (success) {
+                    savedVersions.put(source, version);
+                }
+                status.accept(done);
+            });
+        });
+        return true;
+    }
+
+    /**
+     * Marks the canvas as saved at its current version, e.g. after a manual save.
+     */
+    public void markSaved(CanvasSource source) {
+        savedVersions.put(source, source.getVersion());
+    }
+
+    public void forget(CanvasSource source) {
+        savedVersions.remove(source);
+    }
+
+    /**
+     * @return the ImageIO format name matching the file extension, png if unknown
+     */
+    public static String formatFor(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "jpg";
+        if (name.endsWith(".bmp")) return "bmp";
+        if (RawCanvasFile.isRawFile(file)) return RawCanvasFile.FORMAT;
+        return "png";
+    }
+
+    /**
+     * Encodes the snapshot to a temporary file in the target's directory and renames it
+     * over the target. PNG goes through the parallel {@link PngEncoder}; JPEG and BMP
+     * through ImageIO. The working format is instead handed to {@link RawCanvasFile},
+     * which only rewrites changed tiles of a file the canvas came from, logging them first
+     * so that a crash cannot leave the file half written.
+     */
+    public static void writeAtomically(TiledCanvas snapshot, String format, File file) throws IOException {
+        if (format.equals(RawCanvasFile.FORMAT)) {
+            RawCanvasFile.save(snapshot, file);
+            return;
+        }
+        Path target = file.getAbsoluteFile().toPath();
+        Path tmp = createTempFor(target);
+        try {
+            if (format.equals("png")) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                    PngEncoder.write(snapshot, new Rectangle(0, 0, snapshot.getWidth(), snapshot.getHeight()),
+                            out, ForkJoinPool.commonPool());
+                }
+            } else {
+                // JPEG and BMP writers do not accept an alpha channel
+                BufferedImage img = snapshot.toImage();
+                BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2 = rgb.createGraphics();
+                g2.setColor(Color.WHITE);
+                g2.fillRect(0, 0, img.getWidth(), img.getHeight());
+                g2.drawImage(img, 0, 0, null);
+                g2.dispose();
+                // through a stream, as writing to a File would recreate it with other permissions
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                    if (!ImageIO.write(rgb, format, out)) {
+                        throw new IOException("No writer for format " + format);
+                    }
+                }
+            }
+            replace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty file in the directory of {@code target} to write it through. It
+     * gets the permissions of the target, or those of any new file if there is no target
+     * yet, so renaming it into place does not change who can read the file.
+     * {@link Files#createTempFile} would make it readable by the owner only.
+     */
+    static Path createTempFor(Path target) throws IOException {
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path tmp;
+        while (true) {
+            tmp = dir.resolve("." + target.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                Files.createFile(tmp);
+                break;
+            } catch (FileAlreadyExistsException ex) {
+                // taken, pick another name
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target));
+        } catch (NoSuchFileException | UnsupportedOperationException ex) {
+            // a new target keeps the default permissions, and some file systems have none
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        return tmp;
+    }
+
+    /**
+     * Renames {@code tmp} over {@code target}, atomically where the file system can.
+     */
+    static void replace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
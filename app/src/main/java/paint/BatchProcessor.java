@@ -0,0 +1,396 @@
+package paint;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless batch mode: applies a script of operations to many images on a pool of workers.
+ * <p>
+ *     Each image gets its own {@link RenderEngine} without undo history, so the edits are
+ *     the same the app makes. Inputs are files, directories (their image files) or glob
+ *     patterns such as {@code 'photos/**.jpg'}. They are listed lazily as the workers
+ *     take files, and a worker only loads its image when it starts on it, so there is
+ *     one image in memory per worker. Each result keeps the path of its image relative to
+ *     the input directory or the directory part of the glob, so images of the same name
+ *     in different directories do not overwrite each other; of two images with the same
+ *     output name, such as {@code a.png} and {@code a.jpg} with {@code -f png}, the one
+ *     listed second fails.
+ *     Prints the time of every file and the overall throughput.
+ * <p>
+ *     A script has one operation per line; lines starting with {@code #} are comments:
+ * <pre>
+ *     rotate 90|180|270
+ *     flip horizontal|vertical
+ *     resize WIDTH HEIGHT
+ *     shape TYPE X1 Y1 X2 Y2 [#COLOR [SIZE [SIDES]]]
+ *     text X Y SIZE #COLOR TEXT...
+ *     fill X Y #COLOR [TOLERANCE]
+ * </pre>
+ *     Colors are {@code #RRGGBB} or {@code #AARRGGBB}. With {@code -e} the operations are
+ *     given inline, separated by {@code ;}.
+ */
+public class BatchProcessor {
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar paint.jar --batch (-s SCRIPT | -e OPERATIONS) -o DIR [-f FORMAT] [-j THREADS] INPUT...",
+            "  INPUT    an image, a directory of images or a quoted glob such as 'in/**.png'",
+            "  -s       file with one operation per line",
+            "  -e       operations separated by ';', e.g. 'rotate 90; text 10 10 24 #FF0000 Draft'",
+            "  -o       directory the results are written to, under their paths relative to",
+            "           the input directory or the glob's directory",
+            "  -f       png, jpg, bmp or cpaint; defaults to the format of each input",
+            "  -j       number of workers; defaults to the number of processors",
+            "Operations: rotate 90|180|270, flip horizontal|vertical, resize W H,",
+            "  shape TYPE X1 Y1 X2 Y2 [#COLOR [SIZE [SIDES]]], text X Y SIZE #COLOR TEXT...,",
+            "  fill X Y #COLOR [TOLERANCE]");
+
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".png", ".jpg", ".jpeg", ".bmp", ".gif",
+            RawCanvasFile.EXTENSION);
+
+    private final List<Consumer<RenderEngine>> operations;
+    private final File outputDir;
+    private final String format;
+    private final int threads;
+    private final PrintStream out;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong pixels = new AtomicLong();
+    // Output files already given to an input, only touched by the thread listing the inputs
+    private final Set<Path> claimed = new HashSet<>();
+
+    /**
+     * @param format output format, or null to keep the format of each input
+     */
+    public BatchProcessor(List<Consumer<RenderEngine>> operations, File outputDir, String format,
+                          int threads, PrintStream out) {
+        this.operations = operations;
+        this.outputDir = outputDir;
+        this.format = format;
+        this.threads = threads;
+        this.out = out;
+    }
+
+    /**
+     * Runs the batch mode for the arguments following {@code --batch}.
+     *
+     * @return the process exit code: 0 if every file was processed, 1 if some failed,
+     *         2 for bad arguments
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        String script = null, inline = null, format = null;
+        File outputDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-s" -> script = args[++i];
+                    case "-e" -> inline = args[++i];
+                    case "-o" -> outputDir = new File(args[++i]);
+                    case "-f" -> format = args[++i].toLowerCase(Locale.ROOT);
+                    case "-j" -> threads = Integer.parseInt(args[++i]);
+                    default -> inputs.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            err.println(USAGE);
+            return 2;
+        }
+        if ((script == null) == (inline == null) || outputDir == null || inputs.isEmpty() || threads < 1
+                || (format != null && !List.of("png", "jpg", "bmp", RawCanvasFile.FORMAT).contains(format))) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        List<Consumer<RenderEngine>> operations;
+        try {
+            List<String> lines = script != null
+                    ? Files.readAllLines(Paths.get(script))
+                    : Arrays.asList(inline.split(";"));
+            operations = parse(lines);
+        } catch (IOException ex) {
+            err.println("Cannot read script: " + ex.getMessage());
+            return 2;
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            return 2;
+        }
+
+        BatchProcessor batch = new BatchProcessor(operations, outputDir, format, threads, out);
+        try {
+            return batch.process(inputs) ? 0 : 1;
+        } catch (IOException ex) {
+            err.println(ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Processes every image the inputs name, printing one line per file and a summary.
+     *
+     * @return true if none failed
+     */
+    public boolean process(List<String> inputs) throws IOException {
+        outputDir.mkdirs();
+        if (!outputDir.isDirectory()) throw new IOException("Cannot create " + outputDir);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        // keeps a few files queued per worker without listing a huge directory up front
+        Semaphore inFlight = new Semaphore(threads * 2);
+        long start = System.nanoTime();
+        try {
+            for (String input : inputs) {
+                try (Stream<Path> files = expand(input)) {
+                    Iterator<Path> it = files.iterator();
+                    Path base = baseOf(input);
+                    while (it.hasNext()) {
+                        Path path = it.next();
+                        File file = path.toFile();
+                        // claimed here on the listing thread, so exactly one input gets each target
+                        File target = targetFor(base.relativize(path));
+                        if (!claimed.add(target.toPath().toAbsolutePath().normalize())) {
+                            failed.incrementAndGet();
+                            out.println("FAILED " + file + ": " + target + " is already written for another input");
+                            continue;
+                        }
+                        inFlight.acquireUninterruptibly();
+                        pool.execute(() -> {
+                            try {
+                                processFile(file, target);
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    }
+                } catch (IOException | UncheckedIOException ex) {
+                    failed.incrementAndGet();
+                    out.println("FAILED " + input + ": " + ex.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%d files in %.1f s: %.1f files/s, %.1f megapixels/s, %d failed%n",
+                done.get(), seconds, done.get() / seconds, pixels.get() / 1e6 / seconds, failed.get());
+        return failed.get() == 0;
+    }
+
+    private void processFile(File file, File target) {
+        long t0 = System.nanoTime();
+        try {
+            TiledCanvas canvas;
+            if (RawCanvasFile.isRawFile(file)) {
+                canvas = RawCanvasFile.open(file);
+            } else {
+                BufferedImage img = ImageIO.read(file);
+                if (img == null) throw new IOException("not an image ImageIO can read");
+                canvas = TiledCanvas.fromImage(img);
+            }
+            RenderEngine engine = new RenderEngine(canvas, false);
+            for (Consumer<RenderEngine> op : operations) {
+                op.accept(engine);
+            }
+            TiledCanvas result = engine.snapshot();
+            AutoSaveService.writeAtomically(result, AutoSaveService.formatFor(target), target);
+
+            long pixelCount = (long) result.getWidth() * result.getHeight();
+            pixels.addAndGet(pixelCount);
+            done.incrementAndGet();
+            out.printf("%9.1f ms  %s -> %s (%dx%d)%n", (System.nanoTime() - t0) / 1e6,
+                    file, target, result.getWidth(), result.getHeight());
+        } catch (IOException | RuntimeException ex) {
+            failed.incrementAndGet();
+            out.println("FAILED " + file + ": " + ex);
+        }
+    }
+
+    /**
+     * @return where the result of the image at {@code relative} to its input goes
+     */
+    private File targetFor(Path relative) {
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String fmt = format != null ? format : AutoSaveService.formatFor(relative.toFile());
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return outputDir.toPath().resolve(relative).resolveSibling(baseName + "." + fmt).toFile();
+    }
+
+    /**
+     * @return the directory the files {@code input} names are mirrored from: the
+     *         directory part of a glob, a directory itself, or the parent of a file
+     */
+    static Path baseOf(String input) {
+        int glob = indexOfAny(input, "*?[{");
+        if (glob >= 0) return globBase(input, glob);
+        Path path = Paths.get(input);
+        if (Files.isDirectory(path)) return path;
+        Path parent = path.getParent();
+        return parent != null ? parent : Paths.get("");
+    }
+
+    private static Path globBase(String input, int glob) {
+        int slash = input.lastIndexOf('/', glob);
+        return Paths.get(slash < 0 ? "." : slash == 0 ? "/" : input.substring(0, slash));
+    }
+
+    /**
+     * @return the image files {@code input} names: itself, the images in a directory, or
+     *         the files matching a glob, listed lazily
+     */
+    static Stream<Path> expand(String input) throws IOException {
+        int glob = indexOfAny(input, "*?[{");
+        if (glob < 0) {
+            Path path = Paths.get(input);
+            if (!Files.isDirectory(path)) return Stream.of(path);
+            return Files.list(path).filter(BatchProcessor::isImage);
+        }
+        // the directory part before the first wildcard is walked, the rest is matched
+        int slash = input.lastIndexOf('/', glob);
+        Path base = globBase(input, glob);
+        String pattern = input.substring(slash + 1);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : (int) pattern.chars().filter(c -> c == '/').count() + 1;
+        return Files.walk(base, depth)
+                .filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p)));
+    }
+
+    private static boolean isImage(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return Files.isRegularFile(path) && IMAGE_EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses script lines into operations.
+     *
+     * @throws IllegalArgumentException naming the line of the first bad operation
+     */
+    static List<Consumer<RenderEngine>> parse(List<String> lines) {
+        List<Consumer<RenderEngine>> ops = new ArrayList<>();
+        // consecutive shapes are stamped together, tiles in parallel
+        List<ShapeCommand> shapes = new ArrayList<>();
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                String[] w = line.split("\\s+");
+                if (w[0].equalsIgnoreCase("shape")) {
+                    shapes.add(parseShape(w));
+                    continue;
+                }
+                Consumer<RenderEngine> op = parseOperation(line);
+                addShapes(ops, shapes);
+                ops.add(op);
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("Line " + (n + 1) + ": cannot understand '" + line + "'", ex);
+            }
+        }
+        addShapes(ops, shapes);
+        return ops;
+    }
+
+    private static void addShapes(List<Consumer<RenderEngine>> ops, List<ShapeCommand> shapes) {
+        if (shapes.isEmpty()) return;
+        List<ShapeCommand> batch = List.copyOf(shapes);
+        shapes.clear();
+        ops.add(e -> e.drawShapes(batch));
+    }
+
+    private static ShapeCommand parseShape(String[] w) {
+        ShapeType type = ShapeType.valueOf(w[1].toUpperCase(Locale.ROOT));
+        int x1 = Integer.parseInt(w[2]), y1 = Integer.parseInt(w[3]);
+        int x2 = Integer.parseInt(w[4]), y2 = Integer.parseInt(w[5]);
+        ToolOptions options = new ToolOptions().withShapeType(type);
+        if (w.length > 6) options = options.withColor(parseColor(w[6]));
+        if (w.length > 7) options = options.withSize(Integer.parseInt(w[7]));
+        if (w.length > 8) options = options.withPolygonSides(Integer.parseInt(w[8]));
+        return new ShapeCommand(x1, y1, x2, y2, options);
+    }
+
+    private static Consumer<RenderEngine> parseOperation(String line) {
+        String[] w = line.split("\\s+");
+        switch (w[0].toLowerCase(Locale.ROOT)) {
+            case "rotate" -> {
+                int degrees = Integer.parseInt(w[1]);
+                if (degrees != 90 && degrees != 180 && degrees != 270) throw new IllegalArgumentException();
+                return e -> e.rotate(degrees, null);
+            }
+            case "flip" -> {
+                boolean horizontal = switch (w[1].toLowerCase(Locale.ROOT)) {
+                    case "horizontal" -> true;
+                    case "vertical" -> false;
+                    default -> throw new IllegalArgumentException();
+                };
+                return e -> e.flip(horizontal, null);
+            }
+            case "resize" -> {
+                int width = Integer.parseInt(w[1]), height = Integer.parseInt(w[2]);
+                if (width < 1 || height < 1) throw new IllegalArgumentException();
+                return e -> e.resizeCanvas(width, height);
+            }
+            case "text" -> {
+                int x = Integer.parseInt(w[1]), y = Integer.parseInt(w[2]);
+                int size = Integer.parseInt(w[3]);
+                Color color = parseColor(w[4]);
+                // everything after the color, spacing kept
+                String text = line.split("\\s+", 6)[5];
+                ToolOptions options = new ToolOptions().withColor(color).withTextSize(size).withText(text);
+                return e -> e.drawText(x, y, options);
+            }
+            case "fill" -> {
+                int x = Integer.parseInt(w[1]), y = Integer.parseInt(w[2]);
+                Color color = parseColor(w[3]);
+                int tolerance = w.length > 4 ? Integer.parseInt(w[4]) : new ToolOptions().getFillTolerance();
+                return e -> e.floodFill(x, y, color, tolerance);
+            }
+            default -> throw new IllegalArgumentException();
+        }
+    }
+
+    private static Color parseColor(String s) {
+        if (!s.startsWith("#") || (s.length() != 7 && s.length() != 9)) throw new IllegalArgumentException();
+        int argb = (int) Long.parseLong(s.substring(1), 16);
+        return s.length() == 7 ? new Color(argb) : new Color(argb, true);
+    }
+}
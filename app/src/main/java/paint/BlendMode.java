@@ -0,0 +1,74 @@
+package paint;
+
+/**
+ * How a {@link Layer} combines with the layers below it. Works on non-premultiplied
+ * 8-bit ARGB the way the CSS compositing spec does: the mode mixes the colors where
+ * both layers are opaque and the result is then laid over the backdrop.
+ */
+public enum BlendMode {
+    NORMAL("Normal"),
+    MULTIPLY("Multiply"),
+    SCREEN("Screen"),
+    OVERLAY("Overlay"),
+    DARKEN("Darken"),
+    LIGHTEN("Lighten"),
+    DIFFERENCE("Difference");
+
+    private final String label;
+
+    BlendMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    /**
+     * Lays {@code src}, faded to {@code opacity} (0-255), over {@code dst}.
+     */
+    public int blend(int dst, int src, int opacity) {
+        int as = mul(src >>> 24, opacity);
+        if (as == 0) return dst;
+        int ab = dst >>> 24;
+        if (ab == 0) return as << 24 | (src & 0xFFFFFF);
+        if (as == 255 && this == NORMAL) return src;
+        int ao = as + mul(ab, 255 - as);
+        int r = channel(dst >> 16 & 0xFF, src >> 16 & 0xFF, as, ab, ao);
+        int g = channel(dst >> 8 & 0xFF, src >> 8 & 0xFF, as, ab, ao);
+        int b = channel(dst & 0xFF, src & 0xFF, as, ab, ao);
+        return ao << 24 | r << 16 | g << 8 | b;
+    }
+
+    private int channel(int cb, int cs, int as, int ab, int ao) {
+        //over an opaque backdrop, the usual case, this is a plain mix without division
+        if (ab == 255) return Math.min(255, mul(as, mix(cb, cs)) + mul(255 - as, cb));
+        //where the backdrop is transparent the source color shows unmixed
+        int s = mul(255 - ab, cs) + mul(ab, mix(cb, cs));
+        return Math.min(255, (as * s + mul(ab, 255 - as) * cb + ao / 2) / ao);
+    }
+
+    /**
+     * @return the backdrop color {@code cb} mixed with the source color {@code cs}
+     */
+    private int mix(int cb, int cs) {
+        return switch (this) {
+            case NORMAL -> cs;
+            case MULTIPLY -> mul(cb, cs);
+            case SCREEN -> cb + cs - mul(cb, cs);
+            case OVERLAY -> cb < 128 ? mul(2 * cb, cs) : 255 - mul(2 * (255 - cb), 255 - cs);
+            case DARKEN -> Math.min(cb, cs);
+            case LIGHTEN -> Math.max(cb, cs);
+            case DIFFERENCE -> Math.abs(cb - cs);
+        };
+    }
+
+    /**
+     * @return a * b / 255, rounded
+     */
+    private static int mul(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+}
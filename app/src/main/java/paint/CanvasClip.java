@@ -0,0 +1,81 @@
+package paint;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Copied pixels that share the tiles of the canvas they came from instead of holding a
+ * copy, see {@link TiledCanvas#snapshotRegion}. The canvas copies a tile before it draws
+ * over one a clip still holds, so a clip keeps the pixels it was copied with and copying
+ * any area costs one reference per tile. Pixels are only read out when the clip is pasted
+ * or saved. Immutable.
+ */
+public final class CanvasClip {
+    private final TiledCanvas tiles;
+    // Where the copied area lies in the tiles
+    private final int x, y, width, height;
+
+    private CanvasClip(TiledCanvas tiles, int x, int y, int width, int height) {
+        this.tiles = tiles;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return the part of {@code area} inside the canvas, or null if that is empty
+     */
+    public static CanvasClip of(TiledCanvas canvas, Rectangle area) {
+        Rectangle r = area.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        if (r.isEmpty()) return null;
+        TiledCanvas view = canvas.snapshotRegion(r.x, r.y, r.width, r.height);
+        return new CanvasClip(view, r.x % TiledCanvas.TILE_SIZE, r.y % TiledCanvas.TILE_SIZE, r.width, r.height);
+    }
+
+    /**
+     * @return a clip holding a copy of {@code img}
+     */
+    public static CanvasClip of(BufferedImage img) {
+        return new CanvasClip(TiledCanvas.fromImage(img).snapshot(), 0, 0, img.getWidth(), img.getHeight());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Copies the pixels into {@code dst} with row stride {@link #getWidth}.
+     */
+    public void readPixels(int[] dst) {
+        tiles.readPixels(x, y, width, height, dst);
+    }
+
+    /**
+     * @return a new TYPE_INT_ARGB image holding a copy of the pixels
+     */
+    public BufferedImage toImage() {
+        return tiles.copyRegion(x, y, width, height);
+    }
+
+    /**
+     * Draws the pixels with their top-left corner at (dx, dy), the way drawing
+     * {@link #toImage} there would, touching only the tiles inside the clip of {@code g2}.
+     */
+    public void paint(Graphics2D g2, int dx, int dy) {
+        Rectangle dest = new Rectangle(dx, dy, width, height);
+        Rectangle clip = g2.getClipBounds();
+        if (clip != null) dest = dest.intersection(clip);
+        if (dest.isEmpty()) return;
+        Graphics2D g = (Graphics2D) g2.create();
+        //whole tiles are drawn, so keep what lies around the area out
+        g.clip(dest);
+        g.translate(dx - x, dy - y);
+        tiles.paint(g, new Rectangle(dest.x - dx + x, dest.y - dy + y, dest.width, dest.height));
+        g.dispose();
+    }
+}
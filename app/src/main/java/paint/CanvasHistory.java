@@ -0,0 +1,717 @@
+package paint;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo/redo history for a {@link TiledCanvas}.
+ * <p>
+ *     Instead of copying the whole canvas for every operation, an edit only records
+ *     the tiles it touched. Each tile is stored as a deflate-compressed XOR of its
+ *     pixels before and after the edit, so the same patch is used for both undo and
+ *     redo and untouched pixels compress down to almost nothing. Resizes only keep the
+ *     pixels they crop away, and whole-canvas rotations and flips are undone by applying
+ *     the inverse transform, so neither stores a copy of the canvas.
+ * <p>
+ *     {@link #recordChange} takes the pixels from before an edit as a snapshot of the
+ *     canvas tiles instead of copying them, and compares and compresses them on a
+ *     background thread, so an edit of millions of pixels such as a bucket fill does not
+ *     hold up the thread that made it.
+ * <p>
+ *     Every edit remembers the canvas it was made on, so one history serves all the
+ *     layers of a document. Edits recorded between {@link #beginGroup} and
+ *     {@link #endGroup} undo as one step, and {@link #recordAction} covers changes that
+ *     are not pixels, such as adding a layer.
+ */
+public class CanvasHistory {
+    static final int TILE_SIZE = 64;
+    /** Edits touching fewer tiles than this are compressed on the calling thread. */
+    private static final int PARALLEL_TILES = 64;
+
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-compress");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final int maxHistory;
+    private final long maxBytes;
+
+    private final Deque<Edit> undoStack = new ArrayDeque<>();
+    private final Deque<Edit> redoStack = new ArrayDeque<>();
+    private long bytesUsed;
+    // Number of the last edit recorded, and of the last one recorded before mark()
+    private long serial, mark;
+    // Edits recorded since beginGroup(), or null outside a group
+    private List<Edit> group;
+    // Edits from recordChange whose patches are not in bytesUsed yet
+    private final List<SnapshotEdit> compressing = new ArrayList<>();
+
+    // Edit currently being recorded (between beginEdit and commitEdit)
+    private TiledCanvas pendingCanvas;
+    private final Map<Integer, int[]> pendingTiles = new HashMap<>();
+
+    /**
+     * Creates a history that keeps at most {@code maxHistory} undo steps and at most
+     * {@code maxBytes} bytes of compressed patch data. With {@code maxHistory} 0 nothing
+     * is recorded, for canvases that are never undone.
+     */
+    public CanvasHistory(int maxHistory, long maxBytes) {
+        this.maxHistory = maxHistory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts recording an edit on the given canvas. Call {@link #touch} with the bounds of
+     * every region before drawing into it, then {@link #commitEdit} when the operation ends.
+     */
+    public void beginEdit(TiledCanvas canvas) {
+        if (maxHistory == 0) return;
+        pendingTiles.clear();
+        pendingCanvas = canvas;
+    }
+
+    public boolean isEditing() {
+        return pendingCanvas != null;
+    }
+
+    /**
+     * Saves the original pixels of every tile intersecting the given rectangle that
+     * has not been saved yet during the current edit.
+     */
+    public void touch(int x, int y, int w, int h) {
+        if (pendingCanvas == null || w <= 0 || h <= 0) return;
+        int imgW = pendingCanvas.getWidth();
+        int imgH = pendingCanvas.getHeight();
+        int x0 = Math.max(0, x) / TILE_SIZE;
+        int y0 = Math.max(0, y) / TILE_SIZE;
+        int x1 = Math.min(imgW - 1, x + w - 1) / TILE_SIZE;
+        int y1 = Math.min(imgH - 1, y + h - 1) / TILE_SIZE;
+        if (x + w <= 0 || y + h <= 0 || x >= imgW || y >= imgH) return;
+
+        int tilesAcross = tilesAcross(imgW);
+        for (int ty = y0; ty <= y1; ty++) {
+            for (int tx = x0; tx <= x1; tx++) {
+                int key = ty * tilesAcross + tx;
+                if (pendingTiles.containsKey(key)) continue;
+                Rectangle r = tileBounds(tx, ty, imgW, imgH);
+                pendingTiles.put(key, read(pendingCanvas, r));
+            }
+        }
+    }
+
+    public void touch(Rectangle r) {
+        touch(r.x, r.y, r.width, r.height);
+    }
+
+    public void touchAll() {
+        if (pendingCanvas == null) return;
+        touch(0, 0, pendingCanvas.getWidth(), pendingCanvas.getHeight());
+    }
+
+    /**
+     * Finishes the current edit, compressing the difference of every touched tile.
+     * Tiles whose pixels did not actually change are dropped.
+     */
+    public void commitEdit() {
+        if (pendingCanvas == null) return;
+        TiledCanvas canvas = pendingCanvas;
+        int imgW = canvas.getWidth();
+        int imgH = canvas.getHeight();
+        int tilesAcross = tilesAcross(imgW);
+
+        Stream<Map.Entry<Integer, int[]>> tiles = pendingTiles.entrySet().stream();
+        if (pendingTiles.size() >= PARALLEL_TILES) tiles = tiles.parallel();
+        List<Patch> patches = tiles.map(entry -> {
+            int key = entry.getKey();
+            Rectangle r = tileBounds(key % tilesAcross, key / tilesAcross, imgW, imgH);
+            return diff(canvas, r, entry.getValue(), r);
+        }).filter(Objects::nonNull).collect(Collectors.toList());
+        pendingTiles.clear();
+        pendingCanvas = null;
+
+        if (!patches.isEmpty()) {
+            push(new Edit(canvas, patches));
+        }
+    }
+
+    /**
+     * @return the XOR patch for {@code target} between {@code before} and the pixels now
+     *         in {@code r}, or null if they did not change
+     */
+    private static Patch diff(TiledCanvas canvas, Rectangle r, int[] before, Rectangle target) {
+        int[] after = read(canvas, r);
+        if (Arrays.equals(before, after)) return null;
+        boolean uniform = true;
+        for (int i = 0; i < after.length; i++) {
+            after[i] ^= before[i];
+            uniform &= after[i] == after[0];
+        }
+        if (uniform) return new Patch(target, after[0]);
+        return new Patch(target, compress(after), true);
+    }
+
+    /**
+     * Runs {@code change}, which writes at most the pixels in {@code areas} of
+     * {@code canvas}, all inside {@code bounds}, and records it as one edit. Instead of
+     * copying the pixels first like {@link #touch}, this keeps a snapshot of the tiles
+     * covering {@code bounds} from before and after the change, which costs a reference
+     * per tile, and builds the patches from them on a background thread. Until they are
+     * ready, undo and redo copy the pixels back from the snapshots.
+     */
+    public void recordChange(TiledCanvas canvas, Rectangle bounds, List<Rectangle> areas, Runnable change) {
+        if (maxHistory == 0 || bounds.isEmpty()) {
+            change.run();
+            return;
+        }
+        TiledCanvas before = canvas.snapshotRegion(bounds.x, bounds.y, bounds.width, bounds.height);
+        change.run();
+        TiledCanvas after = canvas.snapshotRegion(bounds.x, bounds.y, bounds.width, bounds.height);
+
+        int imgW = canvas.getWidth();
+        int imgH = canvas.getHeight();
+        int tilesAcross = tilesAcross(imgW);
+        Set<Integer> keys = new TreeSet<>();
+        for (Rectangle r : areas) {
+            for (int ty = r.y / TILE_SIZE; ty <= (r.y + r.height - 1) / TILE_SIZE; ty++) {
+                for (int tx = r.x / TILE_SIZE; tx <= (r.x + r.width - 1) / TILE_SIZE; tx++) {
+                    keys.add(ty * tilesAcross + tx);
+                }
+            }
+        }
+        List<Rectangle> rects = new ArrayList<>(keys.size());
+        for (int key : keys) {
+            rects.add(tileBounds(key % tilesAcross, key / tilesAcross, imgW, imgH));
+        }
+        SnapshotEdit edit = new SnapshotEdit(canvas, before, after,
+                bounds.x / TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE,
+                bounds.y / TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE, rects);
+        if (group != null) {
+            // a group adds up the sizes of its edits when it ends
+            edit.settle(edit.compress());
+        } else {
+            edit.future = CompletableFuture.supplyAsync(edit::compress, compressor);
+            compressing.add(edit);
+        }
+        push(edit);
+    }
+
+    /**
+     * Hands the patches that are ready to their edits and counts their size, if the
+     * edits are still in the history.
+     */
+    private void settle() {
+        if (compressing.isEmpty()) return;
+        for (Iterator<SnapshotEdit> it = compressing.iterator(); it.hasNext(); ) {
+            SnapshotEdit edit = it.next();
+            if (!edit.future.isDone()) continue;
+            it.remove();
+            long old = edit.byteSize;
+            edit.settle(edit.future.join());
+            if (undoStack.contains(edit) || redoStack.contains(edit)) {
+                bytesUsed += edit.byteSize - old;
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Drops the edit being recorded without adding it to the history.
+     */
+    public void cancelEdit() {
+        pendingTiles.clear();
+        pendingCanvas = null;
+    }
+
+    /**
+     * Records a resize that is about to happen. Only the pixels the resize will crop
+     * away are saved; call this before {@link TiledCanvas#resize}.
+     */
+    public void recordResize(TiledCanvas canvas, int newW, int newH, int background) {
+        if (maxHistory == 0) return;
+        int oldW = canvas.getWidth();
+        int oldH = canvas.getHeight();
+        List<Patch> cropped = new ArrayList<>();
+        if (newW < oldW) {
+            capture(canvas, new Rectangle(newW, 0, oldW - newW, oldH), cropped);
+        }
+        if (newH < oldH) {
+            capture(canvas, new Rectangle(0, newH, Math.min(newW, oldW), oldH - newH), cropped);
+        }
+        push(new ResizeEdit(canvas, cropped, oldW, oldH, newW, newH, background));
+    }
+
+    /**
+     * Records a whole-canvas rotation by a quarter turn that has just been applied.
+     */
+    public void recordRotate(TiledCanvas canvas, int degrees) {
+        if (maxHistory == 0) return;
+        push(new TransformEdit(canvas, degrees, false, false));
+    }
+
+    /**
+     * Records a whole-canvas flip that has just been applied.
+     */
+    public void recordFlip(TiledCanvas canvas, boolean horizontal) {
+        if (maxHistory == 0) return;
+        push(new TransformEdit(canvas, 0, true, horizontal));
+    }
+
+    /**
+     * Records a change that has just been made by other means than pixels, undone and
+     * redone by running {@code undo} and {@code redo}.
+     */
+    public void recordAction(Runnable undo, Runnable redo) {
+        if (maxHistory == 0) return;
+        push(new ActionEdit(undo, redo));
+    }
+
+    /**
+     * Starts collecting the edits recorded until {@link #endGroup} into one step, e.g. a
+     * resize of every layer.
+     */
+    public void beginGroup() {
+        if (maxHistory == 0) return;
+        group = new ArrayList<>();
+    }
+
+    public void endGroup() {
+        if (group == null) return;
+        List<Edit> edits = group;
+        group = null;
+        if (!edits.isEmpty()) push(new GroupEdit(edits));
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Reverts the most recent edit on the canvas it was made on.
+     */
+    public void undo() {
+        if (!canUndo()) return;
+        settle();
+        Edit edit = undoStack.pop();
+        redoStack.push(edit);
+        edit.undo();
+    }
+
+    /**
+     * Re-applies the most recently undone edit.
+     */
+    public void redo() {
+        if (!canRedo()) return;
+        settle();
+        Edit edit = redoStack.pop();
+        undoStack.push(edit);
+        edit.redo();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        bytesUsed = 0;
+        group = null;
+        compressing.clear();
+        cancelEdit();
+    }
+
+    /**
+     * @return compressed bytes currently held by the undo and redo stacks
+     */
+    public long getMemoryUsage() {
+        settle();
+        return bytesUsed;
+    }
+
+    public int getUndoCount() {
+        return undoStack.size();
+    }
+
+    /**
+     * Remembers which edits exist now, including one still being recorded, so
+     * {@link #isUndoMarked} and {@link #isRedoMarked} can tell them from later ones.
+     */
+    public void mark() {
+        mark = isEditing() ? serial + 1 : serial;
+    }
+
+    /**
+     * @return true if the next undo reverts an edit recorded before the last {@link #mark}
+     */
+    public boolean isUndoMarked() {
+        return canUndo() && undoStack.peek().serial <= mark;
+    }
+
+    /**
+     * @return true if the next redo re-applies an edit recorded before the last {@link #mark}
+     */
+    public boolean isRedoMarked() {
+        return canRedo() && redoStack.peek().serial <= mark;
+    }
+
+    private void push(Edit edit) {
+        if (group != null) {
+            group.add(edit);
+            return;
+        }
+        settle();
+        for (Edit e : redoStack) {
+            bytesUsed -= e.byteSize;
+        }
+        redoStack.clear();
+        edit.serial = ++serial;
+        undoStack.push(edit);
+        bytesUsed += edit.byteSize;
+        trim();
+    }
+
+    private void trim() {
+        // cap history, always keeping the newest step
+        while (undoStack.size() > 1 && (undoStack.size() > maxHistory || bytesUsed > maxBytes)) {
+            bytesUsed -= undoStack.removeLast().byteSize;
+        }
+    }
+
+    private static int[] read(TiledCanvas canvas, Rectangle r) {
+        int[] pixels = new int[r.width * r.height];
+        canvas.readPixels(r.x, r.y, r.width, r.height, pixels);
+        return pixels;
+    }
+
+    /** Saves the raw pixels of a region as a list of tile-sized patches. */
+    private static void capture(TiledCanvas canvas, Rectangle area, List<Patch> out) {
+        for (int y = area.y; y < area.y + area.height; y += TILE_SIZE) {
+            for (int x = area.x; x < area.x + area.width; x += TILE_SIZE) {
+                Rectangle r = new Rectangle(x, y,
+                        Math.min(TILE_SIZE, area.x + area.width - x),
+                        Math.min(TILE_SIZE, area.y + area.height - y));
+                out.add(new Patch(r, compress(read(canvas, r)), false));
+            }
+        }
+    }
+
+    private static int tilesAcross(int width) {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static Rectangle tileBounds(int tx, int ty, int imgW, int imgH) {
+        int x = tx * TILE_SIZE;
+        int y = ty * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, imgW - x), Math.min(TILE_SIZE, imgH - y));
+    }
+
+    static byte[] compress(int[] pixels) {
+        byte[] raw = new byte[pixels.length * 4];
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 4) {
+            int p = pixels[i];
+            raw[j] = (byte) (p >>> 24);
+            raw[j + 1] = (byte) (p >>> 16);
+            raw[j + 2] = (byte) (p >>> 8);
+            raw[j + 3] = (byte) p;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 16));
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static int[] decompress(byte[] data, int count) {
+        byte[] raw = new byte[count * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int off = 0;
+            while (off < raw.length && !inflater.finished()) {
+                off += inflater.inflate(raw, off, raw.length - off);
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt history patch", ex);
+        } finally {
+            inflater.end();
+        }
+        int[] pixels = new int[count];
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            pixels[i] = (raw[j] & 0xFF) << 24 | (raw[j + 1] & 0xFF) << 16
+                    | (raw[j + 2] & 0xFF) << 8 | (raw[j + 3] & 0xFF);
+        }
+        return pixels;
+    }
+
+    /**
+     * Compressed pixels of one tile, either raw or XORed with the other side of the edit.
+     * An XOR that is the same for every pixel has no data, only that value.
+     */
+    private static final class Patch {
+        final Rectangle bounds;
+        final byte[] data;
+        final boolean xor;
+        final int value;
+
+        Patch(Rectangle bounds, byte[] data, boolean xor) {
+            this.bounds = bounds;
+            this.data = data;
+            this.xor = xor;
+            this.value = 0;
+        }
+
+        Patch(Rectangle bounds, int xorValue) {
+            this.bounds = bounds;
+            this.data = null;
+            this.xor = true;
+            this.value = xorValue;
+        }
+
+        int byteSize() {
+            return data == null ? 4 : data.length;
+        }
+
+        void apply(TiledCanvas canvas) {
+            Rectangle r = bounds;
+            int[] pixels;
+            if (data == null) {
+                pixels = new int[r.width * r.height];
+                Arrays.fill(pixels, value);
+            } else {
+                pixels = decompress(data, r.width * r.height);
+            }
+            if (xor) {
+                int[] current = read(canvas, r);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] ^= current[i];
+                }
+            }
+            canvas.writePixels(r.x, r.y, r.width, r.height, pixels);
+        }
+    }
+
+    private static class Edit {
+        final TiledCanvas canvas;
+        final List<Patch> patches;
+        // Only changes while a SnapshotEdit is being compressed
+        long byteSize;
+        long serial;
+
+        Edit(TiledCanvas canvas, List<Patch> patches) {
+            this.canvas = canvas;
+            this.patches = patches;
+            long size = 0;
+            for (Patch p : patches) {
+                size += p.byteSize();
+            }
+            this.byteSize = size;
+        }
+
+        /** For edits that hold no pixels of their own. */
+        Edit(long byteSize) {
+            this.canvas = null;
+            this.patches = List.of();
+            this.byteSize = byteSize;
+        }
+
+        void undo() {
+            for (Patch p : patches) {
+                p.apply(canvas);
+            }
+        }
+
+        void redo() {
+            undo();
+        }
+    }
+
+    /** Size change; {@code patches} hold the pixels that were cropped away. */
+    private static final class ResizeEdit extends Edit {
+        final int oldW, oldH, newW, newH, background;
+
+        ResizeEdit(TiledCanvas canvas, List<Patch> cropped, int oldW, int oldH, int newW, int newH, int background) {
+            super(canvas, cropped);
+            this.oldW = oldW;
+            this.oldH = oldH;
+            this.newW = newW;
+            this.newH = newH;
+            this.background = background;
+        }
+
+        @Override
+        void undo() {
+            canvas.resize(oldW, oldH, background);
+            super.undo();
+        }
+
+        @Override
+        void redo() {
+            canvas.resize(newW, newH, background);
+        }
+    }
+
+    /** Whole-canvas rotation or flip, undone by applying the inverse transform. */
+    private static final class TransformEdit extends Edit {
+        final int degrees;
+        final boolean flip, horizontal;
+
+        TransformEdit(TiledCanvas canvas, int degrees, boolean flip, boolean horizontal) {
+            super(canvas, new ArrayList<>());
+            this.degrees = degrees;
+            this.flip = flip;
+            this.horizontal = horizontal;
+        }
+
+        @Override
+        void undo() {
+            if (flip) {
+                canvas.flip(horizontal);
+            } else {
+                canvas.rotate(360 - degrees);
+            }
+        }
+
+        @Override
+        void redo() {
+            if (flip) {
+                canvas.flip(horizontal);
+            } else {
+                canvas.rotate(degrees);
+            }
+        }
+    }
+
+    /** Change made outside the pixels, such as adding or removing a layer. */
+    private static final class ActionEdit extends Edit {
+        final Runnable undo, redo;
+
+        ActionEdit(Runnable undo, Runnable redo) {
+            super(0);
+            this.undo = undo;
+            this.redo = redo;
+        }
+
+        @Override
+        void undo() {
+            undo.run();
+        }
+
+        @Override
+        void redo() {
+            redo.run();
+        }
+    }
+
+    /**
+     * Edit from {@link #recordChange}: the tiles from before and after it until the
+     * patches built from them in the background are settled.
+     */
+    private static final class SnapshotEdit extends Edit {
+        final List<Rectangle> rects;
+        final int originX, originY;
+        CompletableFuture<List<Patch>> future;
+        // Null once the patches are settled
+        TiledCanvas before, after;
+
+        SnapshotEdit(TiledCanvas canvas, TiledCanvas before, TiledCanvas after, int originX, int originY,
+                     List<Rectangle> rects) {
+            super(canvas, new ArrayList<>());
+            this.before = before;
+            this.after = after;
+            this.originX = originX;
+            this.originY = originY;
+            this.rects = rects;
+        }
+
+        /**
+         * Builds the patches from the snapshots. Reads nothing but them, so it runs on
+         * any thread.
+         */
+        List<Patch> compress() {
+            Stream<Rectangle> tiles = rects.stream();
+            if (rects.size() >= PARALLEL_TILES) tiles = tiles.parallel();
+            return tiles.map(r -> {
+                Rectangle local = new Rectangle(r.x - originX, r.y - originY, r.width, r.height);
+                return diff(after, local, read(before, local), r);
+            }).filter(Objects::nonNull).collect(Collectors.toList());
+        }
+
+        void settle(List<Patch> result) {
+            patches.addAll(result);
+            byteSize = result.stream().mapToLong(Patch::byteSize).sum();
+            before = null;
+            after = null;
+        }
+
+        @Override
+        void undo() {
+            if (before == null) super.undo(); else copy(before);
+        }
+
+        @Override
+        void redo() {
+            if (after == null) super.redo(); else copy(after);
+        }
+
+        private void copy(TiledCanvas from) {
+            for (Rectangle r : rects) {
+                canvas.writePixels(r.x, r.y, r.width, r.height,
+                        read(from, new Rectangle(r.x - originX, r.y - originY, r.width, r.height)));
+            }
+        }
+    }
+
+    /** Edits undone as one step, the last one first. */
+    private static final class GroupEdit extends Edit {
+        final List<Edit> edits;
+
+        GroupEdit(List<Edit> edits) {
+            super(edits.stream().mapToLong(e -> e.byteSize).sum());
+            this.edits = edits;
+        }
+
+        @Override
+        void undo() {
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                edits.get(i).undo();
+            }
+        }
+
+        @Override
+        void redo() {
+            for (Edit e : edits) {
+                e.redo();
+            }
+        }
+    }
+}
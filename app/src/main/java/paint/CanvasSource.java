@@ -0,0 +1,22 @@
+package paint;
+
+/**
+ * A canvas that can be published to other threads, such as the web server.
+ * <p>
+ *     The version changes whenever the canvas content changes, so readers can tell
+ *     whether anything they derived from an earlier snapshot is still current.
+ */
+public interface CanvasSource {
+    /**
+     * @return a counter that changes every time the canvas content changes
+     */
+    long getVersion();
+
+    /**
+     * Returns an immutable, point-in-time view of the canvas that is safe to read from
+     * any thread while the owner keeps drawing.
+     *
+     * @return the snapshot, or null if there is no canvas yet
+     */
+    TiledCanvas snapshot();
+}
@@ -0,0 +1,491 @@
+package paint;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+
+public class DrawingPanel extends JPanel implements CanvasSource {
+    private final RenderEngine engine;
+    private int startX, startY, lastX, lastY;
+    private boolean drawing;
+    private final Runnable onChange;
+
+    private DrawingTool currentTool = DrawingTool.PENCIL;
+    private ToolOptions toolOptions = new ToolOptions();
+
+    private SelectionTool selectionTool = new SelectionTool();
+    private boolean selecting = false;
+    private boolean pasting = false;
+    // The vector shape the select tool is dragging
+    private ShapeLayer.Item pickedShape;
+
+    private Color brushColor = Color.BLACK;
+    private int brushSize = 3;
+
+    // While an ImageLoader fills the canvas, a scaled-down preview shown below the rows
+    // that have arrived
+    private BufferedImage loadPreview;
+
+    // Zoom is 2^(zoomSteps / 2), so every other step is a power of two and 0 is exactly 1:1
+    private static final int MIN_ZOOM_STEPS = -16, MAX_ZOOM_STEPS = 6;
+    private int zoomSteps;
+    private double zoom = 1;
+    // Built the first time the canvas is painted at another zoom than 1:1
+    private MipmapPyramid pyramid;
+
+    // Freehand strokes: input points are buffered by the engine and drawn once per frame
+    private static final int FRAME_MS = 16;
+    private final javax.swing.Timer strokeTimer = new javax.swing.Timer(FRAME_MS, e -> flushStroke());
+
+    public ToolOptions getToolOptions() {
+        return this.toolOptions;
+    }
+
+
+    public DrawingPanel(Runnable onChange) {
+        this(new RenderEngine(), onChange);
+    }
+
+    /**
+     * Shows and edits {@code engine}, which from now on belongs to the event dispatch thread.
+     */
+    public DrawingPanel(RenderEngine engine, Runnable onChange) {
+        this.engine = engine;
+        this.onChange = onChange;
+        setBackground(Color.WHITE);
+        engine.setListener(new RenderEngine.Listener() {
+            @Override
+            public void areaChanged(Rectangle area) {
+                repaintCanvas(area);
+            }
+
+            @Override
+            public void canvasChanged() {
+                revalidate();
+                repaint();
+            }
+
+            @Override
+            public void edited() {
+                if (onChange != null) onChange.run();
+            }
+        });
+
+        MouseAdapter mouseHandler = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (engine.isLoading()) return;
+                engine.ensureCanvas();
+                //the eyedropper picks what is shown, whatever layer it is on
+                TiledCanvas canvas = engine.getComposite();
+                startX = toCanvas(e.getX());
+                startY = toCanvas(e.getY());
+                lastX = startX;
+                lastY = startY;
+
+                if (currentTool == DrawingTool.EYEDROPPER && canvas != null) {
+                    if (startX >= 0 && startX < canvas.getWidth() && startY >= 0 && startY < canvas.getHeight()) {
+                        int rgb = canvas.getRGB(startX, startY);
+                        setBrushColor(new Color(rgb, true));
+                    }
+                    return;
+                }
+                if (willModifyImage(currentTool)) {
+                    engine.beginEdit();
+                }
+                if (currentTool == DrawingTool.SELECT) {
+                    ShapeLayer shapes = engine.getShapeLayer();
+                    pickedShape = shapes != null ? shapes.pick(startX, startY) : null;
+                    if (pickedShape != null) {
+                        //dragging moves the shape instead of selecting
+                        repaintCanvas(pickedShape.getBounds());
+                        return;
+                    }
+                    selectionTool.startSelection(startX, startY);
+                    selecting = true;
+                    return;
+                }
+                if (currentTool == DrawingTool.PASTE) {
+                    engine.pasteClip(selectionTool.getClipboard(), startX, startY);
+                    return;
+                }
+                if (currentTool == DrawingTool.FILL) {
+                    engine.floodFill(startX, startY, toolOptions.getColor(), toolOptions.getFillTolerance());
+                    return;
+                }
+
+                drawing = true;
+                if (currentTool == DrawingTool.PENCIL || currentTool == DrawingTool.DRAW) {
+                    beginStroke(startX, startY, toolOptions.getColor(), toolOptions);
+                } else if (currentTool == DrawingTool.ERASER) {
+                    beginStroke(startX, startY, engine.getEraserColor(), toolOptions);
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                int x = toCanvas(e.getX());
+                int y = toCanvas(e.getY());
+                if(drawing && engine.hasImage()) {
+                    engine.addStrokePoint(x, y);
+                    lastX = x;
+                    lastY = y;
+                }
+                if (pickedShape != null) {
+                    engine.moveShape(pickedShape, x - lastX, y - lastY);
+                    lastX = x;
+                    lastY = y;
+                    return;
+                }
+                if (selecting) {
+                    selectionTool.updateSelection(x, y);
+                    repaint();
+                    return;
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (drawing && engine.hasImage()) {
+                    int x = toCanvas(e.getX());
+                    int y = toCanvas(e.getY());
+                    if (currentTool == DrawingTool.SHAPE) {
+                        engine.drawShape(startX, startY, x, y, toolOptions);
+                    } else if (currentTool == DrawingTool.TEXT) {
+                        engine.drawText(x, y, toolOptions);
+                    }
+                }
+                if (selecting) {
+                    selecting = false;
+                    repaint();
+                }
+                if (pickedShape != null) {
+                    repaintCanvas(pickedShape.getBounds());
+                    pickedShape = null;
+                }
+                endStroke();
+                engine.commitEdit();
+                drawing = false;
+            }
+        };
+
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+
+        //ctrl + wheel zooms around the pointer, the plain wheel still scrolls
+        addMouseWheelListener(e -> {
+            if (e.isControlDown()) {
+                zoomBy(-e.getWheelRotation(), e.getPoint());
+            } else {
+                JScrollPane scroll = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (scroll != null) scroll.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scroll));
+            }
+        });
+    }
+
+    /**
+     * @return the canvas coordinate under screen coordinate {@code v} of this panel
+     */
+    private int toCanvas(int v) {
+        return zoom == 1 ? v : (int) Math.floor(v / zoom);
+    }
+
+    /**
+     * Repaints the screen area showing canvas area {@code r}.
+     */
+    private void repaintCanvas(Rectangle r) {
+        if (zoom == 1) {
+            repaint(r);
+            return;
+        }
+        int x0 = (int) Math.floor(r.x * zoom), y0 = (int) Math.floor(r.y * zoom);
+        int x1 = (int) Math.ceil((r.x + r.width) * zoom), y1 = (int) Math.ceil((r.y + r.height) * zoom);
+        repaint(x0 - 1, y0 - 1, x1 - x0 + 2, y1 - y0 + 2);
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Zooms in (positive) or out by half-octave steps, keeping the canvas point under
+     * {@code anchor}, in panel coordinates, where it is. A null anchor means the middle
+     * of the visible area.
+     */
+    public void zoomBy(int steps, Point anchor) {
+        setZoomSteps(zoomSteps + steps, anchor);
+    }
+
+    /**
+     * Goes back to 1:1.
+     */
+    public void resetZoom() {
+        setZoomSteps(0, null);
+    }
+
+    private void setZoomSteps(int steps, Point anchor) {
+        steps = Math.max(MIN_ZOOM_STEPS, Math.min(MAX_ZOOM_STEPS, steps));
+        if (steps == zoomSteps) return;
+        Rectangle visible = getVisibleRect();
+        if (anchor == null) {
+            anchor = new Point(visible.x + visible.width / 2, visible.y + visible.height / 2);
+        }
+        double canvasX = anchor.x / zoom, canvasY = anchor.y / zoom;
+        zoomSteps = steps;
+        zoom = steps == 0 ? 1 : Math.pow(2, steps / 2.0);
+
+        //resize now rather than on the next layout so the viewport accepts the new position
+        Dimension size = getPreferredSize();
+        setSize(size);
+        revalidate();
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (viewport != null) {
+            Dimension extent = viewport.getExtentSize();
+            int x = (int) Math.round(canvasX * zoom) - (anchor.x - visible.x);
+            int y = (int) Math.round(canvasY * zoom) - (anchor.y - visible.y);
+            x = Math.max(0, Math.min(x, size.width - extent.width));
+            y = Math.max(0, Math.min(y, size.height - extent.height));
+            viewport.setViewPosition(new Point(x, y));
+        }
+        repaint();
+    }
+
+    private boolean willModifyImage(DrawingTool t) {
+        return t == DrawingTool.PENCIL || t == DrawingTool.DRAW || t == DrawingTool.ERASER
+                || t == DrawingTool.SHAPE || t == DrawingTool.TEXT;
+    }
+
+    /**
+     * @return the document shown by this panel
+     */
+    public RenderEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Starts a freehand stroke at (x, y), flushed to the canvas once per frame until
+     * {@link #endStroke}. See {@link RenderEngine#beginStroke}.
+     */
+    public void beginStroke(int x, int y, Color c, ToolOptions options) {
+        engine.beginStroke(x, y, c, options);
+        strokeTimer.start();
+    }
+
+    /**
+     * Draws what is left of the current stroke, if any, and ends it.
+     */
+    public void endStroke() {
+        strokeTimer.stop();
+        engine.endStroke();
+    }
+
+    /**
+     * Draws the points of the current stroke buffered so far; called once per frame.
+     */
+    public void flushStroke() {
+        engine.flushStroke();
+    }
+
+    public void setSmoothing(boolean smoothing) {
+        this.toolOptions = toolOptions.withSmoothing(smoothing);
+    }
+
+    public void setFillTolerance(int tolerance) {
+        this.toolOptions = toolOptions.withFillTolerance(tolerance);
+    }
+
+    public void setBrushSize(int size) {
+        this.toolOptions = toolOptions.withSize(size);
+    }
+    public void setTool(DrawingTool tool) {
+        this.currentTool = tool;
+    }
+
+    public void setShapeType(ShapeType type) {
+        this.toolOptions = toolOptions.withShapeType(type);
+    }
+
+    public void setDashed(boolean dashed) {
+        this.toolOptions = toolOptions.withDashed(dashed);
+    }
+
+    public void setPolygonSides(int sides) {
+        this.toolOptions = toolOptions.withPolygonSides(sides);
+    }
+
+    public void setText(String text, int size) {
+        this.toolOptions = toolOptions.withText(text).withTextSize(size);
+    }
+
+    /**
+     * Swaps in a blank canvas of the given size for an {@link ImageLoader} to fill and
+     * stops editing until {@link #endLoad}. Until then snapshots and the version still
+     * describe the previous canvas, so autosave and viewers never see half an image.
+     */
+    public void beginLoad(int width, int height) {
+        loadPreview = null;
+        engine.beginLoad(width, height);
+    }
+
+    /**
+     * Shows {@code preview}, scaled to the canvas size, wherever full-resolution rows have
+     * not arrived yet.
+     */
+    public void showLoadPreview(BufferedImage preview) {
+        if (!engine.isLoading()) return;
+        loadPreview = preview;
+        repaint();
+    }
+
+    /**
+     * Stores the tile row starting at canvas row {@code y}, see {@link TiledCanvas#loadTileRow}.
+     */
+    public void loadTileRow(int y, int[] argb) {
+        engine.loadTileRow(y, argb);
+    }
+
+    /**
+     * Finishes a load. Keeps the loaded canvas and drops the undo history, or puts the
+     * previous canvas back if the load was cancelled or failed.
+     */
+    public void endLoad(boolean keep) {
+        loadPreview = null;
+        engine.endLoad(keep);
+    }
+
+    /**
+     * Returns a read-only snapshot of the canvas. Can be called from any thread: the
+     * snapshot is taken on the event dispatch thread, which only costs a copy of the
+     * tile grid, and repeated calls for the same version share one snapshot.
+     */
+    @Override
+    public TiledCanvas snapshot() {
+        TiledCanvas current = engine.peekSnapshot();
+        if (current != null) return current;
+        if (!SwingUtilities.isEventDispatchThread()) {
+            TiledCanvas[] result = new TiledCanvas[1];
+            try {
+                SwingUtilities.invokeAndWait(() -> result[0] = snapshot());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (java.lang.reflect.InvocationTargetException ex) {
+                throw new IllegalStateException("Failed to snapshot canvas", ex.getCause());
+            }
+            return result[0];
+        }
+        return engine.snapshot();
+    }
+
+    /**
+     * @return a counter that changes every time the canvas content changes
+     */
+    @Override
+    public long getVersion() {
+        return engine.getVersion();
+    }
+
+    public void setBrushColor(Color color) {
+        this.brushColor = color;
+        this.toolOptions = toolOptions.withColor(color);
+    }
+
+    public void copySelection() {
+        if (engine.hasImage()) {
+            selectionTool.copy(engine);
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        // Swing hands us a clip for repaint(Rectangle) calls; the canvas only blits tiles inside it
+        super.paintComponent(g);
+        if (engine.hasImage()) {
+            Dimension size = getPreferredSize();
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(size);
+            int loadedY = (int) Math.floor(engine.getLoadedRows() * zoom);
+            if (loadPreview != null && clip.y + clip.height > loadedY) {
+                //rows still loading show the preview, stretched to full size
+                Graphics2D g2 = (Graphics2D) g.create();
+                g2.clipRect(0, loadedY, size.width, size.height - loadedY);
+                g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2.drawImage(loadPreview, 0, 0, size.width, size.height, null);
+                g2.dispose();
+                clip = clip.intersection(new Rectangle(0, 0, size.width, loadedY));
+            }
+            if (!clip.isEmpty()) {
+                paintCanvas((Graphics2D) g, clip);
+                paintShapes((Graphics2D) g, clip);
+            }
+        }
+        if (pickedShape != null) {
+            g.setColor(Color.BLUE);
+            ((Graphics2D) g).setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{3}, 0));
+            Rectangle b = pickedShape.getBounds();
+            g.drawRect((int) Math.floor(b.x * zoom), (int) Math.floor(b.y * zoom),
+                    (int) Math.round(b.width * zoom), (int) Math.round(b.height * zoom));
+        }
+        if (selectionTool.getSelection() != null) {
+            g.setColor(Color.BLUE);
+            ((Graphics2D) g).setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{3}, 0));
+            Rectangle sel = selectionTool.getSelection();
+            g.drawRect((int) Math.floor(sel.x * zoom), (int) Math.floor(sel.y * zoom),
+                    (int) Math.round(sel.width * zoom), (int) Math.round(sel.height * zoom));
+        }
+    }
+
+
+    /**
+     * Paints the canvas at the current zoom. 1:1 blits canvas tiles directly; any other
+     * zoom goes through the mipmap pyramid so the cost follows the visible area.
+     */
+    private void paintCanvas(Graphics2D g, Rectangle clip) {
+        TiledCanvas canvas = engine.getComposite();
+        if (zoom == 1) {
+            canvas.paint(g, clip);
+            return;
+        }
+        if (pyramid == null || pyramid.getCanvas() != canvas) {
+            pyramid = new MipmapPyramid(canvas);
+        }
+        pyramid.paint(g, zoom, clip);
+    }
+
+    /**
+     * Paints the vector shapes that reach the screen area {@code clip} over the canvas.
+     */
+    private void paintShapes(Graphics2D g, Rectangle clip) {
+        ShapeLayer shapes = engine.getShapeLayer();
+        if (shapes == null || shapes.isEmpty()) return;
+        int x0 = (int) Math.floor(clip.x / zoom), y0 = (int) Math.floor(clip.y / zoom);
+        int x1 = (int) Math.ceil((clip.x + clip.width) / zoom), y1 = (int) Math.ceil((clip.y + clip.height) / zoom);
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.clip(clip);
+        g2.scale(zoom, zoom);
+        shapes.paint(g2, new Rectangle(x0, y0, x1 - x0, y1 - y0));
+        g2.dispose();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        TiledCanvas canvas = engine.getCanvas();
+        if (canvas != null) {
+            return new Dimension((int) Math.ceil(canvas.getWidth() * zoom), (int) Math.ceil(canvas.getHeight() * zoom));
+        }
+        return new Dimension(1440, 1920);
+    }
+
+    public void rotateSelectionOrCanvas(int degrees) {
+        engine.rotate(degrees, selectionTool.getSelection());
+    }
+
+    /**
+     * Flip either the selection (if one exists) or the whole canvas.
+     * @param horizontal true => horizontal flip (left <-> right), false => vertical flip (top <-> bottom)
+     */
+    public void flipSelectionOrCanvas(boolean horizontal) {
+        engine.flip(horizontal, selectionTool.getSelection());
+    }
+}
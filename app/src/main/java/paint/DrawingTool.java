@@ -1,6 +1,9 @@
+package paint;
+
 public enum DrawingTool {
     PENCIL,
     EYEDROPPER,
+    FILL,
     SHAPE,
     DRAW,
     ERASER,
@@ -0,0 +1,892 @@
+package paint;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Crash recovery journal for every open tab.
+ * <p>
+ *     Each operation on a canvas (stroke paths, shapes, text, pastes, transforms,
+ *     layer changes, undo and redo) is appended to {@code journal-<generation>.bin} as a small record,
+ *     so keeping the journal current costs as much as the work done, not the canvas size.
+ *     A checkpoint starts a new generation: it writes a record holding the layers of each
+ *     tab, their properties and which one is active, each pointing at the files in the
+ *     {@link RawCanvasFile} working format its canvas is rebuilt from. Those are a base
+ *     holding every tile, then files holding only the tiles that changed since the
+ *     checkpoint before, so a checkpoint also costs what was done since, not the canvas
+ *     size. A canvas opened from a working file that it still matches takes that file as
+ *     its base instead of a copy, for as long as the file is not saved over. The new files
+ *     are written in the background, and only then are the older generations and the
+ *     files no longer pointed at deleted. Recovery replays every generation left on disk
+ *     in order, skipping checkpoints whose files never got written or have changed, which
+ *     lands on the same state either way. Checkpoints are mapped back in lazily, so
+ *     recovering a huge canvas does not read all of it up front.
+ * <p>
+ *     Recovery starts each generation without undo history, so an undo or redo of an
+ *     edit made before the last checkpoint cannot be replayed. Instead of recording it,
+ *     the tab writes a record saying its journal stops there and sends nothing more
+ *     until the next checkpoint, which {@link #isCheckpointNeeded} asks for; recovery
+ *     skips whatever that tab did between the two. The live history stays as it is.
+ * <p>
+ *     A clean exit deletes all of it, so a journal found at startup means the last
+ *     session did not shut down cleanly. A lock file keeps a second running instance
+ *     from replaying or deleting a live journal. Everything except the checkpoint
+ *     encoding runs on the event dispatch thread.
+ */
+public class EditJournal {
+    private static final int MAGIC = 0x434A524E; // "CJRN"
+    private static final int FORMAT = 3;
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    // A layer is rebuilt from at most this many files before the changed tiles are merged
+    private static final int MAX_PARTS = 8;
+
+    // Record types
+    private static final byte BEGIN = 1;
+    private static final byte COMMIT = 2;
+    private static final byte LINE = 3;
+    private static final byte SHAPE = 4;
+    private static final byte TEXT = 5;
+    private static final byte PASTE = 6;
+    private static final byte CLEAR = 7;
+    private static final byte RESIZE = 8;
+    private static final byte ROTATE = 9;
+    private static final byte FLIP = 10;
+    private static final byte UNDO = 11;
+    private static final byte REDO = 12;
+    private static final byte CHECKPOINT = 13;
+    private static final byte PATH = 14;
+    private static final byte FILL = 15;
+    private static final byte LAYER_ADD = 16;
+    private static final byte LAYER_REMOVE = 17;
+    private static final byte LAYER_MOVE = 18;
+    private static final byte LAYER_SELECT = 19;
+    private static final byte LAYER_PROPERTIES = 20;
+    private static final byte SUSPEND = 21;
+
+    private final File dir;
+    private final Consumer<String> status;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-checkpoint");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private DataOutputStream out;
+    private int generation;
+    private long checkpointSize;
+    private boolean failed;
+    // Tabs that journal nothing until the next checkpoint
+    private final Set<Integer> suspended = new HashSet<>();
+    // What the last checkpoint holds for each layer of each tab
+    private List<List<LayerFiles>> checkpointed = List.of();
+
+    /**
+     * One of the files a layer of a checkpoint is rebuilt from: the base, which holds
+     * every tile, or a file holding only {@code tiles}, which replace the same tiles of
+     * the files before it.
+     */
+    private static final class Part {
+        final File file;
+        // Size and modification time of a file outside the journal, which may be saved over; -1 for ours
+        final long size, modified;
+        // By index, null for the base
+        final BitSet tiles;
+
+        Part(File file, long size, long modified, BitSet tiles) {
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.tiles = tiles;
+        }
+
+        boolean isIntact() {
+            return size < 0 || (file.length() == size && file.lastModified() == modified);
+        }
+    }
+
+    /** The files a layer of a checkpoint is rebuilt from, and the snapshot they hold. */
+    private static final class LayerFiles {
+        final TiledCanvas canvas;
+        final List<Part> parts;
+
+        LayerFiles(TiledCanvas canvas, List<Part> parts) {
+            this.canvas = canvas;
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * @param status receives error and recovery messages on the event dispatch thread
+     */
+    public EditJournal(File dir, Consumer<String> status) {
+        this.dir = dir;
+        this.status = status;
+    }
+
+    /**
+     * Takes the journal directory for this instance.
+     *
+     * @return false if another running instance already owns it, in which case nothing
+     * is journaled
+     */
+    public boolean open() {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) return false;
+            lockChannel = new RandomAccessFile(new File(dir, "session.lock"), "rw").getChannel();
+            lock = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException ex) {
+            lock = null;
+        }
+        if (lock == null) {
+            failed = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the previous session left a journal behind
+     */
+    public boolean hasRecoverableSession() {
+        return lock != null && !journals().isEmpty();
+    }
+
+    /**
+     * Replays the journal left by the previous session.
+     *
+     * @param engineForTab returns the engine for a tab index, creating tabs as needed
+     * @return the number of tabs that were rebuilt
+     */
+    public int recover(IntFunction<RenderEngine> engineForTab) {
+        TreeMap<Integer, RenderEngine> engines = new TreeMap<>();
+        Set<Integer> skipped = new HashSet<>();
+        // takes the records of skipped tabs, which must still be read past
+        RenderEngine discard = new RenderEngine(null, false);
+        for (File file : journals().values()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT) continue;
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException end) {
+                        break;
+                    }
+                    int tab = in.readInt();
+                    boolean seen = engines.containsKey(tab);
+                    RenderEngine engine = engines.computeIfAbsent(tab, engineForTab::apply);
+                    if (type == SUSPEND) {
+                        skipped.add(tab);
+                    } else if (type == CHECKPOINT) {
+                        if (replayCheckpoint(in, engine)) {
+                            skipped.remove(tab);
+                        } else if (!seen) {
+                            // nothing earlier to replay the records of the tab onto
+                            skipped.add(tab);
+                        }
+                    } else {
+                        replay(type, in, skipped.contains(tab) ? discard : engine);
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                // a record cut short by the crash; everything before it has been applied
+            }
+        }
+        for (RenderEngine engine : engines.values()) {
+            engine.commitEdit();
+        }
+        return engines.size();
+    }
+
+    /**
+     * Deletes the journal of the previous session without replaying it.
+     */
+    public void discard() {
+        deleteOlderThan(Integer.MAX_VALUE, Set.of());
+    }
+
+    /**
+     * @return the handle an engine writes its operations to
+     */
+    public TabLog forTab(int tab) {
+        return new TabLog(tab);
+    }
+
+    /**
+     * @return true if a tab stopped journaling or a file the last checkpoint points at
+     *         was saved over, so a new {@link #checkpoint} is due
+     */
+    public boolean isCheckpointNeeded() {
+        if (!suspended.isEmpty()) return true;
+        // a file a checkpoint reads from was saved over, so that checkpoint is lost
+        for (List<LayerFiles> tab : checkpointed) {
+            for (LayerFiles layer : tab) {
+                if (!layer.parts.get(0).isIntact()) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return bytes appended since the last checkpoint
+     */
+    public long getSizeSinceCheckpoint() {
+        return out == null ? 0 : out.size() - checkpointSize;
+    }
+
+    /**
+     * Starts a new generation that begins with a checkpoint of every tab. The snapshots
+     * are taken now; writing the tiles that changed since the last checkpoint and
+     * deleting the previous generations happens in the background.
+     *
+     * @param tabs the engine of each tab, by tab index
+     */
+    public void checkpoint(List<RenderEngine> tabs) {
+        if (lock == null || failed) return;
+        int gen = Math.max(generation, lastGeneration()) + 1;
+        List<List<LayerFiles>> planned = new ArrayList<>();
+        List<LayerFiles> writes = new ArrayList<>();
+        Set<String> keep = new HashSet<>();
+        try {
+            DataOutputStream next = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(dir, JOURNAL_PREFIX + gen + ".bin")), 1 << 16));
+            next.writeInt(MAGIC);
+            next.writeInt(FORMAT);
+            for (int i = 0; i < tabs.size(); i++) {
+                List<LayerFiles> tab = new ArrayList<>();
+                planned.add(tab);
+                LayerStack layers = tabs.get(i).snapshotLayers();
+                if (layers == null) continue;
+                List<LayerFiles> before = i < checkpointed.size() ? checkpointed.get(i) : List.of();
+                next.writeByte(CHECKPOINT);
+                next.writeInt(i);
+                next.writeInt(layers.size());
+                next.writeInt(layers.getActiveIndex());
+                for (int l = 0; l < layers.size(); l++) {
+                    Layer layer = layers.get(l);
+                    File file = new File(dir, CHECKPOINT_PREFIX + gen + "-" + i + "-" + l + RawCanvasFile.EXTENSION);
+                    LayerFiles files = plan(layer.getCanvas(), l < before.size() ? before.get(l) : null, file);
+                    tab.add(files);
+                    next.writeInt(files.parts.size());
+                    for (Part part : files.parts) {
+                        boolean ours = part.size < 0;
+                        if (ours) keep.add(part.file.getName());
+                        next.writeUTF(ours ? part.file.getName() : part.file.getPath());
+                        next.writeLong(part.size);
+                        next.writeLong(part.modified);
+                        next.writeInt(part.tiles == null ? -1 : part.tiles.cardinality());
+                        if (part.tiles != null) {
+                            for (int t = part.tiles.nextSetBit(0); t >= 0; t = part.tiles.nextSetBit(t + 1)) {
+                                next.writeInt(t);
+                            }
+                        }
+                    }
+                    if (files.parts.get(files.parts.size() - 1).file.equals(file)) writes.add(files);
+                    writeLayer(next, layer);
+                }
+            }
+            next.flush();
+            if (out != null) out.close();
+            out = next;
+            generation = gen;
+            checkpointSize = out.size();
+            checkpointed = planned;
+            for (RenderEngine engine : tabs) {
+                engine.checkpointed();
+            }
+            suspended.clear();
+        } catch (IOException ex) {
+            fail(ex);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                for (LayerFiles files : writes) {
+                    Part part = files.parts.get(files.parts.size() - 1);
+                    if (part.tiles == null) {
+                        RawCanvasFile.saveCopy(files.canvas, part.file);
+                    } else {
+                        RawCanvasFile.saveTiles(files.canvas, part.tiles, part.file);
+                    }
+                }
+                // files of an earlier checkpoint that failed are not there to build on
+                for (String name : keep) {
+                    if (!new File(dir, name).isFile()) throw new IOException(name + " was not written");
+                }
+            } catch (IOException ex) {
+                SwingUtilities.invokeLater(() -> {
+                    // the next checkpoint writes every layer again
+                    checkpointed = List.of();
+                    status.accept("Recovery checkpoint failed: " + ex.getMessage());
+                });
+                return;
+            }
+            // the new generation stands on its own now
+            deleteOlderThan(gen, keep);
+        });
+    }
+
+    /**
+     * Works out the files layer {@code canvas} is rebuilt from, writing as few tiles as
+     * possible: none if it still matches the working file it was opened from or saved to,
+     * or the tiles that changed since {@code before}, the last checkpoint of the layer at
+     * this place, into {@code file}. The files a checkpoint builds on are never changed,
+     * so the changed tiles of several checkpoints are merged into one file once there
+     * are too many, and the base is only written again when nothing else fits.
+     */
+    private LayerFiles plan(TiledCanvas canvas, LayerFiles before, File file) throws IOException {
+        int tileCount = canvas.getTilesX() * canvas.getTilesY();
+        BitSet changed = null;
+        if (before != null && before.canvas.getWidth() == canvas.getWidth()
+                && before.canvas.getHeight() == canvas.getHeight() && before.parts.get(0).isIntact()) {
+            // a tile that changed since the snapshot is a different tile
+            changed = new BitSet(tileCount);
+            for (int ty = 0; ty < canvas.getTilesY(); ty++) {
+                for (int tx = 0; tx < canvas.getTilesX(); tx++) {
+                    if (canvas.tileAt(tx, ty) != before.canvas.tileAt(tx, ty)) changed.set(ty * canvas.getTilesX() + tx);
+                }
+            }
+        }
+        RawCanvasFile.Match match = RawCanvasFile.match(canvas);
+        // the checkpoints of a recovered session are deleted as this one goes on
+        if (match != null && dir.getAbsoluteFile().equals(match.file.getParentFile())) match = null;
+        if (match != null && (changed == null || tileCount - match.tiles.cardinality() <= changed.cardinality())) {
+            List<Part> parts = new ArrayList<>();
+            parts.add(new Part(match.file, match.size, match.modified, null));
+            BitSet rest = new BitSet(tileCount);
+            rest.set(0, tileCount);
+            rest.andNot(match.tiles);
+            if (!rest.isEmpty()) parts.add(new Part(file, -1, -1, rest));
+            return new LayerFiles(canvas, parts);
+        }
+        if (changed == null) return new LayerFiles(canvas, List.of(new Part(file, -1, -1, null)));
+        if (changed.isEmpty()) return new LayerFiles(canvas, before.parts);
+        List<Part> parts = new ArrayList<>(before.parts);
+        if (parts.size() >= MAX_PARTS) {
+            // costs no more than writing the merged files did
+            for (Part part : parts.subList(1, parts.size())) {
+                changed.or(part.tiles);
+            }
+            parts.subList(1, parts.size()).clear();
+        }
+        parts.add(new Part(file, -1, -1, changed));
+        return new LayerFiles(canvas, parts);
+    }
+
+    /**
+     * Ends the session cleanly: stops journaling and deletes the journal, so the next
+     * start does not offer to recover.
+     */
+    public void close() {
+        if (lock == null) return;
+        // everything is deleted below, so a checkpoint still being written is not needed
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (out != null) out.close();
+        } catch (IOException ignore) {
+        }
+        out = null;
+        failed = true;
+        discard();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException ignore) {
+        }
+        lock = null;
+    }
+
+    private void replay(byte type, DataInputStream in, RenderEngine engine) throws IOException {
+        switch (type) {
+            case BEGIN -> engine.beginEdit();
+            case COMMIT -> engine.commitEdit();
+            case LINE -> {
+                int x1 = in.readInt(), y1 = in.readInt(), x2 = in.readInt(), y2 = in.readInt();
+                Color color = new Color(in.readInt(), true);
+                ToolOptions options = readStroke(in);
+                engine.drawSegment(x1, y1, x2, y2, color, options);
+            }
+            case PATH -> {
+                Color color = new Color(in.readInt(), true);
+                ToolOptions options = readStroke(in);
+                float phase = in.readFloat();
+                Path2D.Float path = new Path2D.Float();
+                float[] c = new float[6];
+                for (int n = in.readInt(); n > 0; n--) {
+                    int segment = in.readByte();
+                    for (int i = 0; i < coordCount(segment); i++) c[i] = in.readFloat();
+                    switch (segment) {
+                        case PathIterator.SEG_MOVETO -> path.moveTo(c[0], c[1]);
+                        case PathIterator.SEG_LINETO -> path.lineTo(c[0], c[1]);
+                        case PathIterator.SEG_QUADTO -> path.quadTo(c[0], c[1], c[2], c[3]);
+                        case PathIterator.SEG_CUBICTO -> path.curveTo(c[0], c[1], c[2], c[3], c[4], c[5]);
+                        default -> path.closePath();
+                    }
+                }
+                engine.drawPath(path, color, options, phase);
+            }
+            case SHAPE -> {
+                int x1 = in.readInt(), y1 = in.readInt(), x2 = in.readInt(), y2 = in.readInt();
+                ShapeType shape = ShapeType.valueOf(in.readUTF());
+                int sides = in.readInt();
+                Color color = new Color(in.readInt(), true);
+                ToolOptions options = readStroke(in).withShapeType(shape).withPolygonSides(sides).withColor(color);
+                engine.drawShape(x1, y1, x2, y2, options);
+            }
+            case TEXT -> {
+                int x = in.readInt(), y = in.readInt();
+                Color color = new Color(in.readInt(), true);
+                int size = in.readInt();
+                ToolOptions options = new ToolOptions().withColor(color).withTextSize(size).withText(in.readUTF());
+                engine.drawText(x, y, options);
+            }
+            case FILL -> {
+                int x = in.readInt(), y = in.readInt();
+                Color color = new Color(in.readInt(), true);
+                engine.floodFill(x, y, color, in.readInt());
+            }
+            case PASTE -> {
+                int x = in.readInt(), y = in.readInt(), w = in.readInt(), h = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                img.setRGB(0, 0, w, h, CanvasHistory.decompress(data, w * h), 0, w);
+                engine.pasteImage(img, x, y);
+            }
+            case CLEAR -> engine.clearCanvas();
+            case RESIZE -> engine.resizeCanvas(in.readInt(), in.readInt());
+            case ROTATE -> {
+                int degrees = in.readInt();
+                engine.rotate(degrees, readSelection(in));
+            }
+            case FLIP -> {
+                boolean horizontal = in.readBoolean();
+                engine.flip(horizontal, readSelection(in));
+            }
+            case UNDO -> engine.undo();
+            case REDO -> engine.redo();
+            case LAYER_ADD -> engine.addLayer();
+            case LAYER_REMOVE -> engine.removeLayer(in.readInt());
+            case LAYER_MOVE -> engine.moveLayer(in.readInt(), in.readInt());
+            case LAYER_SELECT -> engine.selectLayer(in.readInt());
+            case LAYER_PROPERTIES -> {
+                int index = in.readInt();
+                Layer layer = readLayer(in, null);
+                engine.setLayerProperties(index, layer.getName(), layer.getOpacity(), layer.getBlendMode(),
+                        layer.isVisible(), layer.isLocked());
+            }
+            default -> throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    /**
+     * @return false if the files of the checkpoint were never written or have changed
+     */
+    private boolean replayCheckpoint(DataInputStream in, RenderEngine engine) throws IOException {
+        int count = in.readInt(), active = in.readInt();
+        List<Layer> layers = new ArrayList<>();
+        boolean written = true;
+        for (int i = 0; i < count; i++) {
+            TiledCanvas canvas = null;
+            for (int p = in.readInt(); p > 0; p--) {
+                String name = in.readUTF();
+                Part part = new Part(new File(name).isAbsolute() ? new File(name) : new File(dir, name),
+                        in.readLong(), in.readLong(), null);
+                int[] tiles = new int[Math.max(0, in.readInt())];
+                for (int t = 0; t < tiles.length; t++) tiles[t] = in.readInt();
+                // missing if the crash beat the writer, changed if a working file was saved
+                // over since; the older generation already got us here
+                written &= part.file.isFile() && part.isIntact();
+                if (!written) continue;
+                TiledCanvas files = RawCanvasFile.open(part.file);
+                if (canvas == null) {
+                    canvas = files;
+                } else {
+                    for (int t : tiles) canvas.takeTile(t, files);
+                }
+            }
+            layers.add(readLayer(in, canvas));
+        }
+        if (written) engine.setLayers(layers, active);
+        return written;
+    }
+
+    private static void writeLayer(DataOutputStream out, Layer layer) throws IOException {
+        out.writeUTF(layer.getName());
+        out.writeFloat(layer.getOpacity());
+        out.writeUTF(layer.getBlendMode().name());
+        out.writeBoolean(layer.isVisible());
+        out.writeBoolean(layer.isLocked());
+    }
+
+    private static Layer readLayer(DataInputStream in, TiledCanvas canvas) throws IOException {
+        String name = in.readUTF();
+        float opacity = in.readFloat();
+        BlendMode mode = BlendMode.valueOf(in.readUTF());
+        boolean visible = in.readBoolean();
+        Layer layer = new Layer(name, canvas);
+        layer.set(name, opacity, mode, visible, in.readBoolean());
+        return layer;
+    }
+
+    private static ToolOptions readStroke(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        return new ToolOptions().withSize(size).withDashed(in.readBoolean());
+    }
+
+    /**
+     * @return how many coordinates a {@link PathIterator} segment of this type has
+     */
+    private static int coordCount(int segment) {
+        return switch (segment) {
+            case PathIterator.SEG_MOVETO, PathIterator.SEG_LINETO -> 2;
+            case PathIterator.SEG_QUADTO -> 4;
+            case PathIterator.SEG_CUBICTO -> 6;
+            default -> 0;
+        };
+    }
+
+    private static Rectangle readSelection(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    }
+
+    /**
+     * @return the journal files by generation, oldest first
+     */
+    private TreeMap<Integer, File> journals() {
+        TreeMap<Integer, File> result = new TreeMap<>();
+        File[] files = dir.listFiles();
+        if (files == null) return result;
+        for (File f : files) {
+            int gen = generationOf(f.getName(), JOURNAL_PREFIX);
+            if (gen >= 0) result.put(gen, f);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the journals and checkpoint files of generations before {@code gen}, except
+     * the files named in {@code keep}.
+     */
+    private void deleteOlderThan(int gen, Set<String> keep) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            int g = Math.max(generationOf(f.getName(), JOURNAL_PREFIX), generationOf(f.getName(), CHECKPOINT_PREFIX));
+            if (g >= 0 && g < gen && !keep.contains(f.getName())) f.delete();
+        }
+    }
+
+    /**
+     * @return the generation in a name like {@code journal-12.bin} or {@code checkpoint-12-0-1.cpaint},
+     * or -1 if the name does not start with prefix
+     */
+    private static int generationOf(String name, String prefix) {
+        if (!name.startsWith(prefix)) return -1;
+        int start = prefix.length();
+        int end = start;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) end++;
+        return end == start ? -1 : Integer.parseInt(name.substring(start, end));
+    }
+
+    private int lastGeneration() {
+        TreeMap<Integer, File> journals = journals();
+        return journals.isEmpty() ? 0 : journals.lastKey();
+    }
+
+    private void fail(IOException ex) {
+        failed = true;
+        status.accept("Crash recovery journal disabled: " + ex.getMessage());
+    }
+
+    /**
+     * Appends the operations of one tab. Records are buffered and flushed when an
+     * operation ends, so a crash loses at most the stroke that was being drawn.
+     */
+    public final class TabLog {
+        private final int tab;
+
+        private TabLog(int tab) {
+            this.tab = tab;
+        }
+
+        public void beginEdit() {
+            if (start(BEGIN)) end();
+        }
+
+        public void commitEdit() {
+            if (start(COMMIT)) end();
+        }
+
+        public void line(int x1, int y1, int x2, int y2, Color color, ToolOptions options) {
+            if (!start(LINE)) return;
+            try {
+                writePoints(x1, y1, x2, y2);
+                out.writeInt(color.getRGB());
+                writeStroke(options);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            // stays buffered until the stroke is committed
+        }
+
+        public void path(Shape path, Color color, ToolOptions options, float dashPhase) {
+            if (!start(PATH)) return;
+            try {
+                out.writeInt(color.getRGB());
+                writeStroke(options);
+                out.writeFloat(dashPhase);
+                // segments are counted first, so gather them before writing
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream segments = new DataOutputStream(bytes);
+                float[] c = new float[6];
+                int n = 0;
+                for (PathIterator it = path.getPathIterator(null); !it.isDone(); it.next()) {
+                    int segment = it.currentSegment(c);
+                    segments.writeByte(segment);
+                    for (int i = 0; i < coordCount(segment); i++) segments.writeFloat(c[i]);
+                    n++;
+                }
+                out.writeInt(n);
+                bytes.writeTo(out);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            // stays buffered until the stroke is committed
+        }
+
+        public void shape(int x1, int y1, int x2, int y2, ToolOptions options) {
+            if (!start(SHAPE)) return;
+            try {
+                writePoints(x1, y1, x2, y2);
+                out.writeUTF(options.getShapeType().name());
+                out.writeInt(options.getPolygonSides());
+                out.writeInt(options.getColor().getRGB());
+                writeStroke(options);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+
+        public void text(int x, int y, ToolOptions options) {
+            if (!start(TEXT)) return;
+            try {
+                out.writeInt(x);
+                out.writeInt(y);
+                out.writeInt(options.getColor().getRGB());
+                out.writeInt(options.getTextSize());
+                out.writeUTF(options.getText());
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+
+        public void fill(int x, int y, Color color, int tolerance) {
+            if (!start(FILL)) return;
+            try {
+                out.writeInt(x);
+                out.writeInt(y);
+                out.writeInt(color.getRGB());
+                out.writeInt(tolerance);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void paste(int x, int y, CanvasClip clip) {
+            if (!start(PASTE)) return;
+            int w = clip.getWidth();
+            int h = clip.getHeight();
+            int[] pixels = new int[w * h];
+            clip.readPixels(pixels);
+            byte[] data = CanvasHistory.compress(pixels);
+            try {
+                writePoints(x, y, w, h);
+                out.writeInt(data.length);
+                out.write(data);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void clear() {
+            if (start(CLEAR)) end();
+        }
+
+        public void resize(int width, int height) {
+            if (!start(RESIZE)) return;
+            try {
+                out.writeInt(width);
+                out.writeInt(height);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void rotate(int degrees, Rectangle sel) {
+            if (!start(ROTATE)) return;
+            try {
+                out.writeInt(degrees);
+                writeSelection(sel);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void flip(boolean horizontal, Rectangle sel) {
+            if (!start(FLIP)) return;
+            try {
+                out.writeBoolean(horizontal);
+                writeSelection(sel);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void undo() {
+            if (start(UNDO)) end();
+        }
+
+        public void redo() {
+            if (start(REDO)) end();
+        }
+
+        /**
+         * Stops journaling this tab until the next checkpoint, after a change that
+         * recovery could not replay.
+         */
+        public void suspend() {
+            if (start(SUSPEND)) end();
+            suspended.add(tab);
+        }
+
+        public void addLayer() {
+            if (start(LAYER_ADD)) end();
+        }
+
+        public void removeLayer(int index) {
+            if (!start(LAYER_REMOVE)) return;
+            try {
+                out.writeInt(index);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void moveLayer(int from, int to) {
+            if (!start(LAYER_MOVE)) return;
+            try {
+                out.writeInt(from);
+                out.writeInt(to);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void selectLayer(int index) {
+            if (!start(LAYER_SELECT)) return;
+            try {
+                out.writeInt(index);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        public void layerProperties(int index, Layer layer) {
+            if (!start(LAYER_PROPERTIES)) return;
+            try {
+                out.writeInt(index);
+                writeLayer(out, layer);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+            end();
+        }
+
+        private boolean start(byte type) {
+            if (out == null || failed || suspended.contains(tab)) return false;
+            try {
+                out.writeByte(type);
+                out.writeInt(tab);
+                return true;
+            } catch (IOException ex) {
+                fail(ex);
+                return false;
+            }
+        }
+
+        private void end() {
+            if (out == null || failed) return;
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+
+        private void writePoints(int a, int b, int c, int d) throws IOException {
+            out.writeInt(a);
+            out.writeInt(b);
+            out.writeInt(c);
+            out.writeInt(d);
+        }
+
+        private void writeStroke(ToolOptions options) throws IOException {
+            out.writeInt(options.getSize());
+            out.writeBoolean(options.isDashed());
+        }
+
+        private void writeSelection(Rectangle sel) throws IOException {
+            out.writeBoolean(sel != null);
+            if (sel != null) {
+                writePoints(sel.x, sel.y, sel.width, sel.height);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package paint;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Bucket fill of a {@link TiledCanvas}: the region of pixels connected to a seed pixel
+ * (through their four neighbours) whose color is within a tolerance of the seed's.
+ * <p>
+ *     The region is found before anything is written, with a scanline fill over bit
+ *     masks: the first time the fill reaches a tile, one pass over the tile's pixel array
+ *     records which pixels match, and from then on spans are found 64 pixels at a time.
+ *     Single-color tiles need no pass at all. The region is kept as a second bit mask
+ *     per tile, so its bounds are known before the canvas changes. Tiles the region
+ *     covers completely become single-color tiles without a pixel buffer; the others
+ *     are written in parallel once there are enough of them to be worth it.
+ */
+public class FloodFill {
+    private static final int SIZE = TiledCanvas.TILE_SIZE;
+    private static final int SHIFT = Integer.numberOfTrailingZeros(SIZE);
+    private static final int MASK = SIZE - 1;
+    private static final int WORDS = SIZE / 64; // mask words per tile row
+    private static final long[] ALL = filled(-1L), NONE = filled(0);
+    /** Partly covered tiles below this are written on the calling thread. */
+    private static final int PARALLEL_TILES = 8;
+
+    private final TiledCanvas canvas;
+    private final int width, height, tilesX;
+    // Per channel, the lowest and highest value that matches
+    private final int lowA, highA, lowR, highR, lowG, highG, lowB, highB;
+
+    // Per tile, null until the fill reaches it: which pixels match, which are in the
+    // region (a row every WORDS longs), how many are, and the region's bounds within
+    // the tile as x0, y0, x1, y1
+    private final long[][] matching;
+    private final long[][] region;
+    private final int[] counts;
+    private final int[][] tileBounds;
+    private int minX, minY, maxX, maxY;
+
+    private int[] stack = new int[256];
+    private int stackSize;
+
+    /**
+     * Finds the region to fill from (x, y), which must lie inside the canvas.
+     *
+     * @param tolerance how far, 0 to 255, each ARGB channel of a pixel may be from the
+     *                  seed's for the pixel to join the region; 0 means the same color only
+     */
+    public FloodFill(TiledCanvas canvas, int x, int y, int tolerance) {
+        this.canvas = canvas;
+        this.width = canvas.getWidth();
+        this.height = canvas.getHeight();
+        this.tilesX = canvas.getTilesX();
+        int target = canvas.getRGB(x, y);
+        int t = Math.max(0, Math.min(255, tolerance));
+        lowA = (target >>> 24) - t;
+        highA = (target >>> 24) + t;
+        lowR = (target >> 16 & 0xFF) - t;
+        highR = (target >> 16 & 0xFF) + t;
+        lowG = (target >> 8 & 0xFF) - t;
+        highG = (target >> 8 & 0xFF) + t;
+        lowB = (target & 0xFF) - t;
+        highB = (target & 0xFF) + t;
+        int tiles = tilesX * canvas.getTilesY();
+        this.matching = new long[tiles][];
+        this.region = new long[tiles][];
+        this.counts = new int[tiles];
+        this.tileBounds = new int[tiles][];
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = -1;
+        select(x, y);
+    }
+
+    /**
+     * @return the bounding box of the region
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * @return the bounding box of the region within each tile it reaches, in canvas
+     *         coordinates; together they are all {@link #apply} writes
+     */
+    public List<Rectangle> getTileAreas() {
+        List<Rectangle> areas = new ArrayList<>();
+        for (int i = 0; i < region.length; i++) {
+            int[] b = tileBounds[i];
+            if (b == null) continue;
+            int x = (i % tilesX) << SHIFT, y = (i / tilesX) << SHIFT;
+            areas.add(new Rectangle(x + b[0], y + b[1], b[2] - b[0] + 1, b[3] - b[1] + 1));
+        }
+        return areas;
+    }
+
+    /**
+     * Sets every pixel of the region to {@code argb}. Must be called on the thread that
+     * modifies the canvas, before anything else changes it.
+     */
+    public void apply(int argb) {
+        List<TiledCanvas.Tile> partial = new ArrayList<>();
+        List<long[]> partialMasks = new ArrayList<>();
+        for (int i = 0; i < region.length; i++) {
+            if (region[i] == null) continue;
+            int tx = i % tilesX, ty = i / tilesX;
+            Rectangle r = canvas.tileBounds(tx, ty);
+            if (counts[i] == r.width * r.height) {
+                canvas.fillTile(tx, ty, argb);
+            } else {
+                partial.add(canvas.writableTileAt(tx, ty));
+                partialMasks.add(region[i]);
+            }
+        }
+        IntStream indices = IntStream.range(0, partial.size());
+        if (partial.size() >= PARALLEL_TILES) indices = indices.parallel();
+        indices.forEach(i -> write(partial.get(i), partialMasks.get(i), argb));
+    }
+
+    private static void write(TiledCanvas.Tile t, long[] mask, int argb) {
+        t.materialize();
+        int[] px = t.pixels;
+        for (int w = 0; w < mask.length; w++) {
+            long bits = mask[w];
+            int base = w << 6;
+            if (bits == -1L) {
+                Arrays.fill(px, base, base + 64, argb);
+                continue;
+            }
+            while (bits != 0) {
+                px[base + Long.numberOfTrailingZeros(bits)] = argb;
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private void select(int x, int y) {
+        push(x, y);
+        while (stackSize > 0) {
+            stackSize -= 2;
+            int sx = stack[stackSize], sy = stack[stackSize + 1];
+            if (isMarked(sx, sy)) continue;
+            int lx = runStart(sx, sy);
+            int rx = next(true, sx, sy, width, false) - 1;
+            mark(lx, rx + 1, sy);
+            if (sy > 0) seedRow(lx, rx, sy - 1);
+            if (sy < height - 1) seedRow(lx, rx, sy + 1);
+        }
+    }
+
+    /**
+     * Pushes one seed for every run of matching, unmarked pixels in row y between lx and rx.
+     */
+    private void seedRow(int lx, int rx, int y) {
+        int x = lx;
+        while (x <= rx) {
+            // marked pixels match too, so this stops at the first marked or matching one
+            x = next(true, x, y, rx + 1, true);
+            if (x > rx) return;
+            if (isMarked(x, y)) {
+                x = next(false, x, y, rx + 1, false);
+                continue;
+            }
+            push(x, y);
+            x = Math.min(next(true, x, y, rx + 1, false), next(false, x, y, rx + 1, true));
+        }
+    }
+
+    private void push(int x, int y) {
+        if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+    }
+
+    /**
+     * @return 1 if every channel of {@code c} is within the tolerance, else 0
+     */
+    private int matchBit(int c) {
+        int a = c >>> 24, r = c >> 16 & 0xFF, g = c >> 8 & 0xFF, b = c & 0xFF;
+        // negative if any channel is out of range
+        int out = (a - lowA) | (highA - a) | (r - lowR) | (highR - r)
+                | (g - lowG) | (highG - g) | (b - lowB) | (highB - b);
+        return ~out >>> 31;
+    }
+
+    /**
+     * @return the match mask of tile i, worked out on first use
+     */
+    private long[] matchMask(int i) {
+        long[] mask = matching[i];
+        if (mask != null) return mask;
+        TiledCanvas.Tile t = canvas.tileAt(i % tilesX, i / tilesX);
+        if (t.isUniform()) {
+            mask = matchBit(t.color) == 1 ? ALL : NONE;
+        } else {
+            mask = new long[SIZE * WORDS];
+            int[] px = t.pixels;
+            for (int w = 0; w < mask.length; w++) {
+                int base = w << 6;
+                long bits = 0;
+                for (int b = 0; b < 64; b++) {
+                    bits |= (long) matchBit(px[base + b]) << b;
+                }
+                mask[w] = bits;
+            }
+        }
+        matching[i] = mask;
+        return mask;
+    }
+
+    private boolean isMarked(int x, int y) {
+        long[] mask = region[(y >> SHIFT) * tilesX + (x >> SHIFT)];
+        if (mask == null) return false;
+        int bit = ((y & MASK) << SHIFT) + (x & MASK);
+        return (mask[bit >> 6] & 1L << bit) != 0;
+    }
+
+    /**
+     * @param match true to look at which pixels match, false at which are in the region
+     * @return the first x from {@code x} up to {@code limit} whose bit in row y is
+     *         {@code set}, or limit
+     */
+    private int next(boolean match, int x, int y, int limit, boolean set) {
+        int row = (y >> SHIFT) * tilesX;
+        int first = (y & MASK) * WORDS;
+        while (x < limit) {
+            int i = row + (x >> SHIFT);
+            long[] mask = match ? matchMask(i) : region[i];
+            if (mask == null) mask = NONE;
+            int tileX = (x >> SHIFT) << SHIFT;
+            int end = Math.min(limit, tileX + SIZE);
+            for (int w = first + ((x & MASK) >> 6); x < end; w++) {
+                long bits = set ? mask[w] : ~mask[w];
+                bits &= -1L << (x & 63);
+                if (bits != 0) {
+                    return Math.min(end, tileX + ((w - first) << 6) + Long.numberOfTrailingZeros(bits));
+                }
+                x = tileX + ((w - first + 1) << 6);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * @return the leftmost x of the run of matching pixels in row y that ends at {@code x}
+     */
+    private int runStart(int x, int y) {
+        int row = (y >> SHIFT) * tilesX;
+        int first = (y & MASK) * WORDS;
+        while (x > 0) {
+            int last = x - 1; // the pixel left of x, known to be checked next
+            long[] mask = matchMask(row + (last >> SHIFT));
+            int tileX = (last >> SHIFT) << SHIFT;
+            for (int w = first + ((last & MASK) >> 6); w >= first; w--) {
+                int wordX = tileX + ((w - first) << 6);
+                // non-matching pixels at or left of x - 1
+                long bits = ~mask[w] & (-1L >>> (63 - ((x - 1) & 63)));
+                if (bits != 0) {
+                    return wordX + 64 - Long.numberOfLeadingZeros(bits);
+                }
+                x = wordX;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds pixels x0 (inclusive) to x1 (exclusive) of row y to the region.
+     */
+    private void mark(int x0, int x1, int y) {
+        minX = Math.min(minX, x0);
+        maxX = Math.max(maxX, x1 - 1);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        int row = (y >> SHIFT) * tilesX;
+        int ly = y & MASK;
+        while (x0 < x1) {
+            int tileX = (x0 >> SHIFT) << SHIFT;
+            int end = Math.min(x1, tileX + SIZE);
+            int i = row + (x0 >> SHIFT);
+            long[] mask = region[i];
+            int[] b = tileBounds[i];
+            if (mask == null) {
+                mask = region[i] = new long[SIZE * WORDS];
+                b = tileBounds[i] = new int[]{SIZE, SIZE, -1, -1};
+            }
+            int from = (ly << SHIFT) + (x0 - tileX), to = from + (end - x0); // bit indices
+            for (int w = from >> 6; w <= (to - 1) >> 6; w++) {
+                long bits = -1L;
+                if (w == from >> 6) bits &= -1L << (from & 63);
+                if (w == (to - 1) >> 6) bits &= -1L >>> (63 - ((to - 1) & 63));
+                mask[w] |= bits;
+            }
+            counts[i] += end - x0;
+            b[0] = Math.min(b[0], x0 - tileX);
+            b[1] = Math.min(b[1], ly);
+            b[2] = Math.max(b[2], end - 1 - tileX);
+            b[3] = Math.max(b[3], ly);
+            x0 = end;
+        }
+    }
+
+    private static long[] filled(long bits) {
+        long[] mask = new long[SIZE * WORDS];
+        Arrays.fill(mask, bits);
+        return mask;
+    }
+}
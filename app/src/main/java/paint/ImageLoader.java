@@ -0,0 +1,308 @@
+package paint;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Decodes an image file into a {@link DrawingPanel} on a background thread.
+ * <p>
+ *     The panel first gets a blank canvas of the right size, then a low-resolution
+ *     preview, then full-resolution pixels one row of tiles at a time, which go straight
+ *     into the canvas tiles. Readers that can jump to any region cheaply get a subsampled
+ *     read for the preview and are then asked for one band of rows at a time, so the full
+ *     image never exists outside the canvas. Sequential formats like PNG and JPEG would
+ *     re-decode from the top for every band, and a subsampled read of them costs nearly
+ *     as much as a full one, so they are read in a single pass: the preview is an embedded
+ *     thumbnail or the first pass of an interlaced or progressive file, and rows are
+ *     handed over as the reader reports them.
+ * <p>
+ *     Rows reach the panel through {@code invokeAndWait}, which keeps the event dispatch
+ *     thread responsive and keeps the loader from running ahead of it. {@link #cancel}
+ *     aborts the reader and puts the panel's previous canvas back.
+ */
+public class ImageLoader {
+    /** Longest side of the preview; larger images are subsampled down to about this. */
+    static final int PREVIEW_SIZE = 1024;
+
+    /**
+     * Called on the event dispatch thread once loading has stopped.
+     */
+    public interface Listener {
+        /**
+         * @param error why loading failed, or null if the image loaded or was cancelled
+         */
+        void finished(ImageLoader loader, Exception error);
+    }
+
+    private final File file;
+    private final DrawingPanel panel;
+    private final Consumer<String> status;
+    private final Listener listener;
+    private final Thread thread;
+    private volatile boolean cancelled;
+    private volatile ImageReader reader;
+
+    /**
+     * @param status receives progress messages on the event dispatch thread
+     */
+    public ImageLoader(File file, DrawingPanel panel, Consumer<String> status, Listener listener) {
+        this.file = file;
+        this.panel = panel;
+        this.status = status;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "image-loader");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops loading as soon as the reader notices. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        ImageReader r = reader;
+        if (r != null) r.abort();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public DrawingPanel getPanel() {
+        return panel;
+    }
+
+    private void run() {
+        Exception error = null;
+        boolean started = false;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) throw new IOException("Cannot read " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image format");
+            ImageReader r = readers.next();
+            reader = r;
+            try {
+                r.setInput(in, false, true);
+                int width = r.getWidth(0);
+                int height = r.getHeight(0);
+                onEdt(() -> panel.beginLoad(width, height));
+                started = true;
+
+                BufferedImage preview = readPreview(r, width, height);
+                if (preview != null && !cancelled) {
+                    onEdt(() -> panel.showLoadPreview(preview));
+                }
+                if (!cancelled) {
+                    if (r.isRandomAccessEasy(0)) {
+                        readBands(r, width, height);
+                    } else {
+                        readSequential(r, width, height, preview != null);
+                    }
+                }
+            } finally {
+                reader = null;
+                r.dispose();
+            }
+        } catch (Exception ex) {
+            if (!cancelled) error = ex;
+        }
+
+        boolean loaded = started && error == null && !cancelled;
+        Exception failure = error;
+        SwingUtilities.invokeLater(() -> {
+            panel.endLoad(loaded);
+            listener.finished(this, failure);
+        });
+    }
+
+    private static int previewStep(int width, int height) {
+        return (Math.max(width, height) + PREVIEW_SIZE - 1) / PREVIEW_SIZE;
+    }
+
+    /**
+     * @return a scaled-down copy of the image, or null if it is small enough to need none
+     *         or the reader cannot make one cheaply
+     */
+    private BufferedImage readPreview(ImageReader r, int width, int height) throws IOException {
+        int step = previewStep(width, height);
+        if (step <= 1) return null;
+        if (r.readerSupportsThumbnails() && r.hasThumbnails(0)) {
+            return r.readThumbnail(0, 0);
+        }
+        if (!r.isRandomAccessEasy(0)) return null;
+        ImageReadParam param = r.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return r.read(0, param);
+    }
+
+    /**
+     * Reads one row of tiles at a time through a source region.
+     */
+    private void readBands(ImageReader r, int width, int height) throws IOException {
+        ImageReadParam param = r.getDefaultReadParam();
+        int[] argb = new int[width * TiledCanvas.TILE_SIZE];
+        for (int y = 0; y < height && !cancelled; y += TiledCanvas.TILE_SIZE) {
+            int rows = Math.min(TiledCanvas.TILE_SIZE, height - y);
+            param.setSourceRegion(new Rectangle(0, y, width, rows));
+            BufferedImage band = r.read(0, param);
+            band.getRGB(0, 0, width, rows, argb, 0, width);
+            deliver(y, argb, height);
+        }
+    }
+
+    /**
+     * Reads the image in one pass, handing over each row of tiles once the reader reports
+     * it complete. Readers do not reliably say how many passes an image has, so rows are
+     * handed over while the first pass runs if it covers every pixel. If another pass
+     * follows, the image is progressive and everything is handed over again at the end. A
+     * first pass that only covers every few pixels, as in an interlaced PNG, becomes the
+     * preview instead.
+     */
+    private void readSequential(ImageReader r, int width, int height, boolean hasPreview) throws IOException {
+        int[] argb = new int[width * TiledCanvas.TILE_SIZE];
+        int[] delivered = {0};
+        IOException[] failed = {null};
+        IIOReadUpdateListener rows = new IIOReadUpdateListener() {
+            private int passes;
+            private boolean streaming = true;
+            private boolean previewShown = hasPreview;
+            private int decoded;
+            private int passX, passY, periodX, periodY;
+
+            @Override
+            public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                                    int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+                passes++;
+                streaming = passes == 1 && periodX == 1 && periodY == 1;
+                if (passes > 1) delivered[0] = 0;
+                decoded = 0;
+                passX = minX;
+                passY = minY;
+                this.periodX = periodX;
+                this.periodY = periodY;
+            }
+
+            @Override
+            public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                                    int width, int height, int periodX, int periodY, int[] bands) {
+                if (!streaming || failed[0] != null) return;
+                decoded = Math.max(decoded, minY + (height - 1) * periodY + 1);
+                try {
+                    while (!cancelled && delivered[0] + TiledCanvas.TILE_SIZE <= decoded) {
+                        deliverFrom(theImage, delivered[0], argb);
+                        delivered[0] += TiledCanvas.TILE_SIZE;
+                    }
+                } catch (IOException ex) {
+                    failed[0] = ex;
+                    source.abort();
+                }
+            }
+
+            @Override
+            public void passComplete(ImageReader source, BufferedImage theImage) {
+                if (passes > 1 || streaming || previewShown || cancelled) return;
+                previewShown = true;
+                //sample only pixels this pass decoded: a multiple of its period
+                int step = previewStep(width, height);
+                BufferedImage preview = samplePass(theImage, passX, passY,
+                        periodX * ((step + periodX - 1) / periodX), periodY * ((step + periodY - 1) / periodY));
+                try {
+                    onEdt(() -> panel.showLoadPreview(preview));
+                } catch (IOException ex) {
+                    failed[0] = ex;
+                    source.abort();
+                }
+            }
+
+            @Override
+            public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                                             int minPass, int maxPass, int minX, int minY, int periodX,
+                                             int periodY, int[] bands) {
+            }
+
+            @Override
+            public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                                        int width, int height, int periodX, int periodY, int[] bands) {
+            }
+
+            @Override
+            public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+            }
+        };
+        r.addIIOReadUpdateListener(rows);
+        BufferedImage image = r.read(0, r.getDefaultReadParam());
+        r.removeIIOReadUpdateListener(rows);
+        if (failed[0] != null) throw failed[0];
+        for (int y = delivered[0]; y < height && !cancelled; y += TiledCanvas.TILE_SIZE) {
+            deliverFrom(image, y, argb);
+        }
+    }
+
+    /**
+     * @return every {@code stepX}th pixel of every {@code stepY}th row from (x0, y0) on
+     */
+    private static BufferedImage samplePass(BufferedImage image, int x0, int y0, int stepX, int stepY) {
+        int w = Math.max(1, (image.getWidth() - x0 + stepX - 1) / stepX);
+        int h = Math.max(1, (image.getHeight() - y0 + stepY - 1) / stepY);
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[image.getWidth()];
+        int[] sampled = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, Math.min(y0 + y * stepY, image.getHeight() - 1), image.getWidth(), 1, row, 0, image.getWidth());
+            for (int x = 0; x < w; x++) {
+                sampled[x] = row[Math.min(x0 + x * stepX, row.length - 1)];
+            }
+            out.setRGB(0, y, w, 1, sampled, 0, w);
+        }
+        return out;
+    }
+
+    private void deliverFrom(BufferedImage image, int y, int[] argb) throws IOException {
+        int rows = Math.min(TiledCanvas.TILE_SIZE, image.getHeight() - y);
+        image.getRGB(0, y, image.getWidth(), rows, argb, 0, image.getWidth());
+        deliver(y, argb, image.getHeight());
+    }
+
+    /**
+     * Hands one row of tiles to the panel and waits until it is stored, so {@code argb}
+     * can be reused for the next one.
+     */
+    private void deliver(int y, int[] argb, int height) throws IOException {
+        int rows = Math.min(TiledCanvas.TILE_SIZE, height - y);
+        int percent = (int) ((y + rows) * 100L / height);
+        onEdt(() -> {
+            if (cancelled) return;
+            panel.loadTileRow(y, argb);
+            status.accept("Loading " + file.getName() + "... " + percent + "%");
+        });
+    }
+
+    private static void onEdt(Runnable task) throws IOException {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ex);
+        } catch (InvocationTargetException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package paint;
+
+/**
+ * One layer of a {@link LayerStack}: a canvas and how it is composited over the layers
+ * below. Only the engine changes a layer, see {@link RenderEngine#setLayerProperties}.
+ */
+public final class Layer {
+    private final TiledCanvas canvas;
+    private String name;
+    private float opacity = 1;
+    private BlendMode blendMode = BlendMode.NORMAL;
+    private boolean visible = true;
+    private boolean locked;
+
+    Layer(String name, TiledCanvas canvas) {
+        this.name = name;
+        this.canvas = canvas;
+    }
+
+    public TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return how opaque the layer is drawn, from 0 to 1
+     */
+    public float getOpacity() {
+        return opacity;
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * @return whether drawing on the layer is refused
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    void set(String name, float opacity, BlendMode blendMode, boolean visible, boolean locked) {
+        this.name = name;
+        this.opacity = Math.max(0, Math.min(1, opacity));
+        this.blendMode = blendMode;
+        this.visible = visible;
+        this.locked = locked;
+    }
+}
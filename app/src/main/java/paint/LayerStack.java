@@ -0,0 +1,246 @@
+package paint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The layers of a document, bottom first, and the canvas they composite to.
+ * <p>
+ *     The composite is a {@link TiledCanvas} kept between paints. Each call to
+ *     {@link #composite} takes the tiles every layer changed since the last one and
+ *     recomposites only those, so a stroke costs the tiles it touched whatever the number
+ *     of layers. The layers below the active one are also kept composited on their own,
+ *     so redoing a tile while drawing only blends that cache with the active layer and
+ *     those above it. Tiles of a single color are blended as one pixel. Hidden layers are
+ *     skipped, and when only one layer is visible at full opacity its own canvas is the
+ *     composite, so a single-layer document costs nothing extra.
+ * <p>
+ *     Only {@link RenderEngine} changes the stack, on the thread that owns it.
+ */
+public class LayerStack {
+    private static final int SIZE = TiledCanvas.TILE_SIZE;
+
+    private final List<Layer> layers = new ArrayList<>();
+    private int active;
+    private int created;
+
+    private TiledCanvas composite, below;
+    // Tiles of the composite and of the cache below the active layer that are out of date
+    private final BitSet dirty = new BitSet();
+    private final BitSet belowDirty = new BitSet();
+    // Whether the last composite was a layer's own canvas, leaving the cache unused
+    private boolean passthrough = true;
+
+    // The tile being composited: one color while uniform, else the pixels in buffer
+    private final int[] buffer = new int[SIZE * SIZE];
+    private boolean uniform;
+    private int color;
+
+    /**
+     * Creates a stack holding only {@code background}.
+     */
+    public LayerStack(TiledCanvas background) {
+        layers.add(new Layer("Background", background));
+        created = 1;
+    }
+
+    /**
+     * Creates a stack of {@code layers}, bottom first, drawing into layer {@code active}.
+     */
+    LayerStack(List<Layer> layers, int active) {
+        this.layers.addAll(layers);
+        this.active = active;
+        created = layers.size();
+    }
+
+    public int size() {
+        return layers.size();
+    }
+
+    public Layer get(int index) {
+        return layers.get(index);
+    }
+
+    public int getActiveIndex() {
+        return active;
+    }
+
+    public Layer getActive() {
+        return layers.get(active);
+    }
+
+    public int indexOf(Layer layer) {
+        return layers.indexOf(layer);
+    }
+
+    /**
+     * @return a new transparent layer the size of the others, not yet in the stack
+     */
+    Layer createLayer() {
+        TiledCanvas base = layers.get(0).getCanvas();
+        return new Layer("Layer " + ++created, new TiledCanvas(base.getWidth(), base.getHeight(), 0));
+    }
+
+    /**
+     * Inserts {@code layer} at {@code index}. The active index stays as it is, so callers
+     * pick the active layer again afterwards.
+     */
+    void add(int index, Layer layer) {
+        layers.add(index, layer);
+        invalidate();
+    }
+
+    void remove(int index) {
+        layers.remove(index);
+        active = Math.min(active, layers.size() - 1);
+        invalidate();
+    }
+
+    void move(int from, int to) {
+        Layer activeLayer = getActive();
+        layers.add(to, layers.remove(from));
+        active = layers.indexOf(activeLayer);
+        invalidate();
+    }
+
+    void setActive(int index) {
+        if (index == active) return;
+        active = index;
+        belowDirty.set(0, tileCount());
+    }
+
+    /**
+     * Recomposites everything on the next call, after a layer's properties changed.
+     */
+    void invalidate() {
+        int n = tileCount();
+        dirty.set(0, n);
+        belowDirty.set(0, n);
+    }
+
+    private int tileCount() {
+        TiledCanvas base = layers.get(0).getCanvas();
+        return base.getTilesX() * base.getTilesY();
+    }
+
+    /**
+     * Brings the composite up to date with the layers. Must be called on the thread that
+     * changes them.
+     *
+     * @return the layers composited, which is the canvas of the only visible layer when
+     *         nothing else shows
+     */
+    public TiledCanvas composite() {
+        Layer only = passthroughLayer();
+        if (only != null) {
+            passthrough = true;
+            return only.getCanvas();
+        }
+        TiledCanvas base = layers.get(0).getCanvas();
+        int w = base.getWidth(), h = base.getHeight();
+        if (composite == null || composite.getWidth() != w || composite.getHeight() != h) {
+            composite = new TiledCanvas(w, h, 0);
+            below = new TiledCanvas(w, h, 0);
+            invalidate();
+        } else if (passthrough) {
+            //the cache missed every change made meanwhile
+            invalidate();
+        }
+        passthrough = false;
+
+        for (int i = 0; i < layers.size(); i++) {
+            BitSet changed = layers.get(i).getCanvas().takeChangedTiles();
+            if (!layers.get(i).isVisible()) continue;
+            dirty.or(changed);
+            if (i < active) belowDirty.or(changed);
+        }
+        int tilesX = composite.getTilesX(), tiles = tileCount();
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < tiles; i = dirty.nextSetBit(i + 1)) {
+            compose(i % tilesX, i / tilesX);
+        }
+        dirty.clear();
+        return composite;
+    }
+
+    /**
+     * @return the only visible layer if it is drawn as is, else null
+     */
+    private Layer passthroughLayer() {
+        Layer only = null;
+        for (Layer layer : layers) {
+            if (!layer.isVisible()) continue;
+            if (only != null) return null;
+            only = layer;
+        }
+        return only != null && only.getOpacity() == 1 ? only : null;
+    }
+
+    private void compose(int tx, int ty) {
+        int index = ty * composite.getTilesX() + tx;
+        if (active == 0) {
+            uniform = true;
+            color = 0;
+        } else if (belowDirty.get(index)) {
+            uniform = true;
+            color = 0;
+            blendLayers(0, active, tx, ty);
+            store(below, tx, ty);
+            belowDirty.clear(index);
+        } else {
+            TiledCanvas.Tile t = below.tileAt(tx, ty);
+            uniform = t.isUniform();
+            if (uniform) {
+                color = t.color;
+            } else {
+                System.arraycopy(t.pixels, 0, buffer, 0, buffer.length);
+            }
+        }
+        blendLayers(active, layers.size(), tx, ty);
+        store(composite, tx, ty);
+    }
+
+    /**
+     * Blends tile (tx, ty) of layers {@code from} to {@code to} - 1 over the current tile.
+     */
+    private void blendLayers(int from, int to, int tx, int ty) {
+        for (int i = from; i < to; i++) {
+            Layer layer = layers.get(i);
+            int opacity = Math.round(layer.getOpacity() * 255);
+            if (!layer.isVisible() || opacity == 0) continue;
+            BlendMode mode = layer.getBlendMode();
+            TiledCanvas.Tile t = layer.getCanvas().tileAt(tx, ty);
+            if (t.isUniform()) {
+                int src = t.color;
+                if (src >>> 24 == 0) continue;
+                if (uniform) {
+                    color = mode.blend(color, src, opacity);
+                } else {
+                    for (int k = 0; k < buffer.length; k++) {
+                        buffer[k] = mode.blend(buffer[k], src, opacity);
+                    }
+                }
+            } else {
+                if (uniform) {
+                    Arrays.fill(buffer, color);
+                    uniform = false;
+                }
+                int[] src = t.pixels;
+                for (int k = 0; k < buffer.length; k++) {
+                    buffer[k] = mode.blend(buffer[k], src[k], opacity);
+                }
+            }
+        }
+    }
+
+    private void store(TiledCanvas target, int tx, int ty) {
+        if (uniform) {
+            target.fillTile(tx, ty, color);
+            return;
+        }
+        TiledCanvas.Tile t = target.writableTileAt(tx, ty);
+        t.allocate();
+        System.arraycopy(buffer, 0, t.pixels, 0, buffer.length);
+    }
+}
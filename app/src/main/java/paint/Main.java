@@ -0,0 +1,23 @@
+package paint;
+
+//The Hardest part of the entire code right here
+
+/**
+ * Entry point for Chris' Magical paint.
+ * <p>
+ *     This class contains the main method which launches the PaintApp GUI, or with
+ *     {@code --batch} the headless {@link BatchProcessor}
+ */
+public class Main{
+    /**
+     * Main Method to start the Paint App Application
+     * @param args command-line arguments, see {@link BatchProcessor#USAGE} for batch mode
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchProcessor.run(java.util.Arrays.copyOfRange(args, 1, args.length), System.out, System.err));
+        }
+        new PaintApp().showApp();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+package paint;
+
+import java.awt.*;
+import java.util.BitSet;
+
+/**
+ * Half, quarter, eighth... size copies of a {@link TiledCanvas} for painting it zoomed out.
+ * <p>
+ *     Level 0 is the canvas itself. Level k is tiled the same way as the canvas, and its
+ *     tile (tx, ty) is built from the tiles (2tx..2tx+1, 2ty..2ty+1) of level k-1 by
+ *     averaging 2x2 pixel blocks. Four uniform children of one color give a uniform
+ *     parent, so blank areas stay unallocated at every level.
+ * <p>
+ *     Nothing is built up front. When canvas tiles change, their ancestors are only
+ *     marked stale; a stale tile is rebuilt, from its stale children first, the next time
+ *     it is painted. Painting therefore costs what is visible plus what changed since
+ *     the last paint, whatever the size of the canvas. The levels take about a third of
+ *     the memory of the canvas once everything has been viewed zoomed out.
+ */
+public class MipmapPyramid {
+    private final TiledCanvas canvas;
+    private int width, height;
+    private Level[] levels;
+
+    private static final class Level {
+        final int width, height, tilesX, tilesY;
+        final TiledCanvas.Tile[] tiles;
+        final BitSet stale;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.tilesX = (width + TiledCanvas.TILE_SIZE - 1) / TiledCanvas.TILE_SIZE;
+            this.tilesY = (height + TiledCanvas.TILE_SIZE - 1) / TiledCanvas.TILE_SIZE;
+            this.tiles = new TiledCanvas.Tile[tilesX * tilesY];
+            for (int i = 0; i < tiles.length; i++) {
+                tiles[i] = new TiledCanvas.Tile(0);
+            }
+            this.stale = new BitSet(tiles.length);
+            stale.set(0, tiles.length);
+        }
+    }
+
+    public MipmapPyramid(TiledCanvas canvas) {
+        this.canvas = canvas;
+    }
+
+    public TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    /**
+     * Paints the part of the canvas inside {@code clip}, given in the coordinates of the
+     * scaled canvas, at {@code zoom} times its size. Zoomed out, it draws the smallest
+     * level that still has at least as many pixels as the screen, scaled down by less
+     * than half; zoomed in, it draws canvas tiles enlarged without smoothing.
+     */
+    public void paint(Graphics2D g, double zoom, Rectangle clip) {
+        update();
+        int level = 0;
+        while (zoom * (1 << (level + 1)) <= 1.0 && level + 1 < levels.length) {
+            level++;
+        }
+        double scale = zoom * (1 << level);
+        int levelW = level == 0 ? width : levels[level].width;
+        int levelH = level == 0 ? height : levels[level].height;
+        int tilesX = level == 0 ? canvas.getTilesX() : levels[level].tilesX;
+        int tilesY = level == 0 ? canvas.getTilesY() : levels[level].tilesY;
+
+        Rectangle area = new Rectangle(0, 0, (int) Math.ceil(levelW * scale), (int) Math.ceil(levelH * scale));
+        if (clip != null) area = area.intersection(clip);
+        if (area.isEmpty()) return;
+
+        Object interpolation = scale < 1 ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        int size = TiledCanvas.TILE_SIZE;
+        int tx0 = Math.max(0, (int) (area.x / scale) / size);
+        int ty0 = Math.max(0, (int) (area.y / scale) / size);
+        int tx1 = Math.min(tilesX - 1, (int) ((area.x + area.width) / scale) / size);
+        int ty1 = Math.min(tilesY - 1, (int) ((area.y + area.height) / scale) / size);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                TiledCanvas.Tile t = tile(level, tx, ty);
+                int w = Math.min(size, levelW - tx * size);
+                int h = Math.min(size, levelH - ty * size);
+                // edges are rounded the same way for neighbouring tiles so no seams show
+                int x0 = (int) Math.floor(tx * size * scale), x1 = (int) Math.floor((tx * size + w) * scale);
+                int y0 = (int) Math.floor(ty * size * scale), y1 = (int) Math.floor((ty * size + h) * scale);
+                if (x1 <= x0 || y1 <= y0) continue;
+                if (t.isUniform()) {
+                    g.setColor(new Color(t.color, true));
+                    g.fillRect(x0, y0, x1 - x0, y1 - y0);
+                } else {
+                    g.drawImage(t.image, x0, y0, x1, y1, 0, 0, w, h, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the ancestors of every canvas tile changed since the last call as stale, or
+     * lays the levels out again if the canvas changed size.
+     */
+    private void update() {
+        BitSet changed = canvas.takeChangedTiles();
+        if (levels == null || width != canvas.getWidth() || height != canvas.getHeight()) {
+            width = canvas.getWidth();
+            height = canvas.getHeight();
+            int count = 1;
+            while (Math.max(width, height) >> (count - 1) > TiledCanvas.TILE_SIZE) count++;
+            levels = new Level[count];
+            for (int k = 1; k < count; k++) {
+                levels[k] = new Level((width + (1 << k) - 1) >> k, (height + (1 << k) - 1) >> k);
+            }
+            return;
+        }
+        int tilesX = canvas.getTilesX();
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            int tx = i % tilesX, ty = i / tilesX;
+            for (int k = 1; k < levels.length; k++) {
+                tx >>= 1;
+                ty >>= 1;
+                int index = ty * levels[k].tilesX + tx;
+                // a stale tile's ancestors are already stale
+                if (levels[k].stale.get(index)) break;
+                levels[k].stale.set(index);
+            }
+        }
+    }
+
+    /**
+     * @return tile (tx, ty) of the level, rebuilt first if it is stale
+     */
+    private TiledCanvas.Tile tile(int level, int tx, int ty) {
+        if (level == 0) return canvas.tileAt(tx, ty);
+        Level lv = levels[level];
+        int index = ty * lv.tilesX + tx;
+        TiledCanvas.Tile t = lv.tiles[index];
+        if (!lv.stale.get(index)) return t;
+
+        int childW = level == 1 ? width : levels[level - 1].width;
+        int childH = level == 1 ? height : levels[level - 1].height;
+        int childTilesX = level == 1 ? canvas.getTilesX() : levels[level - 1].tilesX;
+        int childTilesY = level == 1 ? canvas.getTilesY() : levels[level - 1].tilesY;
+        TiledCanvas.Tile[] children = new TiledCanvas.Tile[4];
+        boolean uniform = true;
+        Integer color = null;
+        for (int q = 0; q < 4; q++) {
+            int cx = 2 * tx + (q & 1), cy = 2 * ty + (q >> 1);
+            if (cx >= childTilesX || cy >= childTilesY) continue;
+            TiledCanvas.Tile c = tile(level - 1, cx, cy);
+            children[q] = c;
+            if (!c.isUniform() || (color != null && c.color != color)) {
+                uniform = false;
+            } else {
+                color = c.color;
+            }
+        }
+
+        if (uniform) {
+            t.fill(color);
+        } else {
+            t.materialize();
+            int half = TiledCanvas.TILE_SIZE / 2;
+            for (int q = 0; q < 4; q++) {
+                TiledCanvas.Tile c = children[q];
+                if (c == null) continue;
+                int cx = 2 * tx + (q & 1), cy = 2 * ty + (q >> 1);
+                int cw = Math.min(TiledCanvas.TILE_SIZE, childW - cx * TiledCanvas.TILE_SIZE);
+                int ch = Math.min(TiledCanvas.TILE_SIZE, childH - cy * TiledCanvas.TILE_SIZE);
+                downsample(c, cw, ch, t.pixels, (q & 1) * half, (q >> 1) * half);
+            }
+        }
+        lv.stale.clear(index);
+        return t;
+    }
+
+    /**
+     * Writes the {@code cw x ch} pixels of a child tile at half size into {@code dst} at
+     * (dx, dy), averaging each 2x2 block. A block cut off by the child's edge repeats its
+     * last row or column.
+     */
+    private static void downsample(TiledCanvas.Tile child, int cw, int ch, int[] dst, int dx, int dy) {
+        int size = TiledCanvas.TILE_SIZE;
+        int w = (cw + 1) / 2, h = (ch + 1) / 2;
+        if (child.isUniform()) {
+            for (int y = 0; y < h; y++) {
+                java.util.Arrays.fill(dst, (dy + y) * size + dx, (dy + y) * size + dx + w, child.color);
+            }
+            return;
+        }
+        int[] src = child.pixels;
+        for (int y = 0; y < h; y++) {
+            int row0 = 2 * y * size;
+            int row1 = Math.min(2 * y + 1, ch - 1) * size;
+            int out = (dy + y) * size + dx;
+            for (int x = 0; x < w; x++) {
+                int x0 = 2 * x, x1 = Math.min(2 * x + 1, cw - 1);
+                dst[out + x] = average(average(src[row0 + x0], src[row0 + x1]),
+                        average(src[row1 + x0], src[row1 + x1]));
+            }
+        }
+    }
+
+    /**
+     * @return the per-channel average of two ARGB pixels, rounded down
+     */
+    private static int average(int a, int b) {
+        return (a & b) + (((a ^ b) & 0xFEFEFEFE) >>> 1);
+    }
+}
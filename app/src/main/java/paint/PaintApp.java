@@ -1,9 +1,12 @@
+package paint;
+
 import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.event.*;
 import java.io.File;
-import javax.imageio.ImageIO;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
@@ -24,12 +27,17 @@ public class PaintApp {
     private JTabbedPane tabbedPane;
 
     //private DrawingPanel drawingPanel;
-    private BufferedImage currentImage;
-    private File currentFile;
+    private final Map<DrawingPanel, File> panelFiles = new HashMap<>(); //file each tab was opened from / saved to
     private boolean isDirty = false; //looking for unsaved changes.
 
     private Timer autoSaveTimer;
     private boolean autoSaveEnabled = true;
+    private AutoSaveService autoSaveService;
+    private EditJournal journal; //null while recovering or if another instance owns the journal
+    private static final long JOURNAL_COMPACT_BYTES = 16L * 1024 * 1024;
+    private JLabel statusLabel;
+    private JButton cancelLoadButton;
+    private ImageLoader imageLoader; //the image being opened, if any
     private PaintWebServer webServer = new PaintWebServer();
 
     private TrayIcon trayIcon;
@@ -47,6 +55,12 @@ public class PaintApp {
             public void windowClosing(WindowEvent e) {
                 attemptExit();
             }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                //clean exit, nothing left to recover
+                if (journal != null) journal.close();
+            }
         });
 
         tabbedPane = new JTabbedPane();
@@ -131,11 +145,11 @@ public class PaintApp {
         redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
 
         undoItem.addActionListener(e -> {
-            getCurrentPanel().undo();
+            getCurrentPanel().getEngine().undo();
         });
 
         redoItem.addActionListener(e -> {
-            getCurrentPanel().redo();
+            getCurrentPanel().getEngine().redo();
         });
 
         clearCanvasItem.addActionListener(e -> {
@@ -145,7 +159,7 @@ public class PaintApp {
                     JOptionPane.YES_NO_OPTION,
                     JOptionPane.WARNING_MESSAGE);
             if (choice == JOptionPane.YES_OPTION) {
-                getCurrentPanel().clearCanvas();
+                getCurrentPanel().getEngine().clearCanvas();
                 setDirty(true);
             }
         });
@@ -173,8 +187,7 @@ public class PaintApp {
                     JOptionPane.showMessageDialog(frame, "No text entered.");
                 } else {
                     getCurrentPanel().setTool(DrawingTool.TEXT);
-                    getCurrentPanel().getToolOptions().setText(text);
-                    getCurrentPanel().getToolOptions().setTextSize(size);
+                    getCurrentPanel().setText(text, size);
                 }
             }
         });
@@ -200,7 +213,7 @@ public class PaintApp {
                 try {
                     int w = Integer.parseInt(widthField.getText());
                     int h = Integer.parseInt(heightField.getText());
-                    getCurrentPanel().resizeCanvas(w, h);
+                    getCurrentPanel().getEngine().resizeCanvas(w, h);
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(frame, "Invalid size input!");
                 }
@@ -237,20 +250,27 @@ public class PaintApp {
                 getCurrentPanel().setShapeType(type);
                 if (type == ShapeType.POLYGON) {
                     int sides = PolygonShape.askSides();
-                    getCurrentPanel().getToolOptions().setPolygonSides(sides);
+                    getCurrentPanel().setPolygonSides(sides);
                 } else if (type == ShapeType.STAR) {
                     int pts = PolygonShape.askSides("Enter number of star points (4+):", "5");
-                    getCurrentPanel().getToolOptions().setPolygonSides(Math.max(4, pts));
+                    getCurrentPanel().setPolygonSides(Math.max(4, pts));
                 }
             });
             shapeMenu.add(shapeItem);
         }
+        //shapes stay movable with Select until this is turned off again
+        JCheckBoxMenuItem vectorItem = new JCheckBoxMenuItem("Vector Shapes");
+        vectorItem.addActionListener(e -> getCurrentPanel().getEngine().setVectorShapes(vectorItem.isSelected()));
+        shapeMenu.addSeparator();
+        shapeMenu.add(vectorItem);
 
         JMenuItem eyedropperItem = new JMenuItem("Eyedropper");
         eyedropperItem.addActionListener(e -> getCurrentPanel().setTool(DrawingTool.EYEDROPPER));
 
         JCheckBoxMenuItem dashedItem = new JCheckBoxMenuItem("Dashed Line");
         dashedItem.addActionListener(e -> getCurrentPanel().setDashed(dashedItem.isSelected()));
+        JCheckBoxMenuItem smoothItem = new JCheckBoxMenuItem("Smooth Strokes");
+        smoothItem.addActionListener(e -> getCurrentPanel().setSmoothing(smoothItem.isSelected()));
 
         JMenuItem drawItem = new JMenuItem("Draw");
         drawItem.addActionListener(e -> getCurrentPanel().setTool(DrawingTool.DRAW));
@@ -258,6 +278,24 @@ public class PaintApp {
         JMenuItem eraserItem = new JMenuItem("Eraser");
         eraserItem.addActionListener(e -> getCurrentPanel().setTool(DrawingTool.ERASER));
 
+        JMenuItem fillItem = new JMenuItem("Fill");
+        fillItem.addActionListener(e -> getCurrentPanel().setTool(DrawingTool.FILL));
+
+        JSlider toleranceSlider = new JSlider(0, 255, getCurrentPanel().getToolOptions().getFillTolerance());
+        toleranceSlider.setMajorTickSpacing(64);
+        toleranceSlider.setPaintTicks(true);
+        toleranceSlider.setPaintLabels(true);
+        toleranceSlider.addChangeListener(e -> getCurrentPanel().setFillTolerance(toleranceSlider.getValue()));
+
+        JPanel tolerancePanel = new JPanel();
+        tolerancePanel.add(new JLabel("Tolerance:"));
+        tolerancePanel.add(toleranceSlider);
+
+        JMenuItem toleranceItem = new JMenuItem("Fill Tolerance");
+        toleranceItem.addActionListener(e -> {
+            JOptionPane.showMessageDialog(frame, tolerancePanel, "Fill Tolerance", JOptionPane.PLAIN_MESSAGE);
+        });
+
         JMenu transformMenu = new JMenu("Transform");
 
         JMenu rotateMenu = new JMenu("Rotate");
@@ -309,9 +347,12 @@ public class PaintApp {
         toolMenu.add(eyedropperItem);
         toolMenu.add(drawItem);
         toolMenu.add(eraserItem);
+        toolMenu.add(fillItem);
+        toolMenu.add(toleranceItem);
         toolMenu.add(shapeMenu);
         toolMenu.add(sliderItem);
         toolMenu.add(dashedItem);
+        toolMenu.add(smoothItem);
         toolMenu.add(resizeCanvasItem);
 
         toolMenu.addSeparator();
@@ -338,7 +379,11 @@ public class PaintApp {
                     "- File > Save/Save As to save your work. \n" +
                     "- Edit > Line Color to change brush color.\n" +
                     "- Edit > Adjust Line Width to change brush size.\n" +
-                    "- Edit > Resize Canvas to change canvas size for larger paintings. \n",
+                    "- Edit > Fill, then click an area, to fill it with the line color. \n" +
+                    "- Edit > Resize Canvas to change canvas size for larger paintings. \n" +
+                    "- Edit > Shapes > Vector Shapes keeps shapes movable with Select until turned off. \n" +
+                    "- Layers > New Layer adds a transparent layer; click a layer in the menu to draw on it. \n" +
+                    "- View > Zoom In/Out, or ctrl + mouse wheel, to zoom. \n",
                     "Help", JOptionPane.INFORMATION_MESSAGE);
         });
 
@@ -347,7 +392,41 @@ public class PaintApp {
         helpMenu.add(helpItem);
         helpMenu.add(aboutItem);
 
+        //View menu, zooming also works with ctrl + mouse wheel
+        JMenu viewMenu = new JMenu("View");
+        JMenuItem zoomInItem = new JMenuItem("Zoom In");
+        JMenuItem zoomOutItem = new JMenuItem("Zoom Out");
+        JMenuItem actualSizeItem = new JMenuItem("Actual Size");
+        zoomInItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK));
+        zoomOutItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK));
+        actualSizeItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK));
+        zoomInItem.addActionListener(e -> getCurrentPanel().zoomBy(1, null));
+        zoomOutItem.addActionListener(e -> getCurrentPanel().zoomBy(-1, null));
+        actualSizeItem.addActionListener(e -> getCurrentPanel().resetZoom());
+        viewMenu.add(zoomInItem);
+        viewMenu.add(zoomOutItem);
+        viewMenu.add(actualSizeItem);
+
+        //Layers menu, listing the layers top first below the actions
+        JMenu layerMenu = new JMenu("Layers");
+        layerMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                buildLayerMenu(layerMenu);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+
         menuBar.add(toolMenu);
+        menuBar.add(layerMenu);
+        menuBar.add(viewMenu);
         menuBar.add(helpMenu);
 
         frame.setJMenuBar(menuBar);
@@ -406,8 +485,7 @@ public class PaintApp {
             if (res == JOptionPane.OK_OPTION) {
                 String text = textField.getText();
                 int size = (Integer) sizeSpinner.getValue();
-                getCurrentPanel().getToolOptions().setText(text);
-                getCurrentPanel().getToolOptions().setTextSize(size);
+                getCurrentPanel().setText(text, size);
             }
         });
         toolBar.add(textBtn);
@@ -415,12 +493,12 @@ public class PaintApp {
 
         JButton undoBtn = new JButton(undoIcon);
         undoBtn.setToolTipText("Undo (Ctrl + Z)");
-        undoBtn.addActionListener(e -> getCurrentPanel().undo());
+        undoBtn.addActionListener(e -> getCurrentPanel().getEngine().undo());
         toolBar.add(undoBtn);
 
         JButton redoBtn = new JButton(redoIcon);
         redoBtn.setToolTipText("Redo (Ctrl + Y");
-        redoBtn.addActionListener(e -> getCurrentPanel().redo());
+        redoBtn.addActionListener(e -> getCurrentPanel().getEngine().redo());
         toolBar.add(redoBtn);
 
         toolBar.addSeparator();
@@ -455,7 +533,7 @@ public class PaintApp {
             int pts = PolygonShape.askSides("Enter number of star points (4+):", "5");
             getCurrentPanel().setTool(DrawingTool.SHAPE);
             getCurrentPanel().setShapeType(ShapeType.STAR);
-            getCurrentPanel().getToolOptions().setPolygonSides(Math.max(4, pts));
+            getCurrentPanel().setPolygonSides(Math.max(4, pts));
         });
         toolBar.add(starBtn);
         frame.add(toolBar, BorderLayout.NORTH);
@@ -467,9 +545,9 @@ public class PaintApp {
             public void actionPerformed(ActionEvent e) { saveImage(false);}
         });
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK, false), "undo");
-        am.put("undo", new AbstractAction(){ public void actionPerformed(ActionEvent e){ getCurrentPanel().undo(); }});
+        am.put("undo", new AbstractAction(){ public void actionPerformed(ActionEvent e){ getCurrentPanel().getEngine().undo(); }});
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
-        am.put("redo", new AbstractAction(){ public void actionPerformed(ActionEvent e){ getCurrentPanel().redo(); }});
+        am.put("redo", new AbstractAction(){ public void actionPerformed(ActionEvent e){ getCurrentPanel().getEngine().redo(); }});
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_E, InputEvent.CTRL_DOWN_MASK), "eraser");
         am.put("eraser", new AbstractAction(){ public void actionPerformed(ActionEvent e){ getCurrentPanel().setTool(DrawingTool.ERASER); }});
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK), "draw");
@@ -523,19 +601,82 @@ public class PaintApp {
 
         frame.setJMenuBar(menuBar);
 
+        //Status bar, autosave reports its progress here
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        cancelLoadButton = new JButton("Cancel");
+        cancelLoadButton.setVisible(false);
+        cancelLoadButton.addActionListener(e -> {
+            if (imageLoader != null) imageLoader.cancel();
+        });
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(cancelLoadButton, BorderLayout.EAST);
+        frame.add(statusBar, BorderLayout.SOUTH);
+        autoSaveService = new AutoSaveService(statusLabel::setText);
+
         autoSaveTimer = new javax.swing.Timer(120_000, e -> {
             if (autoSaveEnabled) {
-                DrawingPanel panel = getCurrentPanel();
-                if (panel.getImage() != null) {
-                    if (currentFile != null) {
-                        saveImage(false);
-                    } else {
-                        saveImage(true);
-                    }
-                }
+                autoSaveAll();
             }
         });
         autoSaveTimer.start();
+
+        startJournal();
+        //compact the journal once it has grown enough that replaying it would be slow, and
+        //resume journaling soon after an undo past the last checkpoint paused a tab or an
+        //autosave rewrote a file the last checkpoint reads from
+        new javax.swing.Timer(5_000, e -> {
+            if (journal != null && (journal.getSizeSinceCheckpoint() > JOURNAL_COMPACT_BYTES
+                    || journal.isCheckpointNeeded())) {
+                journal.checkpoint(getEngines());
+            }
+        }).start();
+    }
+
+    /**
+     * Queues a background save of every tab that has a file and changed since its last
+     * save. Untitled tabs are covered by the crash recovery journal instead.
+     */
+    private void autoSaveAll() {
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            DrawingPanel panel = getPanel(i);
+            File file = panelFiles.get(panel);
+            if (!panel.getEngine().hasImage() || file == null) continue;
+            autoSaveService.save(panel, file, tabbedPane.getTitleAt(i));
+        }
+    }
+
+    /**
+     * Opens the crash recovery journal, offers to replay the one left by a session that
+     * did not exit cleanly, and starts journaling every tab.
+     */
+    private void startJournal() {
+        EditJournal j = new EditJournal(AutoSaveService.getAutoSaveDirectory(), statusLabel::setText);
+        if (!j.open()) {
+            statusLabel.setText("Crash recovery is off: another instance is running");
+            return;
+        }
+        if (j.hasRecoverableSession()) {
+            int choice = JOptionPane.showConfirmDialog(frame,
+                    "Chris' Magical Paint did not close properly last time.\nRecover your unsaved work?",
+                    "Recover", JOptionPane.YES_NO_OPTION);
+            if (choice == JOptionPane.YES_OPTION) {
+                int tabs = j.recover(i -> {
+                    while (tabbedPane.getTabCount() <= i) addNewTab();
+                    return getPanel(i).getEngine();
+                });
+                statusLabel.setText("Recovered " + tabs + " canvas(es) from the last session");
+                setDirty(true);
+            } else {
+                j.discard();
+            }
+        }
+        journal = j;
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            getPanel(i).getEngine().setJournal(journal.forTab(i));
+        }
+        journal.checkpoint(getEngines());
     }
 
     private ImageIcon createTextIcon(String txt) {
@@ -578,24 +719,24 @@ public class PaintApp {
     }
 
     private void updateWebShares() {
-        Map<String, BufferedImage> map = new HashMap<>();
+        Map<String, CanvasSource> map = new HashMap<>();
         for (int i = 0; i < tabbedPane.getTabCount(); i++) {
             JScrollPane scroll = (JScrollPane) tabbedPane.getComponentAt(i);
             DrawingPanel panel = (DrawingPanel) scroll.getViewport().getView();
-            if (panel.getImage() != null) {
-                map.put("canvas" + (i + 1), panel.getImage());
+            if (panel.getEngine().hasImage()) {
+                map.put("canvas" + (i + 1), panel);
             }
         }
         webServer.updateSharedImages(map);
     }
     private void updateWebShares(java.util.List<JCheckBox> boxes) {
-        Map<String, BufferedImage> map = new HashMap<>();
+        Map<String, CanvasSource> map = new HashMap<>();
         for (int i = 0; i < boxes.size(); i++) {
             if (boxes.get(i).isSelected()) {
                 JScrollPane scroll = (JScrollPane) tabbedPane.getComponentAt(i);
                 DrawingPanel panel = (DrawingPanel) scroll.getViewport().getView();
-                if (panel.getImage() != null) {
-                    map.put("canvas" + (i + 1), panel.getImage());
+                if (panel.getEngine().hasImage()) {
+                    map.put("canvas" + (i + 1), panel);
                 }
             }
         }
@@ -604,11 +745,33 @@ public class PaintApp {
 
     private void addNewTab() {
         DrawingPanel drawingPanel = new DrawingPanel(() -> setDirty(true));
+        if (journal != null) drawingPanel.getEngine().setJournal(journal.forTab(tabbedPane.getTabCount()));
         JScrollPane scrollPane = new JScrollPane(drawingPanel);
         tabbedPane.addTab("Canvas " + (tabbedPane.getTabCount() + 1), scrollPane);
         tabbedPane.setSelectedComponent(scrollPane);
     }
 
+    private DrawingPanel getPanel(int index) {
+        JScrollPane scroll = (JScrollPane) tabbedPane.getComponentAt(index);
+        return (DrawingPanel) scroll.getViewport().getView();
+    }
+
+    private List<DrawingPanel> getPanels() {
+        List<DrawingPanel> panels = new java.util.ArrayList<>();
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            panels.add(getPanel(i));
+        }
+        return panels;
+    }
+
+    private List<RenderEngine> getEngines() {
+        List<RenderEngine> engines = new java.util.ArrayList<>();
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            engines.add(getPanel(i).getEngine());
+        }
+        return engines;
+    }
+
     private DrawingPanel getCurrentPanel() {
         JScrollPane scroll = (JScrollPane) tabbedPane.getSelectedComponent();
         return (DrawingPanel) scroll.getViewport().getView();
@@ -641,29 +804,64 @@ public class PaintApp {
         int result = chooser.showOpenDialog(frame);
 
         if (result == JFileChooser.APPROVE_OPTION) {
-            try {
-                currentFile = chooser.getSelectedFile();
-                currentImage = ImageIO.read(currentFile); //loading it into the memory here
-
-                if (currentImage != null) {
-                    getCurrentPanel().setImage(currentImage);
+            File currentFile = chooser.getSelectedFile();
+            DrawingPanel panel = getCurrentPanel();
+            if (imageLoader != null) imageLoader.cancel(); //one load at a time
+            if (RawCanvasFile.isRawFile(currentFile)) {
+                //working files are mapped, tiles only load when they are looked at
+                try {
+                    panel.getEngine().setCanvas(RawCanvasFile.open(currentFile));
+                    imageOpened(panel, currentFile);
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "Failed to Open Image: " + ex.getMessage());
                 }
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Failed to Open Image: " + ex.getMessage());
+                return;
             }
+            //everything else decodes in the background, the preview and tiles appear as they arrive
+            imageLoader = new ImageLoader(currentFile, panel, statusLabel::setText, this::imageLoadFinished);
+            cancelLoadButton.setVisible(true);
+            statusLabel.setText("Loading " + currentFile.getName() + "...");
+            imageLoader.start();
+        }
+    }
+
+    private void imageLoadFinished(ImageLoader loader, Exception error) {
+        if (loader == imageLoader) {
+            imageLoader = null;
+            cancelLoadButton.setVisible(false);
+        }
+        if (loader.isCancelled()) {
+            statusLabel.setText("Cancelled opening " + loader.getFile().getName());
+        } else if (error != null) {
+            statusLabel.setText(" ");
+            JOptionPane.showMessageDialog(frame, "Failed to Open Image: " + error.getMessage());
+        } else {
+            imageOpened(loader.getPanel(), loader.getFile());
+            statusLabel.setText("Opened " + loader.getFile().getName());
         }
     }
 
+    private void imageOpened(DrawingPanel panel, File file) {
+        panelFiles.put(panel, file);
+        autoSaveService.markSaved(panel);
+        //a loaded image cannot be rebuilt from operations, so start from it
+        if (journal != null) journal.checkpoint(getEngines());
+    }
+
     //THIS ABOUT KILLED ME, GAHHHHHHHHHHHHHh
     private void saveImage(boolean saveAs) {
         DrawingPanel drawingPanel = getCurrentPanel();
-        if (drawingPanel.getImage() == null) {
+        if (!drawingPanel.getEngine().hasImage()) {
             JOptionPane.showMessageDialog(frame, "Nothing to save!");
             return;
         }
+        if (drawingPanel.getEngine().isLoading()) {
+            JOptionPane.showMessageDialog(frame, "Wait for the image to finish loading first.");
+            return;
+        }
         try {
-            File file = currentFile;
-            String format = "png"; //setting png as default format
+            File file = panelFiles.get(drawingPanel);
+            String format = file != null ? AutoSaveService.formatFor(file) : "png"; //setting png as default format
 
             if (saveAs || file == null) {
                 JFileChooser chooser = new JFileChooser();
@@ -683,13 +881,18 @@ public class PaintApp {
                     format = "bmp";
                 } else if (filename.endsWith(".png")) {
                     format = "png";
+                } else if (filename.endsWith(RawCanvasFile.EXTENSION)) {
+                    format = RawCanvasFile.FORMAT;
                 } else { //defaulting to png if nothing saved
                     file = new File(filename + ".png");
                     format = "png";
                 }
-                currentFile = file;
+                panelFiles.put(drawingPanel, file);
             }
-            ImageIO.write(drawingPanel.getImage(), format, file);
+            AutoSaveService.writeAtomically(drawingPanel.snapshot(), format, file);
+            autoSaveService.markSaved(drawingPanel);
+            //a checkpoint that reads from the file just saved over is gone, so take a new one
+            if (journal != null && journal.isCheckpointNeeded()) journal.checkpoint(getEngines());
             JOptionPane.showMessageDialog(frame, "Image saved to" + file.getAbsolutePath());
 
         } catch (Exception ex) {
@@ -697,6 +900,90 @@ public class PaintApp {
         }
     }
 
+    /**
+     * Refills the Layers menu for the current tab.
+     */
+    private void buildLayerMenu(JMenu menu) {
+        menu.removeAll();
+        RenderEngine engine = getCurrentPanel().getEngine();
+        engine.ensureCanvas();
+        int active = engine.getActiveLayer();
+
+        JMenuItem newItem = new JMenuItem("New Layer");
+        newItem.addActionListener(e -> {
+            engine.addLayer();
+            setDirty(true);
+        });
+        JMenuItem deleteItem = new JMenuItem("Delete Layer");
+        deleteItem.setEnabled(engine.getLayerCount() > 1);
+        deleteItem.addActionListener(e -> {
+            engine.removeLayer(active);
+            setDirty(true);
+        });
+        JMenuItem upItem = new JMenuItem("Move Layer Up");
+        upItem.setEnabled(active < engine.getLayerCount() - 1);
+        upItem.addActionListener(e -> {
+            engine.moveLayer(active, active + 1);
+            setDirty(true);
+        });
+        JMenuItem downItem = new JMenuItem("Move Layer Down");
+        downItem.setEnabled(active > 0);
+        downItem.addActionListener(e -> {
+            engine.moveLayer(active, active - 1);
+            setDirty(true);
+        });
+        JMenuItem propertiesItem = new JMenuItem("Layer Properties...");
+        propertiesItem.addActionListener(e -> showLayerProperties(engine, active));
+
+        menu.add(newItem);
+        menu.add(deleteItem);
+        menu.add(upItem);
+        menu.add(downItem);
+        menu.add(propertiesItem);
+        menu.addSeparator();
+
+        ButtonGroup group = new ButtonGroup();
+        for (int i = engine.getLayerCount() - 1; i >= 0; i--) {
+            Layer layer = engine.getLayer(i);
+            String label = layer.getName() + (layer.isVisible() ? "" : " (hidden)") + (layer.isLocked() ? " (locked)" : "");
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, i == active);
+            int index = i;
+            item.addActionListener(e -> engine.selectLayer(index));
+            group.add(item);
+            menu.add(item);
+        }
+    }
+
+    private void showLayerProperties(RenderEngine engine, int index) {
+        Layer layer = engine.getLayer(index);
+        JTextField nameField = new JTextField(layer.getName());
+        JSlider opacitySlider = new JSlider(0, 100, Math.round(layer.getOpacity() * 100));
+        opacitySlider.setMajorTickSpacing(25);
+        opacitySlider.setPaintTicks(true);
+        opacitySlider.setPaintLabels(true);
+        JComboBox<BlendMode> blendBox = new JComboBox<>(BlendMode.values());
+        blendBox.setSelectedItem(layer.getBlendMode());
+        JCheckBox visibleBox = new JCheckBox("Visible", layer.isVisible());
+        JCheckBox lockedBox = new JCheckBox("Locked", layer.isLocked());
+
+        JPanel panel = new JPanel(new GridLayout(4, 2, 4, 4));
+        panel.add(new JLabel("Name:"));
+        panel.add(nameField);
+        panel.add(new JLabel("Opacity:"));
+        panel.add(opacitySlider);
+        panel.add(new JLabel("Blend:"));
+        panel.add(blendBox);
+        panel.add(visibleBox);
+        panel.add(lockedBox);
+
+        int res = JOptionPane.showConfirmDialog(frame, panel, "Layer Properties", JOptionPane.OK_CANCEL_OPTION);
+        if (res == JOptionPane.OK_OPTION) {
+            engine.setLayerProperties(index, nameField.getText(), opacitySlider.getValue() / 100f,
+                    (BlendMode) blendBox.getSelectedItem(), visibleBox.isSelected(), lockedBox.isSelected());
+            setDirty(true);
+        }
+    }
+
     private void showAboutDialog() {
         JDialog aboutDialog = new JDialog(frame, "About", true);
         aboutDialog.setSize(300, 200);
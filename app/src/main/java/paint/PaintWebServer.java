@@ -0,0 +1,201 @@
+package paint;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+public class PaintWebServer {
+    // Volatile so live streams notice the server stopping
+    private volatile HttpServer server;
+    private ExecutorService handlers;
+    // Immutable snapshot, replaced as a whole on every update so handlers never lock it
+    private volatile Map<String, CanvasSource> sharedImages = Collections.emptyMap();
+
+    // PNG bytes per canvas name, encoded at most once per canvas version
+    private final Map<String, EncodedImage> encodedCache = new ConcurrentHashMap<>();
+    private final Map<String, Future<EncodedImage>> pendingEncodes = new ConcurrentHashMap<>();
+    private final ExecutorService encoder = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread t = new Thread(r, "png-encoder");
+                t.setDaemon(true);
+                return t;
+            });
+    // ETags must not survive a restart, where version counters start over
+    private final String instanceTag = Long.toString(System.currentTimeMillis(), 36);
+
+    /** PNG bytes for one version of a canvas. */
+    private static final class EncodedImage {
+        final long version;
+        final byte[] data;
+        final String etag;
+
+        EncodedImage(long version, byte[] data, String etag) {
+            this.version = version;
+            this.data = data;
+            this.etag = etag;
+        }
+    }
+
+    public void start(int port) throws IOException {
+        if (server != null) return;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new RootHandler());
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.start();
+        System.out.println("Web server started at http://localhostL" + port);
+    }
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            // ends the streams still sleeping between frames
+            handlers.shutdownNow();
+            handlers = null;
+            System.out.println("Web server stopped.");
+        }
+    }
+
+    public void updateSharedImages(Map<String, CanvasSource> images) {
+        sharedImages = Collections.unmodifiableMap(new LinkedHashMap<>(images));
+        encodedCache.keySet().retainAll(images.keySet());
+    }
+
+    /**
+     * Returns the PNG for the current version of a canvas. Concurrent requests for the
+     * same canvas share one encode, which runs on the encoder pool rather than the
+     * request thread.
+     */
+    private EncodedImage encodedFor(String name, CanvasSource source) throws IOException {
+        long version = source.getVersion();
+        while (true) {
+            EncodedImage cached = encodedCache.get(name);
+            if (cached != null && cached.version >= version) return cached;
+
+            FutureTask<EncodedImage> task = new FutureTask<>(() -> encode(name, source));
+            Future<EncodedImage> job = pendingEncodes.putIfAbsent(name, task);
+            if (job == null) {
+                job = task;
+                encoder.execute(task);
+            }
+            EncodedImage result;
+            try {
+                result = job.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding " + name);
+            } catch (ExecutionException ex) {
+                throw new IOException("Failed to encode " + name, ex.getCause());
+            } finally {
+                pendingEncodes.remove(name, job);
+            }
+            // a job that was already running may have started before this version existed
+            if (result == null || result.version >= version) return result;
+        }
+    }
+
+    private EncodedImage encode(String name, CanvasSource source) throws IOException {
+        long version = source.getVersion();
+        TiledCanvas snapshot = source.snapshot();
+        if (snapshot == null) return null;
+        EncodedImage encoded = new EncodedImage(version, PngEncoder.encode(snapshot),
+                "\"" + instanceTag + "-" + name + "-" + version + "\"");
+        encodedCache.merge(name, encoded, (old, neu) -> neu.version >= old.version ? neu : old);
+        return encoded;
+    }
+
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    private class RootHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, CanvasSource> shares = sharedImages;
+            if (shares.isEmpty()) {
+                String msg = "<html>><body><h1>No canvases selected - Web functionality offline.</h1></body></html>";
+                exchange.sendResponseHeaders(200, msg.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(msg.getBytes());
+                }
+                return;
+            }
+            if (path.equals("/") || path.equals("/index.html")) {
+                StringBuilder sb = new StringBuilder("<html><body><h1>Shared Canvases</h1><ul>");
+                for (String name : shares.keySet()) {
+                    sb.append("<lil><a href=\"/").append(name).append(".png\">")
+                            .append(name).append("</a> (<a href=\"/").append(name).append("/view\">live</a>)</li>");
+                }
+                sb.append("</ul></body></html>");
+                byte[] resp = sb.toString().getBytes();
+                exchange.sendResponseHeaders(200, resp.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(resp);
+                }
+                return;
+            }
+            if (path.endsWith("/stream") || path.endsWith("/view")) {
+                String key = path.substring(1, path.lastIndexOf('/'));
+                CanvasSource live = shares.get(key);
+                if (live != null) {
+                    if (path.endsWith("/stream")) {
+                        HttpServer running = server;
+                        new TileStreamer(live, () -> server == running ? sharedImages.get(key) : null).stream(exchange);
+                    } else {
+                        byte[] resp = TileStreamer.viewerPage(key).getBytes();
+                        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+                        exchange.sendResponseHeaders(200, resp.length);
+                        try (OutputStream os = exchange.getResponseBody()) {
+                            os.write(resp);
+                        }
+                    }
+                    return;
+                }
+            }
+            CanvasSource source = path.endsWith(".png") ? shares.get(path.substring(1, path.length() - 4)) : null;
+            if (source != null) {
+                String key = path.substring(1, path.length() - 4);
+                EncodedImage img = encodedFor(key, source);
+                if (img != null) {
+                    exchange.getResponseHeaders().set("ETag", img.etag);
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    if (matchesEtag(exchange.getRequestHeaders().getFirst("If-None-Match"), img.etag)) {
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "image/png");
+                    exchange.sendResponseHeaders(200, img.data.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(img.data);
+                    }
+                    return;
+                }
+            }
+            //Not found
+            String msg = "<html><body><h1>404 - Not Found</h1></body></html>";
+            exchange.sendResponseHeaders(404, msg.length());
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(msg.getBytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package paint;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a canvas to PNG on all cores.
+ * <p>
+ *     The image is cut into strips of rows. Each strip is filtered and deflated by its own
+ *     task on a {@link ForkJoinPool}: it primes its deflater with the last 32 KB of the
+ *     filtered rows before it, so compression is almost as good as one single stream, and
+ *     ends with a sync flush so the strips' outputs can simply be concatenated. Each strip
+ *     becomes its own IDAT chunk with its CRC computed by the task; the zlib checksum is
+ *     stitched together from the strips' Adler-32 values. Strips are written in order as
+ *     they finish, with only a few in flight at a time, so memory stays bounded however
+ *     large the canvas is.
+ * <p>
+ *     Opaque canvases are written as RGB, anything else as RGBA.
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    // Same default as the ImageIO PNG writer
+    private static final int LEVEL = 4;
+    private static final int WINDOW = 32 * 1024;
+    // Raw bytes per strip; enough to keep a task busy, small enough to spread over many cores
+    private static final int STRIP_BYTES = 1 << 20;
+
+    private final TiledCanvas canvas;
+    private final int x0, y0, width, height;
+    private final int bpp, rowBytes;
+
+    private PngEncoder(TiledCanvas canvas, Rectangle region, boolean opaque) {
+        this.canvas = canvas;
+        this.x0 = region.x;
+        this.y0 = region.y;
+        this.width = region.width;
+        this.height = region.height;
+        this.bpp = opaque ? 3 : 4;
+        this.rowBytes = width * bpp;
+    }
+
+    /**
+     * @return the whole canvas as PNG bytes, encoded on the common pool
+     */
+    public static byte[] encode(TiledCanvas canvas) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        write(canvas, new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()), baos, ForkJoinPool.commonPool());
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes a region of a canvas as PNG. The canvas must not change while this runs,
+     * so pass a snapshot unless it is called on the thread that draws.
+     */
+    public static void write(TiledCanvas canvas, Rectangle region, OutputStream out, ForkJoinPool pool) throws IOException {
+        Rectangle r = region.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        if (r.isEmpty()) throw new IllegalArgumentException("Nothing to encode in " + region);
+        new PngEncoder(canvas, r, isOpaque(canvas, r, pool)).write(out, pool);
+    }
+
+    private void write(OutputStream out, ForkJoinPool pool) throws IOException {
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = (byte) (bpp == 3 ? 2 : 6); // truecolor, with alpha if needed
+        writeChunk(out, "IHDR", ihdr, ihdr.length);
+        // zlib header: deflate, 32K window, no preset dictionary
+        writeChunk(out, "IDAT", new byte[]{0x78, 0x5E}, 2);
+
+        int rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / Math.max(1, rowBytes)));
+        int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        int inFlight = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<Strip>> pending = new ArrayDeque<>();
+        long adler = 1;
+        int next = 0;
+        try {
+            for (int done = 0; done < strips; done++) {
+                while (next < strips && pending.size() < inFlight) {
+                    int first = next * rowsPerStrip;
+                    int rows = Math.min(rowsPerStrip, height - first);
+                    boolean last = next == strips - 1;
+                    pending.add(pool.submit(() -> encodeStrip(first, rows, last)));
+                    next++;
+                }
+                Strip strip = pending.remove().get();
+                out.write(strip.chunk, 0, strip.length);
+                adler = combine(adler, strip.adler, strip.rawLength);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PNG encoding interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("PNG encoding failed", ex.getCause());
+        } finally {
+            for (ForkJoinTask<Strip> task : pending) task.cancel(true);
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer, 4);
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * Result of one strip: a complete IDAT chunk and the checksum of the data it holds.
+     */
+    private static final class Strip {
+        final byte[] chunk;
+        final int length;
+        final long adler;
+        final long rawLength;
+
+        Strip(byte[] chunk, int length, long adler, long rawLength) {
+            this.chunk = chunk;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private Strip encodeStrip(int first, int rows, boolean last) {
+        int stride = rowBytes + 1;
+        // rows before the strip that supply the dictionary, plus one more as their filter input
+        int dictRows = first == 0 ? 0 : Math.min(first, (WINDOW + stride - 1) / stride);
+        int readFrom = first - dictRows - (first - dictRows > 0 ? 1 : 0);
+        int readRows = first + rows - readFrom;
+
+        int[] argb = new int[width * readRows];
+        canvas.readPixels(x0, y0 + readFrom, width, readRows, argb);
+        byte[] filtered = new byte[(dictRows + rows) * stride];
+        byte[] prior = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        int row = readFrom;
+        if (readFrom < first - dictRows) {
+            toBytes(argb, 0, prior);
+            row++;
+        }
+        for (int out = 0; row < first + rows; row++, out++) {
+            toBytes(argb, (row - readFrom) * width, current);
+            filterRow(current, prior, filtered, out * stride);
+            byte[] t = prior;
+            prior = current;
+            current = t;
+        }
+
+        int dataStart = dictRows * stride;
+        int dataLength = rows * stride;
+        Adler32 checksum = new Adler32();
+        checksum.update(filtered, dataStart, dataLength);
+
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            if (dataStart > 0) {
+                int dict = Math.min(WINDOW, dataStart);
+                deflater.setDictionary(filtered, dataStart - dict, dict);
+            }
+            deflater.setInput(filtered, dataStart, dataLength);
+            if (last) deflater.finish();
+            // 8 bytes for the chunk length and type in front, 4 for the CRC behind
+            byte[] chunk = new byte[8 + dataLength / 2 + 64];
+            int len = 8;
+            int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+            while (true) {
+                if (len == chunk.length) chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                int space = chunk.length - len;
+                len += deflater.deflate(chunk, len, space, flush);
+                // a sync flush is complete once it leaves output space unused
+                if (last ? deflater.finished() : len < chunk.length) break;
+            }
+            int dataLen = len - 8;
+            putInt(chunk, 0, dataLen);
+            chunk[4] = 'I';
+            chunk[5] = 'D';
+            chunk[6] = 'A';
+            chunk[7] = 'T';
+            CRC32 crc = new CRC32();
+            crc.update(chunk, 4, dataLen + 4);
+            if (len + 4 > chunk.length) chunk = Arrays.copyOf(chunk, len + 4);
+            putInt(chunk, len, (int) crc.getValue());
+            return new Strip(chunk, len + 4, checksum.getValue(), dataLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void toBytes(int[] argb, int offset, byte[] row) {
+        if (bpp == 4) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int c = argb[offset + x];
+                row[i++] = (byte) (c >> 16);
+                row[i++] = (byte) (c >> 8);
+                row[i++] = (byte) c;
+                row[i++] = (byte) (c >>> 24);
+            }
+        } else {
+            for (int x = 0, i = 0; x < width; x++) {
+                int c = argb[offset + x];
+                row[i++] = (byte) (c >> 16);
+                row[i++] = (byte) (c >> 8);
+                row[i++] = (byte) c;
+            }
+        }
+    }
+
+    /**
+     * Writes the filter type byte and the filtered row, picking the filter with the
+     * smallest sum of absolute values like the ImageIO writer does. All five sums are
+     * taken in one pass over the row.
+     */
+    private void filterRow(byte[] cur, byte[] prior, byte[] out, int off) {
+        long none = 0, sub = 0, up = 0, avg = 0, paeth = 0;
+        for (int i = 0; i < rowBytes; i++) {
+            int x = cur[i] & 0xFF;
+            int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+            int b = prior[i] & 0xFF;
+            int c = i >= bpp ? prior[i - bpp] & 0xFF : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            avg += Math.abs((byte) (x - ((a + b) >> 1)));
+            paeth += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        int type = 0;
+        long best = none;
+        if (sub < best) { best = sub; type = 1; }
+        if (up < best) { best = up; type = 2; }
+        if (avg < best) { best = avg; type = 3; }
+        if (paeth < best) { type = 4; }
+
+        out[off++] = (byte) type;
+        switch (type) {
+            case 0 -> System.arraycopy(cur, 0, out, off, rowBytes);
+            case 1 -> {
+                for (int i = 0; i < rowBytes; i++) {
+                    out[off + i] = (byte) (cur[i] - (i >= bpp ? cur[i - bpp] : 0));
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < rowBytes; i++) {
+                    out[off + i] = (byte) (cur[i] - prior[i]);
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                    out[off + i] = (byte) (cur[i] - ((a + (prior[i] & 0xFF)) >> 1));
+                }
+            }
+            default -> {
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                    int c = i >= bpp ? prior[i - bpp] & 0xFF : 0;
+                    out[off + i] = (byte) (cur[i] - paeth(a, prior[i] & 0xFF, c));
+                }
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    /**
+     * @return true if no pixel in the region has any transparency
+     */
+    private static boolean isOpaque(TiledCanvas canvas, Rectangle r, ForkJoinPool pool) {
+        int ts = TiledCanvas.TILE_SIZE;
+        int tx0 = r.x / ts, tx1 = (r.x + r.width - 1) / ts;
+        int ty0 = r.y / ts, ty1 = (r.y + r.height - 1) / ts;
+        try {
+            return pool.submit(() -> java.util.stream.IntStream.rangeClosed(ty0, ty1).parallel().allMatch(ty -> {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    TiledCanvas.Tile t = canvas.tileAt(tx, ty);
+                    if (t.isUniform()) {
+                        if (t.color >>> 24 != 0xFF) return false;
+                        continue;
+                    }
+                    Rectangle part = canvas.tileBounds(tx, ty).intersection(r);
+                    for (int y = part.y; y < part.y + part.height; y++) {
+                        int off = (y - ty * ts) * ts + (part.x - tx * ts);
+                        for (int i = off; i < off + part.width; i++) {
+                            if (t.pixels[i] >>> 24 != 0xFF) return false;
+                        }
+                    }
+                }
+                return true;
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Adler-32 of two pieces of data from the checksums of each, as zlib's adler32_combine.
+     */
+    static long combine(long adler1, long adler2, long len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int len) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, len);
+        byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(t, 0, head, 4, 4);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, 0, len);
+        out.write(head);
+        out.write(data, 0, len);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -1,3 +1,5 @@
+package paint;
+
 import javax.swing.*;
 public class PolygonShape {
     public static int askSides() {
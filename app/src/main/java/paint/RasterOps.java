@@ -0,0 +1,215 @@
+package paint;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Quarter-turn rotations, flips, copies and fills on ARGB pixels in {@code int[]} arrays.
+ * <p>
+ *     Regions are given the way {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}
+ *     takes them: an array, the offset of the top-left pixel and the row stride (scan),
+ *     so the same loops work on a whole image, a tile of a {@link TiledCanvas} or a part
+ *     of either. Quarter turns go through the pixels in square blocks small enough that
+ *     the rows written and the columns read both stay in cache. Regions of at least
+ *     {@link #PARALLEL_PIXELS} pixels are split into bands of rows processed in parallel.
+ *     Source and destination must not overlap.
+ */
+public final class RasterOps {
+    /** Side of the square blocks rotations work through. */
+    static final int BLOCK = 64;
+    /** Regions smaller than this are processed on the calling thread. */
+    static final int PARALLEL_PIXELS = 1 << 18;
+
+    private RasterOps() {
+    }
+
+    /**
+     * @return the pixel array backing a TYPE_INT_ARGB image; writes show up in the image
+     */
+    public static int[] pixels(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_INT_ARGB) {
+            throw new IllegalArgumentException("Expected a TYPE_INT_ARGB image, got type " + img.getType());
+        }
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * @return {@code img} itself if it is TYPE_INT_ARGB, else a TYPE_INT_ARGB copy of it
+     */
+    public static BufferedImage toArgb(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_ARGB) return img;
+        BufferedImage out = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = out.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+
+    /**
+     * @return a TYPE_INT_ARGB copy of the image
+     */
+    public static BufferedImage copy(BufferedImage src) {
+        BufferedImage in = toArgb(src);
+        int w = in.getWidth(), h = in.getHeight();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        copy(pixels(in), 0, w, pixels(out), 0, w, w, h);
+        return out;
+    }
+
+    /**
+     * @return a TYPE_INT_ARGB copy of the image rotated clockwise by 0, 90, 180 or 270 degrees
+     */
+    public static BufferedImage rotate(BufferedImage src, int degrees) {
+        BufferedImage in = toArgb(src);
+        int w = in.getWidth(), h = in.getHeight();
+        boolean quarter = normalize(degrees) % 180 != 0;
+        int outW = quarter ? h : w;
+        BufferedImage out = new BufferedImage(outW, quarter ? w : h, BufferedImage.TYPE_INT_ARGB);
+        rotate(pixels(in), 0, w, w, h, degrees, pixels(out), 0, outW);
+        return out;
+    }
+
+    /**
+     * @param horizontal true => left <-> right, false => top <-> bottom
+     * @return a TYPE_INT_ARGB mirrored copy of the image
+     */
+    public static BufferedImage flip(BufferedImage src, boolean horizontal) {
+        BufferedImage in = toArgb(src);
+        int w = in.getWidth(), h = in.getHeight();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        flip(pixels(in), 0, w, w, h, horizontal, pixels(out), 0, w);
+        return out;
+    }
+
+    /**
+     * Copies a {@code w x h} region.
+     */
+    public static void copy(int[] src, int srcOff, int srcScan, int[] dst, int dstOff, int dstScan, int w, int h) {
+        if (srcScan == w && dstScan == w) {
+            System.arraycopy(src, srcOff, dst, dstOff, w * h);
+            return;
+        }
+        rows(w, h, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(src, srcOff + y * srcScan, dst, dstOff + y * dstScan, w);
+            }
+        });
+    }
+
+    /**
+     * Sets every pixel of a {@code w x h} region to {@code argb}.
+     */
+    public static void fill(int[] dst, int dstOff, int dstScan, int w, int h, int argb) {
+        if (dstScan == w) {
+            Arrays.fill(dst, dstOff, dstOff + w * h, argb);
+            return;
+        }
+        for (int y = 0; y < h; y++) {
+            int row = dstOff + y * dstScan;
+            Arrays.fill(dst, row, row + w, argb);
+        }
+    }
+
+    /**
+     * Rotates a {@code w x h} region clockwise into {@code dst}, which receives an
+     * {@code h x w} region for 90 and 270 degrees and a {@code w x h} one otherwise.
+     */
+    public static void rotate(int[] src, int srcOff, int srcScan, int w, int h, int degrees,
+                              int[] dst, int dstOff, int dstScan) {
+        switch (normalize(degrees)) {
+            case 0 -> copy(src, srcOff, srcScan, dst, dstOff, dstScan, w, h);
+            case 90 -> quarter(src, srcOff, srcScan, w, h, dst, dstOff, dstScan, true);
+            case 180 -> rows(w, h, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    reverse(src, srcOff + y * srcScan, dst, dstOff + (h - 1 - y) * dstScan, w);
+                }
+            });
+            case 270 -> quarter(src, srcOff, srcScan, w, h, dst, dstOff, dstScan, false);
+            default -> throw new IllegalArgumentException("Only quarter turns are supported: " + degrees);
+        }
+    }
+
+    /**
+     * Mirrors a {@code w x h} region into {@code dst}.
+     * @param horizontal true => left <-> right, false => top <-> bottom
+     */
+    public static void flip(int[] src, int srcOff, int srcScan, int w, int h, boolean horizontal,
+                            int[] dst, int dstOff, int dstScan) {
+        rows(w, h, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                if (horizontal) {
+                    reverse(src, srcOff + y * srcScan, dst, dstOff + y * dstScan, w);
+                } else {
+                    System.arraycopy(src, srcOff + y * srcScan, dst, dstOff + (h - 1 - y) * dstScan, w);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rotates by 90 degrees clockwise, or 270 if {@code clockwise} is false, one block at
+     * a time. Each block writes along destination rows and reads down source columns,
+     * which keeps the writes sequential and holds up better when the row stride is a
+     * power of two.
+     */
+    private static void quarter(int[] src, int srcOff, int srcScan, int w, int h,
+                                int[] dst, int dstOff, int dstScan, boolean clockwise) {
+        // the destination is h wide and w tall
+        rows(h, w, (y0, y1) -> {
+            for (int by = y0; by < y1; by += BLOCK) {
+                int ey = Math.min(y1, by + BLOCK);
+                for (int bx = 0; bx < h; bx += BLOCK) {
+                    int ex = Math.min(h, bx + BLOCK);
+                    for (int dy = by; dy < ey; dy++) {
+                        int out = dstOff + dy * dstScan;
+                        if (clockwise) {
+                            // dst (dx, dy) = src (dy, h - 1 - dx)
+                            int in = srcOff + (h - 1) * srcScan + dy;
+                            for (int dx = bx; dx < ex; dx++) {
+                                dst[out + dx] = src[in - dx * srcScan];
+                            }
+                        } else {
+                            // dst (dx, dy) = src (w - 1 - dy, dx)
+                            int in = srcOff + (w - 1 - dy);
+                            for (int dx = bx; dx < ex; dx++) {
+                                dst[out + dx] = src[in + dx * srcScan];
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static void reverse(int[] src, int from, int[] dst, int to, int n) {
+        for (int i = 0, j = to + n - 1; i < n; i++, j--) {
+            dst[j] = src[from + i];
+        }
+    }
+
+    private interface Band {
+        void run(int y0, int y1);
+    }
+
+    /**
+     * Runs {@code band} over rows 0 to h, split into bands of whole blocks on the common
+     * pool if the region is large enough.
+     */
+    private static void rows(int w, int h, Band band) {
+        if ((long) w * h < PARALLEL_PIXELS) {
+            band.run(0, h);
+            return;
+        }
+        int bands = (h + BLOCK - 1) / BLOCK;
+        IntStream.range(0, bands).parallel()
+                .forEach(b -> band.run(b * BLOCK, Math.min(h, (b + 1) * BLOCK)));
+    }
+
+    private static int normalize(int degrees) {
+        return ((degrees % 360) + 360) % 360;
+    }
+}
@@ -0,0 +1,557 @@
+package paint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Native working file: a small header and the canvas tiles as raw ARGB, opened through
+ * a memory mapping.
+ * <p>
+ *     Layout, all little-endian: magic, format, width, height, tile size, tile count,
+ *     then one (kind, color) entry per tile. Tile data starts at the next page boundary,
+ *     {@code TILE_BYTES} per tile in row-major tile order. A uniform tile only has its
+ *     table entry; its data slot is left as a hole, so blank areas cost no disk space.
+ * <p>
+ *     Opening maps the file and reads the table, nothing else: each tile loads its pixels
+ *     from the mapping the first time it is read, so the operating system pages in only
+ *     what is looked at. Saving back to the file a canvas was opened from writes only the
+ *     tiles whose content no longer matches the file, through the same mapping; any tile
+ *     still waiting to load the old content of a slot reads it first. Those tiles are
+ *     written to a log next to the file and forced to disk before the file is touched, and
+ *     opening a file finishes a save its complete log records, so a crash never leaves
+ *     a mix of old and new tiles. Saving anywhere else writes a complete new file and
+ *     renames it into place. PNG, JPEG and BMP stay the export formats.
+ */
+public class RawCanvasFile {
+    public static final String EXTENSION = ".cpaint";
+    public static final String FORMAT = "cpaint";
+
+    private static final int MAGIC = 0x544E5043; // "CPNT" read little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+    private static final int KIND_UNIFORM = 0;
+    private static final int KIND_RAW = 1;
+    private static final int PAGE = 4096;
+    private static final long TILE_BYTES = 4L * TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+    // A single mapping cannot exceed 2 GB, so the data is mapped in 1 GB segments
+    private static final int TILES_PER_SEGMENT = (int) ((1L << 30) / TILE_BYTES);
+    private static final int LOG_MAGIC = 0x474F4C43; // "CLOG" read little-endian
+    private static final int LOG_ENTRY = 12;
+    private static final int LOG_TRAILER = 16;
+    // Held while a save log is written, applied or recovered
+    private static final Object logs = new Object();
+
+    // The current mapping of each path, so every canvas opened from a file shares one
+    private static final Map<Path, WeakReference<RawCanvasFile>> mapped = new HashMap<>();
+
+    // Null for a file being written under a temporary name
+    private final Path path;
+    private final Object fileKey;
+    private final int width, height, tileCount;
+    private final MappedByteBuffer header;
+    private final IntBuffer table;
+    private final MappedByteBuffer[] segments;
+    private final boolean writable;
+    // Current slot of each tile, replaced whenever the tile is rewritten
+    private final Slot[] slots;
+    // Tiles that will load from each slot, so they can read it before it is overwritten
+    private final List<WeakReference<TiledCanvas.Tile>>[] readers;
+
+    /**
+     * The tiles of a canvas that still match the file it was opened from or saved to.
+     */
+    static final class Match {
+        final File file;
+        // Of the file when the tiles were compared, to tell later whether it was rewritten
+        final long size, modified;
+        final BitSet tiles;
+
+        private Match(File file, long size, long modified, BitSet tiles) {
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.tiles = tiles;
+        }
+    }
+
+    /**
+     * One tile's place in the file.
+     */
+    private final class Slot implements TiledCanvas.TileSource {
+        final int index;
+
+        Slot(int index) {
+            this.index = index;
+        }
+
+        RawCanvasFile owner() {
+            return RawCanvasFile.this;
+        }
+
+        // No lock on the file: a slot is only overwritten after all its readers have loaded
+        @Override
+        public void load(TiledCanvas.Tile tile) {
+            if (table.get(HEADER_INTS + 2 * index) == KIND_UNIFORM) {
+                tile.color = table.get(HEADER_INTS + 2 * index + 1);
+            } else {
+                tile.allocate();
+                tileData(index).get(tile.pixels);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private RawCanvasFile(Path path, Object fileKey, int width, int height, MappedByteBuffer header,
+                          MappedByteBuffer[] segments, boolean writable) {
+        this.path = path;
+        this.fileKey = fileKey;
+        this.width = width;
+        this.height = height;
+        this.tileCount = tilesFor(width) * tilesFor(height);
+        this.header = header;
+        this.table = header.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        this.segments = segments;
+        this.writable = writable;
+        this.slots = new Slot[tileCount];
+        this.readers = new List[tileCount];
+        for (int i = 0; i < tileCount; i++) {
+            slots[i] = new Slot(i);
+        }
+    }
+
+    public static boolean isRawFile(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Maps a working file and returns a canvas whose tiles load from it on demand.
+     */
+    public static TiledCanvas open(File file) throws IOException {
+        RawCanvasFile raw = current(file.getAbsoluteFile().toPath());
+        TiledCanvas canvas = new TiledCanvas(raw.width, raw.height, 0);
+        raw.adopt(canvas, true);
+        return canvas;
+    }
+
+    /**
+     * Saves the canvas to {@code file}. If the canvas was opened from or last saved to
+     * that file, only the tiles that changed since are written.
+     */
+    public static void save(TiledCanvas canvas, File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        RawCanvasFile backing = backingFile(canvas, target);
+        if (backing != null) {
+            backing.writeChanged(canvas, target);
+            return;
+        }
+        writeNew(canvas, target, null);
+        // the next save to this file only has to write what changes from here on
+        current(target).adopt(canvas, false);
+    }
+
+    /**
+     * Writes a complete copy of the canvas to {@code file} without tying the canvas to
+     * it. Tiles that have not been loaded are copied file to file.
+     */
+    public static void saveCopy(TiledCanvas canvas, File file) throws IOException {
+        writeNew(canvas, file.getAbsoluteFile().toPath(), null);
+    }
+
+    /**
+     * Like {@link #saveCopy}, but writes only the given tiles, by index
+     * ({@code ty * tilesX + tx}). The others are left as holes that read as transparent
+     * and take no disk space, so the file costs what the tiles hold.
+     */
+    static void saveTiles(TiledCanvas canvas, BitSet tiles, File file) throws IOException {
+        writeNew(canvas, file.getAbsoluteFile().toPath(), tiles);
+    }
+
+    /**
+     * @return which tiles of {@code canvas} still match the file it was opened from or
+     *         last saved to, or null if none do or that file is gone or replaced
+     */
+    static Match match(TiledCanvas canvas) throws IOException {
+        RawCanvasFile raw = null;
+        for (int ty = 0; ty < canvas.getTilesY() && raw == null; ty++) {
+            for (int tx = 0; tx < canvas.getTilesX() && raw == null; tx++) {
+                if (canvas.tileAt(tx, ty).origin instanceof Slot slot) raw = slot.owner();
+            }
+        }
+        if (raw == null || raw.path == null || raw.width != canvas.getWidth() || raw.height != canvas.getHeight()) {
+            return null;
+        }
+        synchronized (mapped) {
+            WeakReference<RawCanvasFile> ref = mapped.get(raw.path);
+            if (ref == null || ref.get() != raw) return null;
+        }
+        // a save back to the file holds the same lock, so the tiles and the file agree
+        synchronized (raw) {
+            if (!Objects.equals(raw.fileKey, fileKey(raw.path))) return null;
+            int tilesX = tilesFor(raw.width);
+            BitSet tiles = new BitSet(raw.tileCount);
+            for (int i = 0; i < raw.tileCount; i++) {
+                if (canvas.tileAt(i % tilesX, i / tilesX).origin == raw.slots[i]) tiles.set(i);
+            }
+            if (tiles.isEmpty()) return null;
+            return new Match(raw.path.toFile(), Files.size(raw.path), Files.getLastModifiedTime(raw.path).toMillis(), tiles);
+        }
+    }
+
+    /**
+     * @return the mapping of {@code target} that tiles of this canvas still match, if it
+     * is still the file at that path, fits the canvas size and can be written
+     */
+    private static RawCanvasFile backingFile(TiledCanvas canvas, Path target) throws IOException {
+        RawCanvasFile raw;
+        synchronized (mapped) {
+            WeakReference<RawCanvasFile> ref = mapped.get(target);
+            raw = ref != null ? ref.get() : null;
+        }
+        if (raw == null || !raw.writable || !Objects.equals(raw.fileKey, fileKey(target))
+                || raw.width != canvas.getWidth() || raw.height != canvas.getHeight()) {
+            return null;
+        }
+        for (int ty = 0; ty < canvas.getTilesY(); ty++) {
+            for (int tx = 0; tx < canvas.getTilesX(); tx++) {
+                if (canvas.tileAt(tx, ty).origin instanceof Slot slot && slot.owner() == raw) {
+                    return raw;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Points the tiles of a canvas that matches this file at their slots.
+     *
+     * @param lazy true to drop the tiles' content and load it from the file when needed
+     */
+    private synchronized void adopt(TiledCanvas canvas, boolean lazy) {
+        int tilesX = tilesFor(width);
+        for (int i = 0; i < tileCount; i++) {
+            TiledCanvas.Tile t = canvas.tileAt(i % tilesX, i / tilesX);
+            if (lazy) {
+                if (table.get(HEADER_INTS + 2 * i) == KIND_UNIFORM) {
+                    t.color = table.get(HEADER_INTS + 2 * i + 1);
+                } else {
+                    t.pending = slots[i];
+                    if (readers[i] == null) readers[i] = new ArrayList<>(1);
+                    readers[i].add(new WeakReference<>(t));
+                }
+            }
+            t.origin = slots[i];
+        }
+    }
+
+    /**
+     * Writes the tiles that no longer match the file. They go to the log first, which is
+     * complete on disk before the file itself is touched and deleted once the file is, so
+     * a crash at any point leaves the old content or, through {@link #recover}, the new.
+     */
+    private synchronized void writeChanged(TiledCanvas canvas, Path target) throws IOException {
+        int tilesX = tilesFor(width);
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < tileCount; i++) {
+            TiledCanvas.Tile t = canvas.tileAt(i % tilesX, i / tilesX);
+            if (t.origin == slots[i]) continue;
+            // whoever still needs the old content of this slot reads it before it is gone
+            if (readers[i] != null) {
+                for (WeakReference<TiledCanvas.Tile> ref : readers[i]) {
+                    TiledCanvas.Tile reader = ref.get();
+                    if (reader != null) reader.load();
+                }
+                readers[i] = null;
+            }
+            // a tile still in another file is read now, so the log and the file get the same
+            t.load();
+            changed.add(i);
+        }
+        if (changed.isEmpty()) return;
+
+        Path log = logFor(target);
+        synchronized (logs) {
+            try (FileChannel out = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer entry = ByteBuffer.allocate(LOG_ENTRY).order(ByteOrder.LITTLE_ENDIAN);
+                ByteBuffer data = ByteBuffer.allocateDirect((int) TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i : changed) {
+                    TiledCanvas.Tile t = canvas.tileAt(i % tilesX, i / tilesX);
+                    boolean uniform = t.isUniform();
+                    entry.clear();
+                    entry.putInt(i).putInt(uniform ? KIND_UNIFORM : KIND_RAW).putInt(uniform ? t.color : 0).flip();
+                    writeFully(out, entry);
+                    if (!uniform) {
+                        data.clear();
+                        data.asIntBuffer().put(t.pixels);
+                        writeFully(out, data);
+                    }
+                }
+                out.force(false);
+                // the trailer marks the log complete, so it only reaches the disk after the rest
+                ByteBuffer trailer = ByteBuffer.allocate(LOG_TRAILER).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt(LOG_MAGIC).putInt(width).putInt(height).putInt(changed.size()).flip();
+                writeFully(out, trailer);
+                out.force(false);
+            }
+            for (int i : changed) {
+                TiledCanvas.Tile t = canvas.tileAt(i % tilesX, i / tilesX);
+                writeTile(this, i, t);
+                slots[i] = new Slot(i);
+                t.origin = slots[i];
+            }
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+            Files.delete(log);
+        }
+    }
+
+    /**
+     * Completes the save whose log next to {@code path} is complete, or drops a log that
+     * is not, as the file was not touched yet. Either way the file is whole afterwards.
+     */
+    private static void recover(Path path) throws IOException {
+        Path log = logFor(path);
+        synchronized (logs) {
+            if (!Files.exists(log)) return;
+            try (FileChannel in = FileChannel.open(log, StandardOpenOption.READ)) {
+                long size = in.size();
+                ByteBuffer trailer = ByteBuffer.allocate(LOG_TRAILER).order(ByteOrder.LITTLE_ENDIAN);
+                if (size >= LOG_TRAILER) readFully(in, trailer, size - LOG_TRAILER);
+                if (size >= LOG_TRAILER && trailer.getInt(0) == LOG_MAGIC) {
+                    replay(in, size - LOG_TRAILER, trailer.getInt(4), trailer.getInt(8), trailer.getInt(12), path);
+                }
+            }
+            Files.delete(log);
+        }
+    }
+
+    private static void replay(FileChannel in, long end, int width, int height, int count, Path path)
+            throws IOException {
+        if (!Files.isWritable(path)) {
+            throw new IOException("An unfinished save of " + path + " needs write access to complete");
+        }
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(out, head, 0);
+            int tileCount = head.getInt(20);
+            if (head.getInt(0) != MAGIC || head.getInt(8) != width || head.getInt(12) != height) {
+                throw new IOException("Save log does not match " + path);
+            }
+            long dataOffset = dataOffset(tileCount);
+            ByteBuffer entry = ByteBuffer.allocate(LOG_ENTRY).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer data = ByteBuffer.allocateDirect((int) TILE_BYTES);
+            long pos = 0;
+            for (int n = 0; n < count; n++) {
+                readFully(in, entry, pos);
+                pos += LOG_ENTRY;
+                int index = entry.getInt(0), kind = entry.getInt(4);
+                if (index < 0 || index >= tileCount || pos + (kind == KIND_RAW ? TILE_BYTES : 0) > end) {
+                    throw new IOException("Corrupt save log for " + path);
+                }
+                if (kind == KIND_RAW) {
+                    readFully(in, data, pos);
+                    pos += TILE_BYTES;
+                    data.flip();
+                    writeFully(out, data, dataOffset + index * TILE_BYTES);
+                }
+                entry.position(4);
+                writeFully(out, entry, (HEADER_INTS + 2L * index) * 4);
+            }
+            out.force(false);
+        }
+    }
+
+    /**
+     * @return where saves back to {@code path} log their tiles
+     */
+    private static Path logFor(Path path) {
+        return path.resolveSibling("." + path.getFileName() + ".log");
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long pos) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf, long pos) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            out.write(buf, pos + buf.position() - start);
+        }
+    }
+
+    /**
+     * @param only the tiles to write, or null for all of them
+     */
+    private static void writeNew(TiledCanvas canvas, Path target, BitSet only) throws IOException {
+        Path tmp = AutoSaveService.createTempFor(target);
+        try {
+            int tilesX = canvas.getTilesX();
+            int tileCount = tilesX * canvas.getTilesY();
+            long dataOffset = dataOffset(tileCount);
+            try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                raf.setLength(dataOffset + tileCount * TILE_BYTES);
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+                RawCanvasFile out = new RawCanvasFile(null, null, canvas.getWidth(), canvas.getHeight(), header,
+                        mapSegments(channel, dataOffset, tileCount, FileChannel.MapMode.READ_WRITE), true);
+                out.table.put(0, MAGIC).put(1, VERSION).put(2, canvas.getWidth()).put(3, canvas.getHeight())
+                        .put(4, TiledCanvas.TILE_SIZE).put(5, tileCount);
+                // a new file reads as transparent everywhere until written
+                for (int i = only == null ? 0 : only.nextSetBit(0); i >= 0 && i < tileCount;
+                     i = only == null ? i + 1 : only.nextSetBit(i + 1)) {
+                    writeTile(out, i, canvas.tileAt(i % tilesX, i / tilesX));
+                }
+                for (MappedByteBuffer segment : out.segments) {
+                    segment.force();
+                }
+                header.force();
+            }
+            // a log left by an interrupted save is finished first, it must not outlive its file
+            recover(target);
+            AutoSaveService.replace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes one tile's pixels, unless it is uniform, and then its table entry. A tile
+     * that has not been loaded yet is copied straight from the file it came from.
+     */
+    private static void writeTile(RawCanvasFile out, int index, TiledCanvas.Tile t) {
+        if (t.pending instanceof Slot slot && slot.owner() != out) {
+            RawCanvasFile source = slot.owner();
+            synchronized (source) {
+                if (t.pending == slot) {
+                    int kind = source.table.get(HEADER_INTS + 2 * slot.index);
+                    if (kind == KIND_RAW) {
+                        out.tileBytes(index).put(source.tileBytes(slot.index));
+                    }
+                    out.table.put(HEADER_INTS + 2 * index + 1, source.table.get(HEADER_INTS + 2 * slot.index + 1));
+                    out.table.put(HEADER_INTS + 2 * index, kind);
+                    return;
+                }
+            }
+        }
+        if (t.isUniform()) {
+            out.table.put(HEADER_INTS + 2 * index + 1, t.color);
+            out.table.put(HEADER_INTS + 2 * index, KIND_UNIFORM);
+        } else {
+            out.tileData(index).put(t.pixels);
+            out.table.put(HEADER_INTS + 2 * index + 1, 0);
+            out.table.put(HEADER_INTS + 2 * index, KIND_RAW);
+        }
+    }
+
+    /**
+     * @return the shared mapping of the file now at {@code path}, mapping it if needed
+     */
+    private static RawCanvasFile current(Path path) throws IOException {
+        Object key = fileKey(path);
+        synchronized (mapped) {
+            WeakReference<RawCanvasFile> ref = mapped.get(path);
+            RawCanvasFile raw = ref != null ? ref.get() : null;
+            if (raw == null || !Objects.equals(raw.fileKey, key)) {
+                recover(path);
+                raw = map(path, key);
+                mapped.put(path, new WeakReference<>(raw));
+            }
+            return raw;
+        }
+    }
+
+    private static RawCanvasFile map(Path path, Object fileKey) throws IOException {
+        boolean writable = Files.isWritable(path);
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), writable ? "rw" : "r");
+             FileChannel channel = raf.getChannel()) {
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            if (channel.size() < HEADER_INTS * 4L) throw new IOException("Not a canvas file: " + path);
+            IntBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_INTS * 4L)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (head.get(0) != MAGIC) throw new IOException("Not a canvas file: " + path);
+            if (head.get(1) != VERSION) throw new IOException("Unsupported canvas file version " + head.get(1));
+            int width = head.get(2), height = head.get(3), tileCount = head.get(5);
+            if (head.get(4) != TiledCanvas.TILE_SIZE || width <= 0 || height <= 0
+                    || tileCount != tilesFor(width) * tilesFor(height)) {
+                throw new IOException("Corrupt canvas file header: " + path);
+            }
+            long dataOffset = dataOffset(tileCount);
+            if (channel.size() < dataOffset + tileCount * TILE_BYTES) {
+                throw new IOException("Truncated canvas file: " + path);
+            }
+            // the mappings stay valid after the channel is closed
+            return new RawCanvasFile(path, fileKey, width, height, channel.map(mode, 0, dataOffset),
+                    mapSegments(channel, dataOffset, tileCount, mode), writable);
+        }
+    }
+
+    private static MappedByteBuffer[] mapSegments(FileChannel channel, long dataOffset, int tileCount,
+                                                  FileChannel.MapMode mode) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(tileCount + TILES_PER_SEGMENT - 1) / TILES_PER_SEGMENT];
+        for (int s = 0; s < segments.length; s++) {
+            int tiles = Math.min(TILES_PER_SEGMENT, tileCount - s * TILES_PER_SEGMENT);
+            segments[s] = channel.map(mode, dataOffset + s * TILES_PER_SEGMENT * TILE_BYTES, tiles * TILE_BYTES);
+        }
+        return segments;
+    }
+
+    /**
+     * @return an identity for the file at path that changes when it is replaced, or null
+     * where the file system has none
+     */
+    private static Object fileKey(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private ByteBuffer tileBytes(int index) {
+        MappedByteBuffer segment = segments[index / TILES_PER_SEGMENT];
+        return segment.slice((int) ((index % TILES_PER_SEGMENT) * TILE_BYTES), (int) TILE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private IntBuffer tileData(int index) {
+        return tileBytes(index).asIntBuffer();
+    }
+
+    private static long dataOffset(int tileCount) {
+        long header = (HEADER_INTS + 2L * tileCount) * 4;
+        return (header + PAGE - 1) / PAGE * PAGE;
+    }
+
+    private static int tilesFor(int pixels) {
+        return (pixels + TiledCanvas.TILE_SIZE - 1) / TiledCanvas.TILE_SIZE;
+    }
+}
@@ -0,0 +1,1003 @@
+package paint;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The document behind a canvas tab, without any Swing: its layers, their undo history,
+ * the crash journal and every drawing operation.
+ * <p>
+ *     Drawing goes into the active layer. Views show {@link #getComposite}, see
+ *     {@link LayerStack}.
+ * <p>
+ *     An engine is used from one thread at a time, the event dispatch thread when a
+ *     {@link DrawingPanel} shows it or any worker for batch and server rendering, so
+ *     separate engines render in parallel. Only {@link #getVersion} and
+ *     {@link #peekSnapshot} may be called from other threads. Views learn what to
+ *     repaint through a {@link Listener}.
+ */
+public class RenderEngine {
+    /** Color of new and cleared canvases. */
+    public static final int BACKGROUND = 0xFFFFFFFF;
+    private static final int DEFAULT_WIDTH = 800, DEFAULT_HEIGHT = 600;
+
+    private static final int MAX_HISTORY = 50;
+    private static final long MAX_HISTORY_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Hears about changes to an engine, on the thread that made them.
+     */
+    public interface Listener {
+        /**
+         * The pixels inside {@code area}, in canvas coordinates, may have changed.
+         */
+        void areaChanged(Rectangle area);
+
+        /**
+         * The canvas was replaced, resized or changed as a whole.
+         */
+        void canvasChanged();
+
+        /**
+         * A drawing operation, undo or redo changed the document. Loading or replacing
+         * the canvas does not count as an edit.
+         */
+        void edited();
+    }
+
+    // The active layer's canvas, which every drawing operation draws into
+    private TiledCanvas canvas;
+    private LayerStack layers;
+    private Listener listener;
+    private volatile long version;
+    // Last snapshot handed out, reused until the version changes
+    private volatile PublishedSnapshot published;
+
+    private static final class PublishedSnapshot {
+        final long version;
+        final TiledCanvas canvas;
+
+        PublishedSnapshot(long version, TiledCanvas canvas) {
+            this.version = version;
+            this.canvas = canvas;
+        }
+    }
+
+    private final CanvasHistory history;
+    private EditJournal.TabLog journal;
+
+    // While an ImageLoader fills the canvas: the layers to restore if it is cancelled and
+    // how many rows have arrived
+    private boolean loading;
+    private LayerStack layersBeforeLoad;
+    private int loadedRows;
+
+    // Freehand strokes are drawn through graphics kept for the whole stroke
+    private final StrokeEngine strokeEngine = new StrokeEngine(1024);
+    private TiledCanvas.DrawSession strokeSession;
+    private Color strokeColor;
+    private ToolOptions strokeOptions;
+
+    // Measures text the way a component would, without needing one
+    private Graphics2D metrics;
+
+    // Shapes kept movable above the canvas while vector shapes are on, else null
+    private ShapeLayer shapes;
+
+    /**
+     * Creates an engine with no canvas yet; the first edit creates a blank one.
+     */
+    public RenderEngine() {
+        this(null, true);
+    }
+
+    public RenderEngine(TiledCanvas canvas) {
+        this(canvas, true);
+    }
+
+    /**
+     * @param undoable false to keep no undo history, e.g. for batch rendering
+     */
+    public RenderEngine(TiledCanvas canvas, boolean undoable) {
+        if (canvas != null) setDocument(canvas);
+        this.history = undoable ? new CanvasHistory(MAX_HISTORY, MAX_HISTORY_BYTES) : new CanvasHistory(0, 0);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sends every following operation on this canvas to {@code journal}, or stops
+     * journaling if it is null.
+     */
+    public void setJournal(EditJournal.TabLog journal) {
+        this.journal = journal;
+    }
+
+    private void areaChanged(Rectangle area) {
+        if (listener != null) listener.areaChanged(area);
+    }
+
+    private void canvasChanged() {
+        if (listener != null) listener.canvasChanged();
+    }
+
+    private void edited() {
+        version++;
+        if (listener != null) listener.edited();
+    }
+
+    /**
+     * Makes {@code c} the only layer, for a new or loaded document.
+     */
+    private void setDocument(TiledCanvas c) {
+        canvas = c;
+        layers = new LayerStack(c);
+    }
+
+    private boolean isLocked() {
+        return layers != null && layers.getActive().isLocked();
+    }
+
+    /**
+     * Sets the color to draw with. A fully transparent one clears what it covers, which
+     * is how the eraser works above the bottom layer.
+     */
+    private static void setColor(Graphics2D g2, Color c) {
+        g2.setColor(c);
+        if (c.getAlpha() == 0) g2.setComposite(AlphaComposite.Src);
+    }
+
+    /**
+     * Creates a blank canvas of the default size if there is none yet.
+     */
+    public void ensureCanvas() {
+        if (canvas == null) {
+            resizeCanvas(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+            edited();
+        }
+    }
+
+    /**
+     * Starts an undoable edit that groups the segments, shapes and text drawn until
+     * {@link #commitEdit()}.
+     */
+    public void beginEdit() {
+        if (loading) return;
+        ensureCanvas();
+        history.beginEdit(canvas);
+        if (journal != null) journal.beginEdit();
+    }
+
+    public void commitEdit() {
+        if (!history.isEditing()) return;
+        history.commitEdit();
+        if (journal != null) journal.commitEdit();
+    }
+
+    /**
+     * Draws one stroke segment with the stroke described by {@code options}.
+     */
+    public void drawSegment(int x1, int y1, int x2, int y2, Color c, ToolOptions options) {
+        ensureCanvas();
+        if (isLocked()) return;
+        int pad = options.getStrokePadding();
+        Rectangle bounds = new Rectangle(Math.min(x1, x2) - pad, Math.min(y1, y2) - pad,
+                Math.abs(x2 - x1) + 2 * pad + 1, Math.abs(y2 - y1) + 2 * pad + 1);
+        history.touch(bounds);
+        Stroke stroke = options.getStroke();
+        canvas.draw(bounds, g2 -> {
+            setColor(g2, c);
+            g2.setStroke(stroke);
+            g2.drawLine(x1, y1, x2, y2);
+        });
+        if (journal != null) journal.line(x1, y1, x2, y2, c, options);
+        areaChanged(bounds);
+        edited();
+    }
+
+    /**
+     * Starts a freehand stroke at (x, y). Points added with {@link #addStrokePoint} are
+     * buffered and drawn by {@link #flushStroke}, each batch as one path, until
+     * {@link #endStroke}.
+     */
+    public void beginStroke(int x, int y, Color c, ToolOptions options) {
+        endStroke();
+        ensureCanvas();
+        if (isLocked()) return;
+        strokeColor = c;
+        strokeOptions = options;
+        Stroke stroke = options.getStroke();
+        strokeSession = canvas.openSession(g2 -> {
+            setColor(g2, c);
+            g2.setStroke(stroke);
+        });
+        strokeEngine.begin(x, y, options.isSmoothing());
+    }
+
+    public boolean isStroking() {
+        return strokeEngine.isActive();
+    }
+
+    public void addStrokePoint(int x, int y) {
+        if (!strokeEngine.isActive()) return;
+        while (!strokeEngine.add(x, y)) {
+            flushStroke();
+        }
+    }
+
+    /**
+     * Draws what is left of the current stroke, if any, and ends it.
+     */
+    public void endStroke() {
+        if (!strokeEngine.isActive()) return;
+        float phase = strokeEngine.getLength();
+        Path2D.Float rest = strokeEngine.finish();
+        if (rest != null) drawPath(rest, strokeColor, strokeOptions, phase);
+        strokeSession.close();
+        strokeSession = null;
+    }
+
+    /**
+     * Draws the points of the current stroke buffered so far.
+     */
+    public void flushStroke() {
+        float phase = strokeEngine.getLength();
+        Path2D.Float batch = strokeEngine.takeBatch();
+        if (batch != null) drawPath(batch, strokeColor, strokeOptions, phase);
+    }
+
+    /**
+     * Draws {@code path} with the stroke of {@code options}, starting {@code dashPhase}
+     * into its dash pattern.
+     */
+    public void drawPath(Shape path, Color c, ToolOptions options, float dashPhase) {
+        ensureCanvas();
+        if (isLocked()) return;
+        Rectangle bounds = path.getBounds();
+        int pad = options.getStrokePadding();
+        bounds.grow(pad, pad);
+        bounds.width++;
+        bounds.height++;
+        history.touch(bounds);
+        Stroke dashes = options.isDashed() ? options.getStroke(dashPhase) : null;
+        if (strokeSession != null && options == strokeOptions && c.equals(strokeColor)) {
+            //the session's graphics already have the color and stroke
+            strokeSession.draw(bounds, g2 -> {
+                if (dashes != null) g2.setStroke(dashes);
+                g2.draw(path);
+            });
+        } else {
+            Stroke stroke = dashes != null ? dashes : options.getStroke();
+            canvas.draw(bounds, g2 -> {
+                setColor(g2, c);
+                g2.setStroke(stroke);
+                g2.draw(path);
+            });
+        }
+        if (journal != null) journal.path(path, c, options, dashPhase);
+        areaChanged(bounds);
+        edited();
+    }
+
+    /**
+     * Draws the shape selected in {@code options} between the two corner points.
+     */
+    public void drawShape(int x1, int y1, int x2, int y2, ToolOptions options) {
+        ensureCanvas();
+        if (isLocked()) return;
+        if (shapes != null) {
+            ShapeLayer.Item item = shapes.add(new ShapeCommand(x1, y1, x2, y2, options));
+            areaChanged(item.getBounds());
+            edited();
+            return;
+        }
+        Rectangle bounds = AdvancedShapeDrawer.bounds(x1, y1, x2, y2, options.getStrokePadding());
+        history.touch(bounds);
+
+        Color color = options.getColor();
+        Stroke stroke = options.getStroke();
+        ShapeType type = options.getShapeType();
+        int sides = options.getPolygonSides();
+        canvas.draw(bounds, g2 -> {
+            g2.setColor(color);
+            g2.setStroke(stroke);
+            AdvancedShapeDrawer.drawShape(g2, type, x1, y1, x2, y2, sides);
+        });
+        if (journal != null) journal.shape(x1, y1, x2, y2, options);
+        areaChanged(bounds);
+        edited();
+    }
+
+    /**
+     * Turns the vector shape layer on or off. While it is on, {@link #drawShape} adds
+     * shapes to {@link #getShapeLayer} where they can still be moved and removed, and
+     * snapshots show them over the canvas. Turning it off flattens them.
+     */
+    public void setVectorShapes(boolean on) {
+        if (on == (shapes != null)) return;
+        if (on) {
+            ensureCanvas();
+            shapes = new ShapeLayer(canvas.getWidth(), canvas.getHeight());
+        } else {
+            flattenShapes();
+            shapes = null;
+        }
+    }
+
+    /**
+     * @return the shapes not yet flattened, or null if vector shapes are off
+     */
+    public ShapeLayer getShapeLayer() {
+        return shapes;
+    }
+
+    public void moveShape(ShapeLayer.Item item, int dx, int dy) {
+        if (shapes == null) return;
+        Rectangle before = item.getBounds();
+        shapes.move(item, dx, dy);
+        areaChanged(before.union(item.getBounds()));
+        edited();
+    }
+
+    public void removeShape(ShapeLayer.Item item) {
+        if (shapes == null) return;
+        shapes.remove(item);
+        areaChanged(item.getBounds());
+        edited();
+    }
+
+    /**
+     * Draws every shape of the layer into the canvas as one undoable edit and empties
+     * the layer. Until then the shapes are neither in the undo history nor the journal.
+     */
+    public void flattenShapes() {
+        if (shapes == null || shapes.isEmpty() || loading) return;
+        List<ShapeCommand> flat = shapes.getShapes();
+        shapes.clear();
+        stamp(flat);
+    }
+
+    /**
+     * Starts an empty shape layer sized for the current canvas if vector shapes are on.
+     */
+    private void resetShapes() {
+        if (shapes != null) shapes = new ShapeLayer(canvas.getWidth(), canvas.getHeight());
+    }
+
+    /**
+     * Draws many shapes at once, in order, as one undoable edit. Looks the same as calling
+     * {@link #drawShape} for each but draws separate tiles in parallel, see
+     * {@link ShapeStamper}. With vector shapes on they are added to the shape layer.
+     */
+    public void drawShapes(List<ShapeCommand> commands) {
+        if (commands.isEmpty() || loading) return;
+        ensureCanvas();
+        if (isLocked()) return;
+        if (shapes != null) {
+            Rectangle bounds = null;
+            for (ShapeCommand shape : commands) {
+                shapes.add(shape);
+                bounds = bounds == null ? shape.getBounds() : bounds.union(shape.bounds());
+            }
+            areaChanged(bounds);
+            edited();
+            return;
+        }
+        stamp(commands);
+    }
+
+    private void stamp(List<ShapeCommand> commands) {
+        ShapeStamper stamper = new ShapeStamper(canvas, commands);
+        history.beginEdit(canvas);
+        for (Rectangle r : stamper.getTileAreas()) {
+            history.touch(r);
+        }
+        stamper.apply();
+        history.commitEdit();
+        if (journal != null) {
+            journal.beginEdit();
+            for (ShapeCommand s : commands) {
+                journal.shape(s.getX1(), s.getY1(), s.getX2(), s.getY2(), s.getOptions());
+            }
+            journal.commitEdit();
+        }
+        areaChanged(stamper.getBounds());
+        edited();
+    }
+
+    /**
+     * Draws the text of {@code options} with its top-left corner at (x, y).
+     */
+    public void drawText(int x, int y, ToolOptions options) {
+        ensureCanvas();
+        if (isLocked()) return;
+        Font font = options.getFont();
+        if (metrics == null) {
+            metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        }
+        FontMetrics fm = metrics.getFontMetrics(font);
+        int ascent = fm.getAscent();
+        String text = options.getText();
+        Color color = options.getColor();
+        int baseline = y + ascent;
+        Rectangle bounds = new Rectangle(x, y, fm.stringWidth(text), fm.getHeight());
+        bounds.grow(options.getTextSize() / 4 + 2, options.getTextSize() / 4 + 2);
+        history.touch(bounds);
+        canvas.draw(bounds, g2 -> {
+            g2.setColor(color);
+            g2.setFont(font);
+            g2.drawString(text, x, baseline);
+        });
+        if (journal != null) journal.text(x, y, options);
+        areaChanged(bounds);
+        edited();
+    }
+
+    /**
+     * Pastes {@code img} at (x, y) as its own undoable edit. Does nothing if img is null.
+     */
+    public void pasteImage(BufferedImage img, int x, int y) {
+        if (img != null) pasteClip(CanvasClip.of(img), x, y);
+    }
+
+    /**
+     * Pastes {@code clip} at (x, y) as its own undoable edit, straight from the tiles it
+     * shares. Does nothing if clip is null.
+     */
+    public void pasteClip(CanvasClip clip, int x, int y) {
+        if (clip == null || loading) return;
+        ensureCanvas();
+        if (isLocked()) return;
+        Rectangle bounds = new Rectangle(x, y, clip.getWidth(), clip.getHeight());
+        history.beginEdit(canvas);
+        history.touch(bounds);
+        canvas.draw(bounds, g2 -> clip.paint(g2, x, y));
+        history.commitEdit();
+        if (journal != null) journal.paste(x, y, clip);
+        areaChanged(bounds);
+        edited();
+    }
+
+    /**
+     * Fills the area around (x, y) that has about the color of that pixel with
+     * {@code c}, as its own undoable edit. See {@link FloodFill}.
+     */
+    public void floodFill(int x, int y, Color c, int tolerance) {
+        if (loading) return;
+        ensureCanvas();
+        if (isLocked() || x < 0 || y < 0 || x >= canvas.getWidth() || y >= canvas.getHeight()) return;
+        FloodFill fill = new FloodFill(canvas, x, y, tolerance);
+        //only the filled part of each tile goes into the undo record, built in the background
+        history.recordChange(canvas, fill.getBounds(), fill.getTileAreas(), () -> fill.apply(c.getRGB()));
+        if (journal != null) journal.fill(x, y, c, tolerance);
+        areaChanged(fill.getBounds());
+        edited();
+    }
+
+    /**
+     * Resizes every layer, filling new area of the bottom one with {@link #BACKGROUND}
+     * and of the others with transparency.
+     */
+    public void resizeCanvas(int width, int height) {
+        if (loading) return;
+        flattenShapes();
+        if (canvas == null) {
+            setDocument(new TiledCanvas(width, height, BACKGROUND));
+        } else {
+            history.beginGroup();
+            for (int i = 0; i < layers.size(); i++) {
+                TiledCanvas c = layers.get(i).getCanvas();
+                int background = layerBackground(i);
+                history.recordResize(c, width, height, background);
+                c.resize(width, height, background);
+            }
+            history.endGroup();
+        }
+        if (journal != null) journal.resize(width, height);
+        resetShapes();
+        canvasChanged();
+        edited();
+    }
+
+    /**
+     * @return the color the bottom layer is cleared to, and transparent for the others
+     */
+    private static int layerBackground(int index) {
+        return index == 0 ? BACKGROUND : 0;
+    }
+
+    /**
+     * Clears the active layer.
+     */
+    public void clearCanvas() {
+        if (loading) return;
+        if (canvas == null) {
+            resizeCanvas(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+            return;
+        }
+        if (isLocked()) return;
+        flattenShapes();
+        history.beginEdit(canvas);
+        history.touchAll();
+        canvas.fill(layerBackground(layers.getActiveIndex()));
+        history.commitEdit();
+        if (journal != null) journal.clear();
+        canvasChanged();
+        edited();
+    }
+
+    /**
+     * Rotates the pixels of the active layer inside {@code sel}, or every layer if sel is
+     * null or empty. The rotated pixels replace those of the selection; a quarter turn of
+     * a selection that is not square is scaled to fit it.
+     */
+    public void rotate(int degrees, Rectangle sel) {
+        if (canvas == null || loading) return;
+        flattenShapes();
+        if (sel != null && sel.width > 0 && sel.height > 0) {
+            Rectangle area = sel.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+            if (area.isEmpty() || isLocked()) return;
+            if (journal != null) journal.rotate(degrees, sel);
+            history.beginEdit(canvas);
+            history.touch(area);
+
+            int[] pixels = readArea(area);
+            if (Math.floorMod(degrees, 180) != 0 && area.width != area.height) {
+                //a quarter turn of an oblong area is squeezed back into it
+                BufferedImage rotated = new BufferedImage(area.height, area.width, BufferedImage.TYPE_INT_ARGB);
+                RasterOps.rotate(pixels, 0, area.width, area.width, area.height, degrees,
+                        RasterOps.pixels(rotated), 0, area.height);
+                canvas.draw(area, g2 -> {
+                    g2.setComposite(AlphaComposite.Src);
+                    g2.drawImage(rotated, area.x, area.y, area.width, area.height, null);
+                });
+            } else {
+                int[] rotated = new int[pixels.length];
+                RasterOps.rotate(pixels, 0, area.width, area.width, area.height, degrees, rotated, 0, area.width);
+                canvas.writePixels(area.x, area.y, area.width, area.height, rotated);
+            }
+            history.commitEdit();
+            areaChanged(area);
+        } else {
+            history.beginGroup();
+            for (int i = 0; i < layers.size(); i++) {
+                TiledCanvas c = layers.get(i).getCanvas();
+                c.rotate(degrees);
+                history.recordRotate(c, degrees);
+            }
+            history.endGroup();
+            if (journal != null) journal.rotate(degrees, null);
+            resetShapes();
+            canvasChanged();
+        }
+        edited();
+    }
+
+    /**
+     * Flips the pixels of the active layer inside {@code sel}, or every layer if sel is
+     * null or empty. The flipped pixels replace those of the selection.
+     * @param horizontal true => horizontal flip (left <-> right), false => vertical flip (top <-> bottom)
+     */
+    public void flip(boolean horizontal, Rectangle sel) {
+        if (canvas == null || loading) return;
+        flattenShapes();
+        if (sel != null && sel.width > 0 && sel.height > 0) {
+            Rectangle area = sel.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+            if (area.isEmpty() || isLocked()) return;
+            if (journal != null) journal.flip(horizontal, sel);
+            history.beginEdit(canvas);
+            history.touch(area);
+
+            int[] pixels = readArea(area);
+            int[] flipped = new int[pixels.length];
+            RasterOps.flip(pixels, 0, area.width, area.width, area.height, horizontal, flipped, 0, area.width);
+            canvas.writePixels(area.x, area.y, area.width, area.height, flipped);
+            history.commitEdit();
+            areaChanged(area);
+        } else {
+            history.beginGroup();
+            for (int i = 0; i < layers.size(); i++) {
+                TiledCanvas c = layers.get(i).getCanvas();
+                c.flip(horizontal);
+                history.recordFlip(c, horizontal);
+            }
+            history.endGroup();
+            if (journal != null) journal.flip(horizontal, null);
+            canvasChanged();
+        }
+        edited();
+    }
+
+    private int[] readArea(Rectangle area) {
+        int[] pixels = new int[area.width * area.height];
+        canvas.readPixels(area.x, area.y, area.width, area.height, pixels);
+        return pixels;
+    }
+
+    // LAYERS
+    public int getLayerCount() {
+        return layers == null ? 0 : layers.size();
+    }
+
+    /**
+     * @return layer {@code index}, counted from the bottom
+     */
+    public Layer getLayer(int index) {
+        return layers.get(index);
+    }
+
+    public int getActiveLayer() {
+        return layers == null ? 0 : layers.getActiveIndex();
+    }
+
+    /**
+     * @return what the eraser draws with: the background on the bottom layer and
+     *         transparency above it, so the layers below show through
+     */
+    public Color getEraserColor() {
+        return new Color(layerBackground(getActiveLayer()), true);
+    }
+
+    /**
+     * Adds an empty layer above the active one and makes it active, as an undoable edit.
+     */
+    public void addLayer() {
+        if (loading) return;
+        ensureCanvas();
+        flattenShapes();
+        Layer before = layers.getActive();
+        Layer layer = layers.createLayer();
+        int index = layers.getActiveIndex() + 1;
+        Runnable add = () -> changeLayers(() -> layers.add(index, layer), layer);
+        add.run();
+        history.recordAction(() -> changeLayers(() -> layers.remove(index), before), add);
+        if (journal != null) journal.addLayer();
+        edited();
+    }
+
+    /**
+     * Removes layer {@code index} as an undoable edit, unless it is the only one.
+     */
+    public void removeLayer(int index) {
+        if (loading || layers == null || layers.size() < 2 || !isLayer(index)) return;
+        flattenShapes();
+        Layer layer = layers.get(index);
+        Layer before = layers.getActive();
+        //the layer above takes over from a removed active layer, or the one below at the top
+        Layer after = before != layer ? before : layers.get(index + 1 < layers.size() ? index + 1 : index - 1);
+        Runnable remove = () -> changeLayers(() -> layers.remove(index), after);
+        remove.run();
+        history.recordAction(() -> changeLayers(() -> layers.add(index, layer), before), remove);
+        if (journal != null) journal.removeLayer(index);
+        edited();
+    }
+
+    /**
+     * Moves layer {@code from} to position {@code to} as an undoable edit.
+     */
+    public void moveLayer(int from, int to) {
+        if (loading || layers == null || from == to || !isLayer(from) || !isLayer(to)) return;
+        flattenShapes();
+        Layer active = layers.getActive();
+        Runnable move = () -> changeLayers(() -> layers.move(from, to), active);
+        move.run();
+        history.recordAction(() -> changeLayers(() -> layers.move(to, from), active), move);
+        if (journal != null) journal.moveLayer(from, to);
+        edited();
+    }
+
+    /**
+     * Makes layer {@code index} the one drawing goes into.
+     */
+    public void selectLayer(int index) {
+        if (loading || layers == null || !isLayer(index) || index == layers.getActiveIndex()) return;
+        endStroke();
+        flattenShapes();
+        layers.setActive(index);
+        canvas = layers.getActive().getCanvas();
+        if (journal != null) journal.selectLayer(index);
+    }
+
+    /**
+     * Changes how layer {@code index} is shown and whether it can be drawn on. Not undoable.
+     *
+     * @param opacity from 0 to 1
+     */
+    public void setLayerProperties(int index, String name, float opacity, BlendMode mode, boolean visible, boolean locked) {
+        if (loading || layers == null || !isLayer(index)) return;
+        Layer layer = layers.get(index);
+        layer.set(name, opacity, mode, visible, locked);
+        layers.invalidate();
+        if (journal != null) journal.layerProperties(index, layer);
+        canvasChanged();
+        edited();
+    }
+
+    private boolean isLayer(int index) {
+        return index >= 0 && index < layers.size();
+    }
+
+    /**
+     * Runs {@code change} on the layer list, then makes {@code active} the active layer.
+     */
+    private void changeLayers(Runnable change, Layer active) {
+        change.run();
+        layers.setActive(layers.indexOf(active));
+        canvas = active.getCanvas();
+        canvasChanged();
+    }
+
+    // UNDO/REDO
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    public void undo() {
+        if (!canUndo() || canvas == null || loading) return;
+        boolean replayable = !history.isUndoMarked();
+        history.undo();
+        if (journal != null) {
+            if (replayable) journal.undo(); else journal.suspend();
+        }
+        canvasChanged();
+        edited();
+    }
+
+    public void redo() {
+        if (!canRedo() || canvas == null || loading) return;
+        boolean replayable = !history.isRedoMarked();
+        history.redo();
+        if (journal != null) {
+            if (replayable) journal.redo(); else journal.suspend();
+        }
+        canvasChanged();
+        edited();
+    }
+
+    public void clearHistory() {
+        history.clear();
+    }
+
+    /**
+     * @return bytes of compressed undo/redo data held for this canvas
+     */
+    public long getHistoryMemoryUsage() {
+        return history.getMemoryUsage();
+    }
+
+    /**
+     * Replaces the document with a single layer holding a copy of {@code img}.
+     */
+    public void setImage(BufferedImage img) {
+        if (img == null) return;
+        if (canvas == null || layers.size() > 1) {
+            setDocument(TiledCanvas.fromImage(img));
+        } else {
+            canvas.setImage(img);
+            setDocument(canvas);
+        }
+        history.clear();
+        resetShapes();
+        version++;
+        canvasChanged();
+    }
+
+    /**
+     * Replaces the document with a single layer that is {@code newCanvas} itself rather
+     * than a copy, e.g. one mapped from a working file.
+     */
+    public void setCanvas(TiledCanvas newCanvas) {
+        setDocument(newCanvas);
+        history.clear();
+        resetShapes();
+        version++;
+        canvasChanged();
+    }
+
+    /**
+     * Replaces the document with {@code layers}, bottom first, drawing into layer
+     * {@code active}, e.g. the layers of a recovery checkpoint.
+     */
+    public void setLayers(List<Layer> layers, int active) {
+        this.layers = new LayerStack(layers, active);
+        canvas = this.layers.getActive().getCanvas();
+        history.clear();
+        resetShapes();
+        version++;
+        canvasChanged();
+    }
+
+    /**
+     * Returns copies of the layers holding read-only snapshots of their canvases, for
+     * a recovery checkpoint. Vector shapes that are not flattened yet are left out, as
+     * they are from the journal. While loading these are the layers from before the load.
+     *
+     * @return the layers, or null if there is no canvas yet
+     */
+    public LayerStack snapshotLayers() {
+        LayerStack stack = loading ? layersBeforeLoad : layers;
+        if (stack == null) return null;
+        List<Layer> copies = new ArrayList<>();
+        for (int i = 0; i < stack.size(); i++) {
+            Layer layer = stack.get(i);
+            Layer copy = new Layer(layer.getName(), layer.getCanvas().snapshot());
+            copy.set(layer.getName(), layer.getOpacity(), layer.getBlendMode(), layer.isVisible(), layer.isLocked());
+            copies.add(copy);
+        }
+        return new LayerStack(copies, stack.getActiveIndex());
+    }
+
+    /**
+     * Tells the engine a recovery checkpoint just took {@link #snapshotLayers}. Recovery
+     * replays from there without undo history, so undoing or redoing an edit made before
+     * it is not journaled as such: the journal of this tab pauses until the next checkpoint.
+     */
+    public void checkpointed() {
+        history.mark();
+    }
+
+    /**
+     * Swaps in a blank canvas of the given size for an {@link ImageLoader} to fill and
+     * stops editing until {@link #endLoad}. Until then snapshots and the version still
+     * describe the previous canvas, so autosave and viewers never see half an image.
+     */
+    public void beginLoad(int width, int height) {
+        if (!loading) {
+            layersBeforeLoad = layers;
+        }
+        loading = true;
+        setDocument(new TiledCanvas(width, height, BACKGROUND));
+        loadedRows = 0;
+        canvasChanged();
+    }
+
+    /**
+     * Stores the tile row starting at canvas row {@code y}, see {@link TiledCanvas#loadTileRow}.
+     */
+    public void loadTileRow(int y, int[] argb) {
+        if (!loading) return;
+        canvas.loadTileRow(y, argb);
+        int rows = Math.min(TiledCanvas.TILE_SIZE, canvas.getHeight() - y);
+        loadedRows = Math.max(loadedRows, y + rows);
+        areaChanged(new Rectangle(0, y, canvas.getWidth(), rows));
+    }
+
+    /**
+     * Finishes a load. Keeps the loaded canvas and drops the undo history, or puts the
+     * previous canvas back if the load was cancelled or failed.
+     */
+    public void endLoad(boolean keep) {
+        if (!loading) return;
+        loading = false;
+        if (keep) {
+            history.clear();
+            resetShapes();
+        } else {
+            layers = layersBeforeLoad;
+            canvas = layers != null ? layers.getActive().getCanvas() : null;
+        }
+        layersBeforeLoad = null;
+        version++;
+        canvasChanged();
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * @return how many rows from the top have arrived while loading
+     */
+    public int getLoadedRows() {
+        return loadedRows;
+    }
+
+    /**
+     * Returns a read-only snapshot of the composited layers, which costs a copy of the
+     * tile grid, with any vector shapes drawn in.
+     * Repeated calls for the same version share one snapshot. While loading this is the
+     * canvas from before the load.
+     *
+     * @return the snapshot, or null if there is no canvas yet
+     */
+    public TiledCanvas snapshot() {
+        PublishedSnapshot current = published;
+        if (current != null && current.version == version) {
+            return current.canvas;
+        }
+        TiledCanvas shown = loading ? (layersBeforeLoad != null ? layersBeforeLoad.composite() : null) : getComposite();
+        if (shown == null) return null;
+        TiledCanvas snap;
+        if (shapes != null && !shapes.isEmpty() && !loading) {
+            TiledCanvas flat = shown.copy();
+            new ShapeStamper(flat, shapes.getShapes()).apply();
+            snap = flat.snapshot();
+        } else {
+            snap = shown.snapshot();
+        }
+        published = new PublishedSnapshot(version, snap);
+        return snap;
+    }
+
+    /**
+     * Copies {@code area} of what {@link #snapshot} would show, sharing the tiles under it
+     * rather than snapshotting the whole canvas. Only the vector shapes crossing the area
+     * are drawn in, into copies of the tiles they reach.
+     *
+     * @return the part of the area inside the canvas, or null if that is empty or there
+     *         is no canvas yet
+     */
+    public CanvasClip copyRegion(Rectangle area) {
+        TiledCanvas shown = loading ? (layersBeforeLoad != null ? layersBeforeLoad.composite() : null) : getComposite();
+        if (shown == null) return null;
+        Rectangle r = area.intersection(new Rectangle(0, 0, shown.getWidth(), shown.getHeight()));
+        if (r.isEmpty()) return null;
+        List<ShapeLayer.Item> crossing = shapes != null && !loading ? shapes.query(r) : List.of();
+        if (crossing.isEmpty()) return CanvasClip.of(shown, r);
+
+        TiledCanvas view = shown.snapshotRegion(r.x, r.y, r.width, r.height).copy();
+        //the view starts at the tile holding the corner of the area
+        int ox = r.x / TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+        int oy = r.y / TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+        List<ShapeCommand> moved = new ArrayList<>(crossing.size());
+        for (ShapeLayer.Item item : crossing) {
+            moved.add(item.getShape().moved(-ox, -oy));
+        }
+        new ShapeStamper(view, moved).apply();
+        return CanvasClip.of(view, new Rectangle(r.x - ox, r.y - oy, r.width, r.height));
+    }
+
+    /**
+     * Can be called from any thread.
+     *
+     * @return the last snapshot if the canvas has not changed since, else null
+     */
+    public TiledCanvas peekSnapshot() {
+        PublishedSnapshot current = published;
+        return current != null && current.version == version ? current.canvas : null;
+    }
+
+    /**
+     * @return a counter that changes every time the canvas content changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a flattened copy of the layers and vector shapes, or null if nothing has
+     *         been drawn yet
+     */
+    public BufferedImage getImage() {
+        if (canvas == null) return null;
+        return shapes != null && !shapes.isEmpty() ? snapshot().toImage() : getComposite().toImage();
+    }
+
+    public boolean hasImage() {
+        return canvas != null;
+    }
+
+    /**
+     * @return the canvas of the active layer
+     */
+    public TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    /**
+     * @return the visible layers composited, which is what views show, or null if there
+     *         is no canvas yet
+     */
+    public TiledCanvas getComposite() {
+        return layers != null ? layers.composite() : null;
+    }
+}
@@ -0,0 +1,59 @@
+package paint;
+
+import java.awt.*;
+
+public class SelectionTool {
+    private Rectangle selection;
+    private CanvasClip clipboard;
+
+    public void startSelection(int x, int y) {
+        selection = new Rectangle(x, y, 0, 0);
+    }
+
+    public void updateSelection(int x, int y) {
+        if (selection != null) {
+            selection.setSize(x - selection.x, y - selection.y);
+        }
+    }
+
+    public void clearSelection() {
+        selection = null;
+    }
+
+    public Rectangle getSelection() {
+        return selection;
+    }
+
+    /**
+     * Copies the selected part of {@code canvas} to the clipboard without copying its
+     * pixels, see {@link CanvasClip}.
+     */
+    public void copy(TiledCanvas canvas) {
+        if (selection == null || canvas == null) return;
+        CanvasClip clip = CanvasClip.of(canvas, selection);
+        if (clip != null) clipboard = clip;
+    }
+
+    /**
+     * Copies the selected part of what {@code engine} shows, vector shapes included, see
+     * {@link RenderEngine#copyRegion}.
+     */
+    public void copy(RenderEngine engine) {
+        if (selection == null) return;
+        CanvasClip clip = engine.copyRegion(selection);
+        if (clip != null) clipboard = clip;
+    }
+
+    /**
+     * @return the copied pixels, or null if nothing has been copied yet
+     */
+    public CanvasClip getClipboard() {
+        return clipboard;
+    }
+
+    public void paste(Graphics2D g2, int x, int y) {
+        if (clipboard != null) {
+            clipboard.paint(g2, x, y);
+        }
+    }
+}
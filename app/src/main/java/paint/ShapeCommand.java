@@ -0,0 +1,75 @@
+package paint;
+
+import java.awt.*;
+
+/**
+ * One shape to draw: the {@link ShapeType} of its options between two corners, with the
+ * color, stroke and polygon sides of those options. Immutable.
+ */
+public final class ShapeCommand {
+    // How many pixels from a stroke a click still hits it
+    private static final int HIT_SLOP = 2;
+
+    private final int x1, y1, x2, y2;
+    private final ToolOptions options;
+    private final Rectangle bounds;
+
+    public ShapeCommand(int x1, int y1, int x2, int y2, ToolOptions options) {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.options = options;
+        this.bounds = AdvancedShapeDrawer.bounds(x1, y1, x2, y2, options.getStrokePadding());
+    }
+
+    public int getX1() { return x1; }
+    public int getY1() { return y1; }
+    public int getX2() { return x2; }
+    public int getY2() { return y2; }
+
+    public ToolOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the area drawing this shape can touch
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * @return the bounds without a copy, for callers in this package that only read them
+     */
+    Rectangle bounds() {
+        return bounds;
+    }
+
+    /**
+     * @return this shape moved by (dx, dy)
+     */
+    public ShapeCommand moved(int dx, int dy) {
+        return new ShapeCommand(x1 + dx, y1 + dy, x2 + dx, y2 + dy, options);
+    }
+
+    /**
+     * Draws the shape in canvas coordinates.
+     */
+    public void paint(Graphics2D g2) {
+        g2.setColor(options.getColor());
+        g2.setStroke(options.getStroke());
+        AdvancedShapeDrawer.drawShape(g2, options.getShapeType(), x1, y1, x2, y2, options.getPolygonSides());
+    }
+
+    /**
+     * @return whether the stroke passes within a couple of pixels of (x, y), gaps in
+     *         dashes included
+     */
+    public boolean hits(int x, int y) {
+        Shape outline = AdvancedShapeDrawer.outline(options.getShapeType(), x1, y1, x2, y2, options.getPolygonSides());
+        if (outline == null) return false;
+        Stroke solid = new BasicStroke(options.getSize() + 2 * HIT_SLOP, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        return solid.createStrokedShape(outline).contains(x + 0.5, y + 0.5);
+    }
+}
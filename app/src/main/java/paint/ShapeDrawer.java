@@ -1,3 +1,5 @@
+package paint;
+
 import java.awt.*;
 
 public class ShapeDrawer {
@@ -0,0 +1,243 @@
+package paint;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shapes kept as objects above the canvas instead of being drawn into it, so they can be
+ * picked, moved and removed until they are flattened.
+ * <p>
+ *     Items are indexed by their bounds in a loose quadtree. An item lives in the deepest
+ *     node whose cell holds its center and is at least twice its size, so it always lies
+ *     inside that cell grown by half a cell on every side. A query only visits nodes whose
+ *     grown cell overlaps the area, so repainting a dirty region and picking cost what is
+ *     near the area rather than the number of shapes. Items whose center is off the
+ *     canvas stay in the root. Items added later are drawn on top.
+ */
+public class ShapeLayer {
+    // A node splits when it holds more items than this, unless its cell is already small
+    private static final int MAX_ITEMS = 8;
+    private static final int MIN_CELL = 32;
+    // How far around a click to look for shapes; see ShapeCommand#hits
+    private static final int PICK_SLOP = 2;
+
+    private static final Comparator<Item> Z_ORDER = Comparator.comparingLong(i -> i.z);
+
+    /**
+     * A shape in the layer. Only {@link #move} changes it.
+     */
+    public static final class Item {
+        private final long z;
+        private ShapeCommand shape;
+        private Rectangle bounds;
+        private Node node;
+
+        private Item(ShapeCommand shape, long z) {
+            this.z = z;
+            setShape(shape);
+        }
+
+        private void setShape(ShapeCommand shape) {
+            this.shape = shape;
+            this.bounds = shape.bounds();
+        }
+
+        public ShapeCommand getShape() {
+            return shape;
+        }
+
+        /**
+         * @return the area drawing this shape can touch
+         */
+        public Rectangle getBounds() {
+            return shape.getBounds();
+        }
+    }
+
+    private static final class Node {
+        final Node parent;
+        final int x, y, size;
+        final List<Item> items = new ArrayList<>();
+        Node[] children;
+        // items in this node and below, so empty branches are skipped
+        int count;
+
+        Node(Node parent, int x, int y, int size) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        boolean overlaps(Rectangle r) {
+            if (parent == null) return true;
+            int half = size / 2;
+            return r.x < x + size + half && r.x + r.width > x - half
+                    && r.y < y + size + half && r.y + r.height > y - half;
+        }
+    }
+
+    private final Node root;
+    private long nextZ;
+
+    /**
+     * Creates an empty layer for a canvas of the given size.
+     */
+    public ShapeLayer(int width, int height) {
+        int size = MIN_CELL;
+        while (size < Math.max(width, height)) size *= 2;
+        root = new Node(null, 0, 0, size);
+    }
+
+    public boolean isEmpty() {
+        return root.count == 0;
+    }
+
+    public int size() {
+        return root.count;
+    }
+
+    /**
+     * Adds a shape on top of the others.
+     */
+    public Item add(ShapeCommand shape) {
+        Item item = new Item(shape, nextZ++);
+        insert(item);
+        return item;
+    }
+
+    public void remove(Item item) {
+        Node n = item.node;
+        if (n == null) return;
+        n.items.remove(item);
+        for (; n != null; n = n.parent) n.count--;
+        item.node = null;
+    }
+
+    /**
+     * Moves {@code item} by (dx, dy), keeping its place in the drawing order.
+     */
+    public void move(Item item, int dx, int dy) {
+        if (item.node == null) return;
+        remove(item);
+        item.setShape(item.shape.moved(dx, dy));
+        insert(item);
+    }
+
+    public void clear() {
+        root.items.clear();
+        root.children = null;
+        root.count = 0;
+    }
+
+    private void insert(Item item) {
+        Rectangle b = item.bounds;
+        int cx = b.x + b.width / 2, cy = b.y + b.height / 2;
+        int extent = Math.max(b.width, b.height);
+        Node n = root;
+        while (true) {
+            if (n.children == null) {
+                if (n.items.size() < MAX_ITEMS || n.size / 2 < MIN_CELL) break;
+                split(n);
+            }
+            Node child = childFor(n, cx, cy, extent);
+            if (child == null) break;
+            n = child;
+        }
+        n.items.add(item);
+        item.node = n;
+        for (; n != null; n = n.parent) n.count++;
+    }
+
+    /**
+     * @return the child of {@code n} an item with this center and extent belongs in, or
+     *         null if it has to stay in n
+     */
+    private static Node childFor(Node n, int cx, int cy, int extent) {
+        int half = n.size / 2;
+        if (extent > half || cx < n.x || cy < n.y || cx >= n.x + n.size || cy >= n.y + n.size) return null;
+        int i = (cx >= n.x + half ? 1 : 0) + (cy >= n.y + half ? 2 : 0);
+        return n.children[i];
+    }
+
+    private static void split(Node n) {
+        int half = n.size / 2;
+        n.children = new Node[]{
+                new Node(n, n.x, n.y, half), new Node(n, n.x + half, n.y, half),
+                new Node(n, n.x, n.y + half, half), new Node(n, n.x + half, n.y + half, half)};
+        List<Item> items = new ArrayList<>(n.items);
+        n.items.clear();
+        for (Item item : items) {
+            Rectangle b = item.bounds;
+            Node child = childFor(n, b.x + b.width / 2, b.y + b.height / 2, Math.max(b.width, b.height));
+            Node target = child != null ? child : n;
+            target.items.add(item);
+            item.node = target;
+            if (child != null) child.count++;
+        }
+    }
+
+    /**
+     * @return the items whose bounds intersect {@code area}, bottom first
+     */
+    public List<Item> query(Rectangle area) {
+        List<Item> found = new ArrayList<>();
+        collect(root, area, found);
+        found.sort(Z_ORDER);
+        return found;
+    }
+
+    private static void collect(Node n, Rectangle area, List<Item> found) {
+        if (n.count == 0 || !n.overlaps(area)) return;
+        for (Item item : n.items) {
+            if (item.bounds.intersects(area)) found.add(item);
+        }
+        if (n.children != null) {
+            for (Node child : n.children) collect(child, area, found);
+        }
+    }
+
+    /**
+     * @return the topmost item whose stroke is at (x, y), or null
+     */
+    public Item pick(int x, int y) {
+        List<Item> candidates = query(new Rectangle(x - PICK_SLOP, y - PICK_SLOP, 2 * PICK_SLOP + 1, 2 * PICK_SLOP + 1));
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).shape.hits(x, y)) return candidates.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Draws the items that intersect {@code area}, in order. The graphics should be
+     * clipped to the area.
+     */
+    public void paint(Graphics2D g2, Rectangle area) {
+        for (Item item : query(area)) {
+            item.shape.paint(g2);
+        }
+    }
+
+    /**
+     * @return the shapes of every item, bottom first
+     */
+    public List<ShapeCommand> getShapes() {
+        List<Item> all = new ArrayList<>(root.count);
+        collectAll(root, all);
+        all.sort(Z_ORDER);
+        List<ShapeCommand> shapes = new ArrayList<>(all.size());
+        for (Item item : all) {
+            shapes.add(item.shape);
+        }
+        return shapes;
+    }
+
+    private static void collectAll(Node n, List<Item> all) {
+        all.addAll(n.items);
+        if (n.children != null) {
+            for (Node child : n.children) collectAll(child, all);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package paint;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Draws a list of {@link ShapeCommand}s into a {@link TiledCanvas}, tiles in parallel.
+ * <p>
+ *     Every shape is first binned into the tiles its bounds reach, keeping list order.
+ *     Each tile then draws its shapes in that order, clipping each to its bounds as
+ *     {@link TiledCanvas#draw} would. Tiles share no pixels, so they are drawn on separate
+ *     threads once there are enough of them, and later shapes end up on top in every tile
+ *     however the tiles are scheduled. The result is the one drawing the shapes one after
+ *     the other gives, except that Java2D may place a rare pixel at the clipped edge of a
+ *     wide stroke differently, as it depends on what the thread drew just before.
+ */
+public class ShapeStamper {
+    private static final int SIZE = TiledCanvas.TILE_SIZE;
+    /** Tiles below this are drawn on the calling thread. */
+    private static final int PARALLEL_TILES = 4;
+
+    private final TiledCanvas canvas;
+    private final List<ShapeCommand> shapes;
+    private final int tilesX;
+
+    // Per tile, null if no shape reaches it: the indices of the shapes that do, in list
+    // order, how many there are, and the part of the tile they touch as x0, y0, x1, y1
+    private final int[][] bins;
+    private final int[] binSizes;
+    private final int[][] tileBounds;
+    private final Rectangle bounds;
+
+    /**
+     * Works out which tiles each shape reaches. {@code shapes} must not change until
+     * {@link #apply} has run.
+     */
+    public ShapeStamper(TiledCanvas canvas, List<ShapeCommand> shapes) {
+        this.canvas = canvas;
+        this.shapes = shapes;
+        this.tilesX = canvas.getTilesX();
+        int tileCount = tilesX * canvas.getTilesY();
+        bins = new int[tileCount][];
+        binSizes = new int[tileCount];
+        tileBounds = new int[tileCount][];
+
+        Rectangle area = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        Rectangle union = null;
+        for (int s = 0; s < shapes.size(); s++) {
+            Rectangle b = shapes.get(s).bounds().intersection(area);
+            if (b.isEmpty()) continue;
+            union = union == null ? b : union.union(b);
+            int tx0 = b.x / SIZE, tx1 = (b.x + b.width - 1) / SIZE;
+            int ty0 = b.y / SIZE, ty1 = (b.y + b.height - 1) / SIZE;
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    add(ty * tilesX + tx, s, b);
+                }
+            }
+        }
+        bounds = union != null ? union : new Rectangle();
+    }
+
+    private void add(int tile, int shape, Rectangle b) {
+        int[] bin = bins[tile];
+        int n = binSizes[tile];
+        if (bin == null) {
+            bins[tile] = bin = new int[4];
+            tileBounds[tile] = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        } else if (n == bin.length) {
+            bins[tile] = bin = Arrays.copyOf(bin, n * 2);
+        }
+        bin[n] = shape;
+        binSizes[tile] = n + 1;
+        int[] tb = tileBounds[tile];
+        tb[0] = Math.min(tb[0], b.x);
+        tb[1] = Math.min(tb[1], b.y);
+        tb[2] = Math.max(tb[2], b.x + b.width);
+        tb[3] = Math.max(tb[3], b.y + b.height);
+    }
+
+    /**
+     * @return the bounding box of everything the shapes can touch on the canvas, empty if
+     *         none of them reaches it
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * @return for each tile the shapes reach, the part of it they can touch
+     */
+    public List<Rectangle> getTileAreas() {
+        List<Rectangle> areas = new ArrayList<>();
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] == null) continue;
+            int[] tb = tileBounds[i];
+            areas.add(canvas.tileBounds(i % tilesX, i / tilesX)
+                    .intersection(new Rectangle(tb[0], tb[1], tb[2] - tb[0], tb[3] - tb[1])));
+        }
+        return areas;
+    }
+
+    /**
+     * Draws the shapes. Must be called on the thread that modifies the canvas, before
+     * anything else changes it.
+     */
+    public void apply() {
+        //claiming tiles marks them changed and copies shared ones, which is not thread-safe
+        List<Integer> indices = new ArrayList<>();
+        List<TiledCanvas.Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] == null) continue;
+            indices.add(i);
+            tiles.add(canvas.writableTileAt(i % tilesX, i / tilesX));
+        }
+        IntStream work = IntStream.range(0, tiles.size());
+        if (tiles.size() >= PARALLEL_TILES) work = work.parallel();
+        work.forEach(i -> draw(tiles.get(i), indices.get(i)));
+    }
+
+    private void draw(TiledCanvas.Tile t, int index) {
+        t.materialize();
+        Rectangle r = canvas.tileBounds(index % tilesX, index / tilesX);
+        int[] bin = bins[index];
+        for (int k = 0; k < binSizes[index]; k++) {
+            ShapeCommand shape = shapes.get(bin[k]);
+            //the same graphics TiledCanvas.draw would give the shape
+            Graphics2D g2 = t.image.createGraphics();
+            g2.translate(-r.x, -r.y);
+            g2.clip(r.intersection(shape.bounds()));
+            shape.paint(g2);
+            g2.dispose();
+        }
+    }
+}
@@ -1,3 +1,5 @@
+package paint;
+
 public enum ShapeType {
     RECTANGLE,
     SQUARE,
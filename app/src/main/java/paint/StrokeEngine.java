@@ -0,0 +1,143 @@
+package paint;
+
+import java.awt.geom.Path2D;
+
+/**
+ * Turns the input points of one freehand stroke into paths to draw, a frame at a time.
+ * <p>
+ *     Mouse and tablet events only append to a ring buffer of floats, which neither
+ *     allocates nor draws; input can arrive far faster than the screen refreshes. Once
+ *     per frame {@link #takeBatch} drains everything buffered into a single path that
+ *     starts where the previous batch ended, so a whole frame's worth of points is
+ *     rasterized with one draw call.
+ * <p>
+ *     With smoothing on, points are joined by Catmull-Rom curves, converted to cubic
+ *     Bezier segments, instead of straight lines. A curve segment needs the point after
+ *     its end, so the segment to the newest point waits for the next batch or for
+ *     {@link #finish}. Only used on the event dispatch thread.
+ */
+public class StrokeEngine {
+    private final float[] ring;
+    private final int mask;
+    private long head, tail; // points taken and points added
+
+    private boolean smooth;
+    private boolean active;
+    // The point before the last drawn one, and the last drawn one where the next batch starts
+    private float prevX, prevY, lastX, lastY;
+    private double length;
+
+    /**
+     * @param capacity points buffered between batches; rounded up to a power of two
+     */
+    public StrokeEngine(int capacity) {
+        int points = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new float[points * 2];
+        mask = points - 1;
+    }
+
+    /**
+     * Starts a stroke at (x, y), dropping anything left of the previous one.
+     */
+    public void begin(float x, float y, boolean smooth) {
+        this.smooth = smooth;
+        head = tail = 0;
+        prevX = lastX = x;
+        prevY = lastY = y;
+        length = 0;
+        active = true;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Buffers a point. A point equal to the one before it is ignored.
+     *
+     * @return false if the buffer is full; take a batch and add the point again
+     */
+    public boolean add(float x, float y) {
+        float px, py;
+        if (tail > head) {
+            int i = (int) ((tail - 1) & mask) * 2;
+            px = ring[i];
+            py = ring[i + 1];
+        } else {
+            px = lastX;
+            py = lastY;
+        }
+        if (x == px && y == py) return true;
+        if (tail - head > mask) return false;
+        int i = (int) (tail & mask) * 2;
+        ring[i] = x;
+        ring[i + 1] = y;
+        tail++;
+        return true;
+    }
+
+    /**
+     * @return points added since the last batch
+     */
+    public int pending() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return length of the stroke drawn before the current batch; the dash phase to
+     *         draw the batch returned by the next {@link #takeBatch} with
+     */
+    public float getLength() {
+        return (float) length;
+    }
+
+    /**
+     * Drains the buffered points into a path from the end of the previous batch.
+     *
+     * @return the path, or null if there is nothing new to draw yet
+     */
+    public Path2D.Float takeBatch() {
+        return drain(false);
+    }
+
+    /**
+     * Ends the stroke, returning whatever it still has to draw, or null.
+     */
+    public Path2D.Float finish() {
+        Path2D.Float path = active ? drain(true) : null;
+        active = false;
+        return path;
+    }
+
+    private Path2D.Float drain(boolean last) {
+        // with smoothing the segment to the newest point needs the one after it
+        long end = smooth && !last ? tail - 1 : tail;
+        if (end <= head) return null;
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, (int) (end - head) + 1);
+        path.moveTo(lastX, lastY);
+        while (head < end) {
+            int i = (int) (head & mask) * 2;
+            float x = ring[i], y = ring[i + 1];
+            if (smooth) {
+                // tangent at the end point comes from the point after it, or itself at the end
+                float nextX = x, nextY = y;
+                if (head + 1 < tail) {
+                    int n = (int) ((head + 1) & mask) * 2;
+                    nextX = ring[n];
+                    nextY = ring[n + 1];
+                }
+                path.curveTo(lastX + (x - prevX) / 6, lastY + (y - prevY) / 6,
+                        x - (nextX - lastX) / 6, y - (nextY - lastY) / 6, x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+            length += Math.hypot(x - lastX, y - lastY);
+            prevX = lastX;
+            prevY = lastY;
+            lastX = x;
+            lastY = y;
+            head++;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,160 @@
+package paint;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Streams a shared canvas to one viewer as server-sent events.
+ * <p>
+ *     The first frame is a keyframe holding every tile. After that a frame only holds
+ *     the tiles that changed since the last frame sent to that viewer. Tiles are compared
+ *     by identity between two snapshots: a tile written after a snapshot is always a new
+ *     copy, so an unchanged tile is the very same object. Frames go out at most every
+ *     {@link #FRAME_INTERVAL_MS}; a viewer that reads slowly simply gets the combined
+ *     changes of all versions it missed in its next frame instead of a backlog. The stream
+ *     ends as soon as the canvas is no longer shared or the server stops.
+ */
+public class TileStreamer {
+    static final long FRAME_INTERVAL_MS = 50;
+    static final long HEARTBEAT_MS = 15_000;
+
+    // Encoded PNG (base64) per tile, shared between viewers and dropped with the tile
+    private static final Map<TiledCanvas.Tile, String> encodedTiles =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final CanvasSource source;
+    private final Supplier<CanvasSource> shared;
+
+    /**
+     * @param shared returns what is shared under the name {@code source} was shared
+     *               under, or null once the server stopped
+     */
+    public TileStreamer(CanvasSource source, Supplier<CanvasSource> shared) {
+        this.source = source;
+        this.shared = shared;
+    }
+
+    /**
+     * Sends frames to the client until it disconnects or the canvas stops being shared.
+     */
+    public void stream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            TiledCanvas sent = null;
+            long sentVersion = -1;
+            long lastWrite = System.currentTimeMillis();
+            while (shared.get() == source) {
+                long version = source.getVersion();
+                if (version != sentVersion) {
+                    TiledCanvas current = source.snapshot();
+                    if (current != null) {
+                        String frame = frame(sent, current, version);
+                        if (frame != null) {
+                            os.write(("event: frame\ndata: " + frame + "\n\n").getBytes(StandardCharsets.UTF_8));
+                            os.flush();
+                            lastWrite = System.currentTimeMillis();
+                        }
+                        sent = current;
+                    }
+                    sentVersion = version;
+                } else if (System.currentTimeMillis() - lastWrite > HEARTBEAT_MS) {
+                    // lets us notice viewers that went away while nothing changed
+                    os.write(": ping\n\n".getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                    lastWrite = System.currentTimeMillis();
+                }
+                try {
+                    Thread.sleep(FRAME_INTERVAL_MS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } catch (IOException disconnected) {
+            // viewer closed the connection
+        }
+    }
+
+    /**
+     * Builds the JSON for the tiles of {@code current} that differ from {@code previous}.
+     * A null or differently sized previous snapshot produces a keyframe.
+     *
+     * @return the frame, or null if nothing changed
+     */
+    static String frame(TiledCanvas previous, TiledCanvas current, long version) throws IOException {
+        boolean keyframe = previous == null
+                || previous.getWidth() != current.getWidth()
+                || previous.getHeight() != current.getHeight();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"version\":").append(version)
+                .append(",\"keyframe\":").append(keyframe)
+                .append(",\"width\":").append(current.getWidth())
+                .append(",\"height\":").append(current.getHeight())
+                .append(",\"tiles\":[");
+        int count = 0;
+        for (int ty = 0; ty < current.getTilesY(); ty++) {
+            for (int tx = 0; tx < current.getTilesX(); tx++) {
+                TiledCanvas.Tile tile = current.tileAt(tx, ty);
+                if (!keyframe && previous.tileAt(tx, ty) == tile) continue;
+                Rectangle r = current.tileBounds(tx, ty);
+                if (count++ > 0) sb.append(',');
+                sb.append("{\"x\":").append(r.x).append(",\"y\":").append(r.y)
+                        .append(",\"w\":").append(r.width).append(",\"h\":").append(r.height);
+                if (tile.isUniform()) {
+                    int c = tile.color;
+                    sb.append(",\"color\":\"").append(String.format("#%06X%02X", c & 0xFFFFFF, c >>> 24)).append('"');
+                } else {
+                    sb.append(",\"png\":\"").append(encodeTile(current, tile, r)).append('"');
+                }
+                sb.append('}');
+            }
+        }
+        sb.append("]}");
+        return count == 0 && !keyframe ? null : sb.toString();
+    }
+
+    private static String encodeTile(TiledCanvas canvas, TiledCanvas.Tile tile, Rectangle r) throws IOException {
+        String cached = encodedTiles.get(tile);
+        if (cached != null) return cached;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PngEncoder.write(canvas, r, baos, ForkJoinPool.commonPool());
+        String encoded = Base64.getEncoder().encodeToString(baos.toByteArray());
+        encodedTiles.put(tile, encoded);
+        return encoded;
+    }
+
+    /**
+     * @return a minimal HTML page that applies the stream of the canvas it is served next to
+     */
+    static String viewerPage(String name) {
+        return "<html><head><title>" + name + " (live)</title></head><body style=\"margin:0\">"
+                + "<canvas id=\"c\"></canvas><script>\n"
+                + "const c = document.getElementById('c'), g = c.getContext('2d');\n"
+                + "const seq = {}; let n = 0;\n"
+                + "new EventSource('stream').addEventListener('frame', e => {\n"
+                + "  const f = JSON.parse(e.data);\n"
+                + "  if (f.keyframe) { c.width = f.width; c.height = f.height; }\n"
+                + "  for (const t of f.tiles) {\n"
+                + "    const key = t.x + ',' + t.y, mine = ++n; seq[key] = mine;\n"
+                + "    if (t.color) { g.clearRect(t.x, t.y, t.w, t.h); g.fillStyle = t.color; g.fillRect(t.x, t.y, t.w, t.h); continue; }\n"
+                + "    const img = new Image();\n"
+                + "    img.onload = () => { if (seq[key] === mine) { g.clearRect(t.x, t.y, t.w, t.h); g.drawImage(img, t.x, t.y); } };\n"
+                + "    img.src = 'data:image/png;base64,' + t.png;\n"
+                + "  }\n"
+                + "});\n"
+                + "</script></body></html>";
+    }
+}
@@ -0,0 +1,756 @@
+package paint;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * ARGB canvas stored as a grid of fixed-size tiles.
+ * <p>
+ *     A tile whose pixels are all the same color only stores that color; its pixel
+ *     buffer is allocated the first time something draws into it. Clearing, resizing
+ *     and loading therefore only pay for tiles that actually hold content, which is
+ *     what lets very large mostly-blank canvases fit in memory.
+ * <p>
+ *     {@link #snapshot()} returns a read-only view that shares tiles with this canvas.
+ *     Shared tiles are never written again: the canvas copies a shared tile the first
+ *     time it draws into it after a snapshot, so a snapshot stays a coherent frame for
+ *     as long as a reader holds it, on any thread.
+ * <p>
+ *     A tile can also be backed by a {@link TileSource}, such as a memory-mapped working
+ *     file; it then loads its pixels the first time anything reads them.
+ * <p>
+ *     Pixels of an edge tile that fall outside the canvas bounds are undefined and are
+ *     never painted or read back.
+ */
+public class TiledCanvas {
+    public static final int TILE_SIZE = 256;
+
+    private int width, height;
+    private int tilesX, tilesY;
+    private Tile[] tiles;
+    private final boolean readOnly;
+    // Tiles written since the last takeChangedTiles(), by index ty * tilesX + tx
+    private final BitSet changed = new BitSet();
+
+    /**
+     * Where a tile's pixels come from until they are loaded.
+     */
+    interface TileSource {
+        /**
+         * Sets the color or pixels of a tile that has not been read yet.
+         */
+        void load(Tile tile);
+    }
+
+    /**
+     * One tile of the grid. {@code pixels} is null while the tile is a single color.
+     * A shared tile is referenced by a snapshot and must not be modified.
+     */
+    static final class Tile {
+        BufferedImage image;
+        int[] pixels;
+        int color;
+        boolean shared;
+        // Set until the pixels have been read from it; loading is safe from any thread
+        volatile TileSource pending;
+        // The stored copy this tile's content still matches, cleared when the tile is written
+        volatile TileSource origin;
+
+        Tile(int color) {
+            this.color = color;
+        }
+
+        Tile copy() {
+            load();
+            Tile t = new Tile(color);
+            if (pixels != null) {
+                t.materialize();
+                System.arraycopy(pixels, 0, t.pixels, 0, pixels.length);
+            }
+            return t;
+        }
+
+        boolean isUniform() {
+            load();
+            return pixels == null;
+        }
+
+        void materialize() {
+            load();
+            allocate();
+        }
+
+        /**
+         * Gives the tile a pixel buffer filled with its color, without loading it first.
+         */
+        void allocate() {
+            if (pixels != null) return;
+            image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(pixels, color);
+        }
+
+        void fill(int argb) {
+            pending = null;
+            origin = null;
+            image = null;
+            pixels = null;
+            color = argb;
+        }
+
+        void load() {
+            if (pending == null) return;
+            synchronized (this) {
+                TileSource source = pending;
+                if (source == null) return;
+                source.load(this);
+                pending = null;
+            }
+        }
+    }
+
+    public TiledCanvas(int width, int height, int background) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Canvas size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.tilesX = tilesFor(width);
+        this.tilesY = tilesFor(height);
+        this.tiles = new Tile[tilesX * tilesY];
+        this.readOnly = false;
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(background);
+        }
+    }
+
+    private TiledCanvas(TiledCanvas source, boolean readOnly) {
+        this(source.width, source.height, source.tiles.clone(), readOnly);
+    }
+
+    private TiledCanvas(int width, int height, Tile[] tiles, boolean readOnly) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = tilesFor(width);
+        this.tilesY = tilesFor(height);
+        this.tiles = tiles;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns a read-only, point-in-time view of this canvas. Costs one array copy of
+     * the tile grid; pixels are only copied later, one tile at a time, if this canvas
+     * draws over a tile the snapshot still shares. Must be called from the thread that
+     * modifies the canvas; the snapshot itself can be read from any thread.
+     */
+    public TiledCanvas snapshot() {
+        if (readOnly) return this;
+        for (Tile t : tiles) {
+            t.shared = true;
+        }
+        return new TiledCanvas(this, true);
+    }
+
+    /**
+     * Returns a writable copy of this canvas for the same cost as {@link #snapshot()}:
+     * both sides share every tile and copy one only when they draw over it.
+     */
+    public TiledCanvas copy() {
+        for (Tile t : tiles) {
+            t.shared = true;
+        }
+        return new TiledCanvas(this, false);
+    }
+
+    /**
+     * Returns a read-only view of only the tiles covering the given area, shared the same
+     * way as {@link #snapshot()}. The view starts at the top-left corner of the tile
+     * holding (x, y), so the area lies at ({@code x % TILE_SIZE}, {@code y % TILE_SIZE})
+     * in it. Costs one reference per tile, and later edits of this canvas only copy the
+     * tiles the view holds. The area must lie inside the canvas.
+     */
+    public TiledCanvas snapshotRegion(int x, int y, int w, int h) {
+        int tx0 = x / TILE_SIZE, tx1 = (x + w - 1) / TILE_SIZE;
+        int ty0 = y / TILE_SIZE, ty1 = (y + h - 1) / TILE_SIZE;
+        int across = tx1 - tx0 + 1;
+        Tile[] view = new Tile[across * (ty1 - ty0 + 1)];
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = tileAt(tx, ty);
+                if (!readOnly) t.shared = true;
+                view[(ty - ty0) * across + tx - tx0] = t;
+            }
+        }
+        int viewW = Math.min(width, (tx1 + 1) * TILE_SIZE) - tx0 * TILE_SIZE;
+        int viewH = Math.min(height, (ty1 + 1) * TILE_SIZE) - ty0 * TILE_SIZE;
+        return new TiledCanvas(viewW, viewH, view, true);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Canvas snapshots are read-only");
+        }
+    }
+
+    /**
+     * @return the tile at (tx, ty), first replacing it with a private copy if a snapshot shares it
+     */
+    private Tile writableTile(int tx, int ty) {
+        int i = ty * tilesX + tx;
+        Tile t = tiles[i];
+        if (t.shared) {
+            t = t.copy();
+            tiles[i] = t;
+        }
+        t.origin = null;
+        changed.set(i);
+        return t;
+    }
+
+    /**
+     * For code that writes tile pixels itself, like {@link FloodFill}: the tile at
+     * (tx, ty), copied first if a snapshot shares it and counted as changed.
+     */
+    Tile writableTileAt(int tx, int ty) {
+        checkWritable();
+        return writableTile(tx, ty);
+    }
+
+    /**
+     * Puts the tile with the given index ({@code ty * tilesX + tx}) of {@code from}, a
+     * canvas of the same size, in place of this canvas's tile, without loading it. Both
+     * then share it.
+     */
+    void takeTile(int index, TiledCanvas from) {
+        checkWritable();
+        Tile t = from.tiles[index];
+        t.shared = true;
+        tiles[index] = t;
+        changed.set(index);
+    }
+
+    /**
+     * Makes tile (tx, ty) a single color, dropping its pixels without copying them.
+     */
+    void fillTile(int tx, int ty, int argb) {
+        checkWritable();
+        int i = ty * tilesX + tx;
+        tiles[i] = new Tile(argb);
+        changed.set(i);
+    }
+
+    /**
+     * Creates a canvas holding a copy of the given image. Single-color tiles are not allocated.
+     */
+    public static TiledCanvas fromImage(BufferedImage img) {
+        TiledCanvas canvas = new TiledCanvas(img.getWidth(), img.getHeight(), 0);
+        canvas.loadImage(img);
+        return canvas;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /**
+     * Returns the indices ({@code ty * tilesX + tx}) of the tiles written since the last
+     * call and forgets them, so a cache derived from the pixels, such as a
+     * {@link MipmapPyramid}, can update only those. After a resize, rotation or flip every
+     * tile counts as written. Meant for a single consumer on the thread that modifies
+     * the canvas.
+     */
+    public BitSet takeChangedTiles() {
+        BitSet result = (BitSet) changed.clone();
+        changed.clear();
+        return result;
+    }
+
+    /**
+     * @return how many tiles currently have a pixel buffer allocated
+     */
+    public int getAllocatedTileCount() {
+        int n = 0;
+        for (Tile t : tiles) {
+            if (!t.isUniform()) n++;
+        }
+        return n;
+    }
+
+    Tile tileAt(int tx, int ty) {
+        return tiles[ty * tilesX + tx];
+    }
+
+    /**
+     * @return the part of tile (tx, ty) that lies inside the canvas, in canvas coordinates
+     */
+    public Rectangle tileBounds(int tx, int ty) {
+        int x = tx * TILE_SIZE;
+        int y = ty * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+    }
+
+    public int getRGB(int x, int y) {
+        Tile t = tiles[(y / TILE_SIZE) * tilesX + x / TILE_SIZE];
+        if (t.isUniform()) return t.color;
+        return t.pixels[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+    }
+
+    /**
+     * Runs the painter once for every tile that intersects {@code bounds}, with the
+     * graphics translated so the painter can draw in canvas coordinates. The painter
+     * must draw the same thing every time it is called.
+     *
+     * @param bounds area the painter may touch, or null for the whole canvas
+     */
+    public void draw(Rectangle bounds, Consumer<Graphics2D> painter) {
+        checkWritable();
+        Rectangle area = new Rectangle(0, 0, width, height);
+        if (bounds != null) {
+            area = area.intersection(bounds);
+        }
+        if (area.isEmpty()) return;
+
+        int tx0 = area.x / TILE_SIZE, tx1 = (area.x + area.width - 1) / TILE_SIZE;
+        int ty0 = area.y / TILE_SIZE, ty1 = (area.y + area.height - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = writableTile(tx, ty);
+                t.materialize();
+                Rectangle r = tileBounds(tx, ty);
+                Graphics2D g2 = t.image.createGraphics();
+                g2.translate(-r.x, -r.y);
+                g2.clip(r.intersection(area));
+                painter.accept(g2);
+                g2.dispose();
+            }
+        }
+    }
+
+    /**
+     * Starts a run of draws that keep one Graphics2D per tile until the session is closed,
+     * instead of creating and disposing one per tile on every {@link #draw}. {@code setup}
+     * runs once on each new graphics, e.g. to set the color and stroke of a freehand stroke.
+     */
+    public DrawSession openSession(Consumer<Graphics2D> setup) {
+        checkWritable();
+        return new DrawSession(setup);
+    }
+
+    /**
+     * See {@link #openSession}. Only valid while the canvas keeps its size.
+     */
+    public final class DrawSession implements AutoCloseable {
+        private final Consumer<Graphics2D> setup;
+        // Graphics per tile, together with the image it was made for: a tile that was
+        // cleared and drawn into again has a new image
+        private final Map<Tile, Graphics2D> graphics = new IdentityHashMap<>();
+        private final Map<Tile, BufferedImage> targets = new IdentityHashMap<>();
+
+        private DrawSession(Consumer<Graphics2D> setup) {
+            this.setup = setup;
+        }
+
+        /**
+         * Same as {@link TiledCanvas#draw}, with the painter getting the session's graphics.
+         */
+        public void draw(Rectangle bounds, Consumer<Graphics2D> painter) {
+            Rectangle area = new Rectangle(0, 0, width, height).intersection(bounds);
+            if (area.isEmpty()) return;
+            int tx0 = area.x / TILE_SIZE, tx1 = (area.x + area.width - 1) / TILE_SIZE;
+            int ty0 = area.y / TILE_SIZE, ty1 = (area.y + area.height - 1) / TILE_SIZE;
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    Tile t = writableTile(tx, ty);
+                    t.materialize();
+                    Rectangle r = tileBounds(tx, ty);
+                    Graphics2D g2 = graphics.get(t);
+                    if (g2 == null || targets.get(t) != t.image) {
+                        if (g2 != null) g2.dispose();
+                        g2 = t.image.createGraphics();
+                        g2.translate(-r.x, -r.y);
+                        setup.accept(g2);
+                        graphics.put(t, g2);
+                        targets.put(t, t.image);
+                    }
+                    g2.setClip(r.intersection(area));
+                    painter.accept(g2);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            for (Graphics2D g2 : graphics.values()) {
+                g2.dispose();
+            }
+            graphics.clear();
+            targets.clear();
+        }
+    }
+
+    /**
+     * Sets every pixel to one color. Costs one write per tile.
+     */
+    public void fill(int argb) {
+        checkWritable();
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(argb);
+        }
+        changed.set(0, tiles.length);
+    }
+
+    /**
+     * Changes the canvas size, keeping the existing pixels at the top-left and filling
+     * new area with {@code background}. Tiles that stay inside the canvas are reused as is.
+     */
+    public void resize(int newW, int newH, int background) {
+        if (newW <= 0 || newH <= 0) {
+            throw new IllegalArgumentException("Canvas size must be positive: " + newW + "x" + newH);
+        }
+        checkWritable();
+        int newTilesX = tilesFor(newW);
+        int newTilesY = tilesFor(newH);
+        Tile[] newTiles = new Tile[newTilesX * newTilesY];
+        for (int ty = 0; ty < newTilesY; ty++) {
+            for (int tx = 0; tx < newTilesX; tx++) {
+                Tile t;
+                if (tx < tilesX && ty < tilesY) {
+                    t = tileAt(tx, ty);
+                    // clear the part of a reused edge tile that was outside the old canvas
+                    int oldW = Math.min(TILE_SIZE, width - tx * TILE_SIZE);
+                    int oldH = Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+                    int keepW = Math.min(oldW, newW - tx * TILE_SIZE);
+                    int keepH = Math.min(oldH, newH - ty * TILE_SIZE);
+                    if (keepW < Math.min(TILE_SIZE, newW - tx * TILE_SIZE)
+                            || keepH < Math.min(TILE_SIZE, newH - ty * TILE_SIZE)) {
+                        if (t.shared && !(t.isUniform() && t.color == background)) {
+                            t = t.copy();
+                        }
+                        clearOutside(t, keepW, keepH, background);
+                    }
+                } else {
+                    t = new Tile(background);
+                }
+                newTiles[ty * newTilesX + tx] = t;
+            }
+        }
+        width = newW;
+        height = newH;
+        tilesX = newTilesX;
+        tilesY = newTilesY;
+        tiles = newTiles;
+        changed.set(0, tiles.length);
+    }
+
+    private static void clearOutside(Tile t, int keepW, int keepH, int background) {
+        if (t.isUniform() && t.color == background) return;
+        t.materialize();
+        t.origin = null;
+        int[] px = t.pixels;
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int row = y * TILE_SIZE;
+            if (y >= keepH) {
+                Arrays.fill(px, row, row + TILE_SIZE, background);
+            } else if (keepW < TILE_SIZE) {
+                Arrays.fill(px, row + keepW, row + TILE_SIZE, background);
+            }
+        }
+    }
+
+    /**
+     * Replaces the content and size of this canvas with a copy of the given image.
+     */
+    public void setImage(BufferedImage img) {
+        checkWritable();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        width = w;
+        height = h;
+        tilesX = tilesFor(w);
+        tilesY = tilesFor(h);
+        tiles = new Tile[tilesX * tilesY];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(0);
+        }
+        changed.set(0, tiles.length);
+        loadImage(img);
+    }
+
+    private void loadImage(BufferedImage img) {
+        int[] row = new int[TILE_SIZE * TILE_SIZE];
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                Rectangle r = tileBounds(tx, ty);
+                img.getRGB(r.x, r.y, r.width, r.height, row, 0, r.width);
+                writeTile(tileAt(tx, ty), row, r.width, r.height);
+            }
+        }
+    }
+
+    /**
+     * Stores one row of tiles from {@code src}, which holds canvas rows starting at
+     * {@code y} with a row stride of the canvas width. {@code y} must be a multiple of
+     * {@link #TILE_SIZE} and src must cover that tile row down to the next one or the
+     * bottom edge. Like {@link #fromImage}, single-color tiles are not allocated.
+     */
+    public void loadTileRow(int y, int[] src) {
+        checkWritable();
+        int ty = y / TILE_SIZE;
+        int rows = Math.min(TILE_SIZE, height - y);
+        int[] buf = new int[TILE_SIZE * TILE_SIZE];
+        for (int tx = 0; tx < tilesX; tx++) {
+            int x = tx * TILE_SIZE;
+            int w = Math.min(TILE_SIZE, width - x);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(src, r * width + x, buf, r * w, w);
+            }
+            writeTile(writableTile(tx, ty), buf, w, rows);
+        }
+    }
+
+    /**
+     * Stores {@code w x h} pixels (row stride {@code w}) into the top-left of a tile,
+     * keeping the tile unallocated if they are all the same color.
+     */
+    private static void writeTile(Tile t, int[] src, int w, int h) {
+        int n = w * h;
+        int first = src[0];
+        boolean uniform = true;
+        for (int i = 1; i < n; i++) {
+            if (src[i] != first) {
+                uniform = false;
+                break;
+            }
+        }
+        if (uniform) {
+            t.fill(first);
+            return;
+        }
+        t.fill(0);
+        t.materialize();
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(src, y * w, t.pixels, y * TILE_SIZE, w);
+        }
+    }
+
+    /**
+     * Copies a region of the canvas into {@code dst} with row stride {@code w}.
+     * The region must lie inside the canvas.
+     */
+    public void readPixels(int x, int y, int w, int h, int[] dst) {
+        int tx0 = x / TILE_SIZE, tx1 = (x + w - 1) / TILE_SIZE;
+        int ty0 = y / TILE_SIZE, ty1 = (y + h - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = tileAt(tx, ty);
+                int cx0 = Math.max(x, tx * TILE_SIZE), cx1 = Math.min(x + w, (tx + 1) * TILE_SIZE);
+                int cy0 = Math.max(y, ty * TILE_SIZE), cy1 = Math.min(y + h, (ty + 1) * TILE_SIZE);
+                int dstOff = (cy0 - y) * w + (cx0 - x);
+                if (t.isUniform()) {
+                    RasterOps.fill(dst, dstOff, w, cx1 - cx0, cy1 - cy0, t.color);
+                } else {
+                    int srcOff = (cy0 - ty * TILE_SIZE) * TILE_SIZE + (cx0 - tx * TILE_SIZE);
+                    RasterOps.copy(t.pixels, srcOff, TILE_SIZE, dst, dstOff, w, cx1 - cx0, cy1 - cy0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes {@code w x h} pixels (row stride {@code w}) into the canvas at (x, y).
+     * The region must lie inside the canvas.
+     */
+    public void writePixels(int x, int y, int w, int h, int[] src) {
+        checkWritable();
+        int tx0 = x / TILE_SIZE, tx1 = (x + w - 1) / TILE_SIZE;
+        int ty0 = y / TILE_SIZE, ty1 = (y + h - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = writableTile(tx, ty);
+                t.materialize();
+                int cx0 = Math.max(x, tx * TILE_SIZE), cx1 = Math.min(x + w, (tx + 1) * TILE_SIZE);
+                int cy0 = Math.max(y, ty * TILE_SIZE), cy1 = Math.min(y + h, (ty + 1) * TILE_SIZE);
+                int dstOff = (cy0 - ty * TILE_SIZE) * TILE_SIZE + (cx0 - tx * TILE_SIZE);
+                RasterOps.copy(src, (cy0 - y) * w + (cx0 - x), w, t.pixels, dstOff, TILE_SIZE, cx1 - cx0, cy1 - cy0);
+            }
+        }
+    }
+
+    /**
+     * @return a new TYPE_INT_ARGB image holding a copy of the given region
+     */
+    public BufferedImage copyRegion(int x, int y, int w, int h) {
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+        readPixels(x, y, w, h, dst);
+        return out;
+    }
+
+    /**
+     * @return a flattened TYPE_INT_ARGB copy of the whole canvas
+     */
+    public BufferedImage toImage() {
+        return copyRegion(0, 0, width, height);
+    }
+
+    /**
+     * Paints the tiles that intersect {@code clip} at (0, 0) of the given graphics.
+     */
+    public void paint(Graphics g, Rectangle clip) {
+        Rectangle area = new Rectangle(0, 0, width, height);
+        if (clip != null) {
+            area = area.intersection(clip);
+        }
+        if (area.isEmpty()) return;
+
+        int tx0 = area.x / TILE_SIZE, tx1 = (area.x + area.width - 1) / TILE_SIZE;
+        int ty0 = area.y / TILE_SIZE, ty1 = (area.y + area.height - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = tileAt(tx, ty);
+                Rectangle r = tileBounds(tx, ty);
+                if (t.isUniform()) {
+                    g.setColor(new Color(t.color, true));
+                    g.fillRect(r.x, r.y, r.width, r.height);
+                } else {
+                    g.drawImage(t.image, r.x, r.y, r.x + r.width, r.y + r.height,
+                            0, 0, r.width, r.height, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates the whole canvas clockwise by 90, 180 or 270 degrees.
+     */
+    public void rotate(int degrees) {
+        checkWritable();
+        int deg = ((degrees % 360) + 360) % 360;
+        int w = width, h = height;
+        BlockOp op = (src, sw, sh, dst) -> RasterOps.rotate(src, 0, sw, sw, sh, deg, dst, 0, TILE_SIZE);
+        switch (deg) {
+            case 0:
+                return;
+            case 90:
+                // dest(dx, dy) = src(dy, h - 1 - dx)
+                remap(h, w, 0, 1, 0, -1, 0, h - 1, op);
+                break;
+            case 180:
+                remap(w, h, -1, 0, w - 1, 0, -1, h - 1, op);
+                break;
+            case 270:
+                // dest(dx, dy) = src(w - 1 - dy, dx)
+                remap(h, w, 0, -1, w - 1, 1, 0, 0, op);
+                break;
+            default:
+                throw new IllegalArgumentException("Only quarter turns are supported: " + degrees);
+        }
+    }
+
+    /**
+     * Mirrors the whole canvas.
+     * @param horizontal true => left <-> right, false => top <-> bottom
+     */
+    public void flip(boolean horizontal) {
+        checkWritable();
+        BlockOp op = (src, sw, sh, dst) -> RasterOps.flip(src, 0, sw, sw, sh, horizontal, dst, 0, TILE_SIZE);
+        if (horizontal) {
+            remap(width, height, -1, 0, width - 1, 0, 1, 0, op);
+        } else {
+            remap(width, height, 1, 0, 0, 0, -1, height - 1, op);
+        }
+    }
+
+    /**
+     * Transforms the {@code sw x sh} pixels of {@code src} into the top-left of a tile's pixels.
+     */
+    private interface BlockOp {
+        void apply(int[] src, int sw, int sh, int[] dst);
+    }
+
+    /**
+     * Rebuilds the canvas as {@code newW x newH} where every destination pixel (dx, dy)
+     * takes the source pixel (ax*dx + bx*dy + cx, ay*dx + by*dy + cy). The source pixels
+     * of each destination tile form a rectangle, which {@code op} turns into the tile
+     * with the same transform. Rows of tiles are built in parallel.
+     */
+    private void remap(int newW, int newH, int ax, int bx, int cx, int ay, int by, int cy, BlockOp op) {
+        int newTilesX = tilesFor(newW);
+        int newTilesY = tilesFor(newH);
+        Tile[] newTiles = new Tile[newTilesX * newTilesY];
+
+        IntStream.range(0, newTilesY).parallel().forEach(ty -> {
+            int[] src = new int[TILE_SIZE * TILE_SIZE];
+            for (int tx = 0; tx < newTilesX; tx++) {
+                int dx0 = tx * TILE_SIZE, dy0 = ty * TILE_SIZE;
+                int dx1 = dx0 + Math.min(TILE_SIZE, newW - dx0) - 1, dy1 = dy0 + Math.min(TILE_SIZE, newH - dy0) - 1;
+                // source rectangle covered by this destination tile
+                int sxa = ax * dx0 + bx * dy0 + cx, sxb = ax * dx1 + bx * dy1 + cx;
+                int sya = ay * dx0 + by * dy0 + cy, syb = ay * dx1 + by * dy1 + cy;
+                int sx = Math.min(sxa, sxb), sy = Math.min(sya, syb);
+                int sw = Math.abs(sxb - sxa) + 1, sh = Math.abs(syb - sya) + 1;
+
+                Tile t = new Tile(0);
+                Integer uniform = uniformColor(sx, sy, sw, sh);
+                if (uniform != null) {
+                    t.fill(uniform);
+                } else {
+                    readPixels(sx, sy, sw, sh, src);
+                    t.allocate();
+                    op.apply(src, sw, sh, t.pixels);
+                }
+                newTiles[ty * newTilesX + tx] = t;
+            }
+        });
+        width = newW;
+        height = newH;
+        tilesX = newTilesX;
+        tilesY = newTilesY;
+        tiles = newTiles;
+        changed.set(0, tiles.length);
+    }
+
+    /**
+     * @return the color of the region if every tile it overlaps is uniform with the same color, else null
+     */
+    private Integer uniformColor(int x, int y, int w, int h) {
+        int tx0 = x / TILE_SIZE, tx1 = (x + w - 1) / TILE_SIZE;
+        int ty0 = y / TILE_SIZE, ty1 = (y + h - 1) / TILE_SIZE;
+        Tile first = tileAt(tx0, ty0);
+        if (!first.isUniform()) return null;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Tile t = tileAt(tx, ty);
+                if (!t.isUniform() || t.color != first.color) return null;
+            }
+        }
+        return first.color;
+    }
+
+    private static int tilesFor(int pixels) {
+        return (pixels + TILE_SIZE - 1) / TILE_SIZE;
+    }
+}
@@ -0,0 +1,179 @@
+package paint;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable drawing settings: color, brush size, dashes, shape, text and fill tolerance.
+ * <p>
+ *     Changing a setting returns a new instance with a higher version, so code that
+ *     captured an instance (a stroke in progress, a journal record) keeps what it was
+ *     drawn with. The stroke and the font are built once per instance and carried over
+ *     to derived instances until the brush size, dashing or text size changes, so the
+ *     drawing paths never allocate them.
+ */
+public final class ToolOptions {
+    private static final AtomicLong versions = new AtomicLong();
+
+    private final long version;
+    private final Color color;
+    private final int size;
+    private final boolean dashed;
+    private final boolean smoothing;
+    private final ShapeType shapeType;
+    private final int polygonSides;
+    //Text
+    private final String text;
+    private final int textSize;
+    private final int fillTolerance;
+
+    // Built on first use. Volatile because shapes are stamped and batch files drawn from
+    // several threads: a plain field could hand another thread the reference before the
+    // object behind it, while two threads building the same value at once is harmless
+    private volatile Stroke stroke;
+    private volatile float[] dashes;
+    private volatile Font font;
+
+    public ToolOptions() {
+        this(Color.BLACK, 3, false, false, ShapeType.RECTANGLE, 3, "Hello", 24, 32, null, null, null);
+    }
+
+    private ToolOptions(Color color, int size, boolean dashed, boolean smoothing, ShapeType shapeType,
+                        int polygonSides, String text, int textSize, int fillTolerance,
+                        Stroke stroke, float[] dashes, Font font) {
+        this.version = versions.incrementAndGet();
+        this.color = color;
+        this.size = size;
+        this.dashed = dashed;
+        this.smoothing = smoothing;
+        this.shapeType = shapeType;
+        this.polygonSides = polygonSides;
+        this.text = text;
+        this.textSize = textSize;
+        this.fillTolerance = fillTolerance;
+        this.stroke = stroke;
+        this.dashes = dashes;
+        this.font = font;
+    }
+
+    /**
+     * @return a number that is different for every instance and grows with each change
+     */
+    public long getVersion() {return version; }
+
+    public Color getColor() {return color; }
+    public ToolOptions withColor(Color color) {
+        if (color.equals(this.color)) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, stroke, dashes, font);
+    }
+
+    public int getSize() {return size;}
+    public ToolOptions withSize(int size) {
+        if (size == this.size) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, null, null, font);
+    }
+
+    public boolean isDashed() {return dashed; }
+    public ToolOptions withDashed(boolean dashed) {
+        if (dashed == this.dashed) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, null, null, font);
+    }
+
+    public boolean isSmoothing() {return smoothing; }
+    public ToolOptions withSmoothing(boolean smoothing) {
+        if (smoothing == this.smoothing) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, stroke, dashes, font);
+    }
+
+    public ShapeType getShapeType() {return shapeType;}
+    public ToolOptions withShapeType(ShapeType shapeType) {
+        if (shapeType == this.shapeType) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, stroke, dashes, font);
+    }
+
+    public int getPolygonSides() { return polygonSides; }
+    public ToolOptions withPolygonSides(int sides) {
+        sides = Math.max(3, sides);
+        if (sides == polygonSides) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, sides, text, textSize, fillTolerance, stroke, dashes, font);
+    }
+
+    public String getText() { return text; }
+    public ToolOptions withText(String text) {
+        if (text.equals(this.text)) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, stroke, dashes, font);
+    }
+
+    public int getTextSize() { return textSize; }
+    public ToolOptions withTextSize(int textSize) {
+        if (textSize == this.textSize) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, fillTolerance, stroke, dashes, null);
+    }
+
+    /**
+     * @return how far, 0 to 255, each channel of a pixel may be from the clicked one for
+     *         the fill tool to fill it
+     */
+    public int getFillTolerance() { return fillTolerance; }
+    public ToolOptions withFillTolerance(int tolerance) {
+        tolerance = Math.max(0, Math.min(255, tolerance));
+        if (tolerance == fillTolerance) return this;
+        return new ToolOptions(color, size, dashed, smoothing, shapeType, polygonSides, text, textSize, tolerance, stroke, dashes, font);
+    }
+
+    /**
+     * How far the current stroke can reach past the geometry it outlines, including
+     * miter joins on dashed strokes and a pixel of antialiasing.
+     */
+    public int getStrokePadding() {
+        return (dashed ? size * 5 : (size + 1) / 2) + 2;
+    }
+
+    public Stroke getStroke() {
+        Stroke s = stroke;
+        if (s == null) {
+            s = dashed ? dashedStroke(0) : new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            stroke = s;
+        }
+        return s;
+    }
+
+    /**
+     * @param dashPhase how far into the dash pattern the stroke starts, so a stroke drawn
+     *                  in pieces keeps its dashes where they would be if drawn at once
+     */
+    public Stroke getStroke(float dashPhase) {
+        if (!dashed) return getStroke();
+        float phase = dashPhase % (2 * size * 2.5f);
+        return phase == 0 ? getStroke() : dashedStroke(phase);
+    }
+
+    private Stroke dashedStroke(float phase) {
+        float[] d = dashes;
+        if (d == null) {
+            float dashLength = size * 2.5f;
+            d = new float[]{dashLength, dashLength};
+            dashes = d;
+        }
+        return new BasicStroke(
+                size,
+                BasicStroke.CAP_BUTT,
+                BasicStroke.JOIN_MITER,
+                10,
+                d,
+                phase
+        );
+    }
+
+    /**
+     * @return the font text is drawn with
+     */
+    public Font getFont() {
+        Font f = font;
+        if (f == null) {
+            f = new Font("SansSerif", Font.PLAIN, textSize);
+            font = f;
+        }
+        return f;
+    }
+}
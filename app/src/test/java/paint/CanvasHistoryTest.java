@@ -0,0 +1,80 @@
+package paint;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class CanvasHistoryTest {
+    private static final int W = 600, H = 500;
+
+    @Test
+    void randomUndoRedoMatchesReplayedEdits() {
+        Random rnd = new Random(11);
+        RenderEngine engine = new RenderEngine(new TiledCanvas(W, H, 0xffffffff));
+        // every edit made, of which the first `applied` are what the canvas should show
+        List<Consumer<RenderEngine>> edits = new ArrayList<>();
+        int applied = 0;
+        for (int step = 0; step < 150; step++) {
+            int action = rnd.nextInt(10);
+            if (action < 3 && applied > 0) {
+                engine.undo();
+                applied--;
+            } else if (action < 5 && applied < edits.size()) {
+                engine.redo();
+                applied++;
+            } else {
+                Consumer<RenderEngine> edit = randomEdit(rnd);
+                edit.accept(engine);
+                edits.subList(applied, edits.size()).clear();
+                edits.add(edit);
+                applied++;
+            }
+            assertArrayEquals(replay(edits.subList(0, applied)), pixels(engine.getComposite()), "step " + step);
+        }
+    }
+
+    private static Consumer<RenderEngine> randomEdit(Random rnd) {
+        int x1 = rnd.nextInt(W), y1 = rnd.nextInt(H), x2 = rnd.nextInt(W), y2 = rnd.nextInt(H);
+        Color color = new Color(rnd.nextInt(), rnd.nextBoolean());
+        int size = 1 + rnd.nextInt(30);
+        switch (rnd.nextInt(3)) {
+            case 0:
+                return e -> e.floodFill(x1, y1, color, size);
+            case 1:
+                return edit(e -> e.drawShape(x1, y1, x2, y2, new ToolOptions().withColor(color).withSize(size)));
+            default:
+                return edit(e -> e.drawSegment(x1, y1, x2, y2, color, new ToolOptions().withSize(size)));
+        }
+    }
+
+    private static Consumer<RenderEngine> edit(Consumer<RenderEngine> draw) {
+        return e -> {
+            e.beginEdit();
+            draw.accept(e);
+            e.commitEdit();
+        };
+    }
+
+    /**
+     * @return the pixels of a fresh canvas after {@code edits}, with no history involved
+     */
+    private static int[] replay(List<Consumer<RenderEngine>> edits) {
+        RenderEngine engine = new RenderEngine(new TiledCanvas(W, H, 0xffffffff), false);
+        for (Consumer<RenderEngine> edit : edits) {
+            edit.accept(engine);
+        }
+        return pixels(engine.getComposite());
+    }
+
+    private static int[] pixels(TiledCanvas canvas) {
+        int[] p = new int[W * H];
+        canvas.readPixels(0, 0, W, H, p);
+        return p;
+    }
+}
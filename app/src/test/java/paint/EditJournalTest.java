@@ -0,0 +1,145 @@
+package paint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditJournalTest {
+    private static final int W = 600, H = 500;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void replayMatchesLiveTabs() throws Exception {
+        File journalDir = new File(dir, "journal");
+        File document = new File(dir, "doc" + RawCanvasFile.EXTENSION);
+        Random rnd = new Random(13);
+        TiledCanvas start = new TiledCanvas(W, H, 0xffffffff);
+        start.fill(0xff336699);
+        RawCanvasFile.save(start, document);
+
+        EditJournal journal = new EditJournal(journalDir, status -> { });
+        assertTrue(journal.open());
+        // one tab opened from a document, which checkpoints refer to instead of copying
+        List<RenderEngine> tabs = List.of(new RenderEngine(RawCanvasFile.open(document)), new RenderEngine());
+        for (int i = 0; i < tabs.size(); i++) {
+            tabs.get(i).setJournal(journal.forTab(i));
+        }
+        journal.checkpoint(tabs);
+        int checkpoints = 1;
+        for (int step = 0; step < 300; step++) {
+            RenderEngine engine = tabs.get(rnd.nextInt(tabs.size()));
+            randomStep(engine, rnd, step >= 100);
+            if (step == 60) {
+                // saved over, so the checkpoints that read from the document are lost
+                RawCanvasFile.save(tabs.get(0).snapshot(), document);
+            }
+            // as the application does every few seconds
+            if (journal.isCheckpointNeeded() || rnd.nextInt(40) == 0) {
+                journal.checkpoint(tabs);
+                checkpoints++;
+            }
+        }
+        assertTrue(checkpoints > 1);
+        awaitCheckpoint(journalDir);
+        // mostly journaled after the last checkpoint
+        for (int step = 0; step < 20; step++) {
+            for (RenderEngine engine : tabs) {
+                randomStep(engine, rnd, false);
+            }
+            if (journal.isCheckpointNeeded()) {
+                journal.checkpoint(tabs);
+                awaitCheckpoint(journalDir);
+            }
+        }
+
+        // what a crash would leave, while the journal is still open
+        File crashed = new File(dir, "crashed");
+        assertTrue(crashed.mkdir());
+        for (File f : journalDir.listFiles()) {
+            Files.copy(f.toPath(), new File(crashed, f.getName()).toPath());
+        }
+        journal.close();
+
+        EditJournal recovery = new EditJournal(crashed, status -> { });
+        assertTrue(recovery.open());
+        assertTrue(recovery.hasRecoverableSession());
+        List<RenderEngine> recovered = new ArrayList<>();
+        assertEquals(tabs.size(), recovery.recover(tab -> {
+            RenderEngine engine = new RenderEngine();
+            recovered.add(engine);
+            return engine;
+        }));
+        for (int i = 0; i < tabs.size(); i++) {
+            RenderEngine live = tabs.get(i), replayed = recovered.get(i);
+            assertEquals(live.getLayerCount(), replayed.getLayerCount(), "layers of tab " + i);
+            assertEquals(live.getActiveLayer(), replayed.getActiveLayer(), "active layer of tab " + i);
+            for (int l = 0; l < live.getLayerCount(); l++) {
+                assertArrayEquals(pixels(live.getLayer(l).getCanvas()), pixels(replayed.getLayer(l).getCanvas()),
+                        "layer " + l + " of tab " + i);
+            }
+            assertArrayEquals(pixels(live.getComposite()), pixels(replayed.getComposite()), "composite of tab " + i);
+        }
+        recovery.close();
+    }
+
+    /**
+     * Draws, fills, undoes or redoes on {@code engine}, or adds or selects a layer if
+     * {@code layers}.
+     */
+    private static void randomStep(RenderEngine engine, Random rnd, boolean layers) {
+        int x1 = rnd.nextInt(W), y1 = rnd.nextInt(H), x2 = rnd.nextInt(W), y2 = rnd.nextInt(H);
+        Color color = new Color(rnd.nextInt(), rnd.nextBoolean());
+        int action = rnd.nextInt(layers ? 12 : 10);
+        if (action < 2) {
+            engine.undo();
+        } else if (action < 3) {
+            engine.redo();
+        } else if (action < 5) {
+            engine.floodFill(x1, y1, color, rnd.nextInt(30));
+        } else if (action < 10) {
+            engine.beginEdit();
+            if (action < 7) {
+                engine.drawShape(x1, y1, x2, y2, new ToolOptions().withColor(color).withSize(1 + rnd.nextInt(20)));
+            } else {
+                engine.drawSegment(x1, y1, x2, y2, color, new ToolOptions().withSize(1 + rnd.nextInt(20)));
+            }
+            engine.commitEdit();
+        } else if (action < 11 && engine.getLayerCount() < 3) {
+            engine.addLayer();
+        } else {
+            engine.selectLayer(rnd.nextInt(engine.getLayerCount()));
+        }
+    }
+
+    /**
+     * Waits until the background writes of the last checkpoint are done, which is when
+     * the journals before it are deleted.
+     */
+    private static void awaitCheckpoint(File journalDir) throws InterruptedException, IOException {
+        for (int i = 0; i < 500; i++) {
+            String[] journals = journalDir.list((d, name) -> name.startsWith("journal-"));
+            if (journals != null && journals.length == 1) return;
+            Thread.sleep(20);
+        }
+        throw new IOException("checkpoint not written in time");
+    }
+
+    private static int[] pixels(TiledCanvas canvas) {
+        int[] p = new int[canvas.getWidth() * canvas.getHeight()];
+        canvas.readPixels(0, 0, canvas.getWidth(), canvas.getHeight(), p);
+        return p;
+    }
+}
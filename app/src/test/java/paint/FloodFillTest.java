@@ -0,0 +1,104 @@
+package paint;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FloodFillTest {
+    private static final int W = 700, H = 600;
+    private static final int FILL = 0xff123456;
+
+    @Test
+    void matchesBreadthFirstSearch() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 40; round++) {
+            TiledCanvas canvas = blotches(rnd);
+            int x = rnd.nextInt(W), y = rnd.nextInt(H);
+            int tolerance = rnd.nextInt(4) == 0 ? 0 : rnd.nextInt(40);
+            int[] want = pixels(canvas);
+            Rectangle bounds = bfs(want, x, y, tolerance);
+
+            FloodFill fill = new FloodFill(canvas, x, y, tolerance);
+            assertEquals(bounds, fill.getBounds(), "bounds of fill " + round);
+            fill.apply(FILL);
+            assertArrayEquals(want, pixels(canvas), "pixels of fill " + round);
+        }
+    }
+
+    @Test
+    void fillsUniformTilesWholly() {
+        TiledCanvas canvas = new TiledCanvas(W, H, 0xffffffff);
+        int[] wall = new int[H];
+        Arrays.fill(wall, 0xff000000);
+        canvas.writePixels(300, 0, 1, H, wall);
+        int[] want = pixels(canvas);
+        bfs(want, 10, 10, 0);
+
+        new FloodFill(canvas, 10, 10, 0).apply(FILL);
+        assertArrayEquals(want, pixels(canvas));
+    }
+
+    /**
+     * Rectangles of a few close colors over a plain background, so tolerances matter and
+     * some tiles stay single-color.
+     */
+    private static TiledCanvas blotches(Random rnd) {
+        TiledCanvas canvas = new TiledCanvas(W, H, 0xffffffff);
+        int[] palette = {0xff000000, 0xff101010, 0xff202020, 0x80ff0000, 0xffffffff, 0xfff0f0f0};
+        for (int i = 0; i < 60; i++) {
+            int w = 1 + rnd.nextInt(120), h = 1 + rnd.nextInt(120);
+            int x = rnd.nextInt(W - w), y = rnd.nextInt(H - h);
+            int[] block = new int[w * h];
+            Arrays.fill(block, palette[rnd.nextInt(palette.length)]);
+            canvas.writePixels(x, y, w, h, block);
+        }
+        return canvas;
+    }
+
+    /**
+     * Fills {@code pixels} from (x, y) one pixel at a time, the way the fill is defined.
+     *
+     * @return the bounds of the filled region
+     */
+    private static Rectangle bfs(int[] pixels, int x, int y, int tolerance) {
+        int target = pixels[y * W + x];
+        boolean[] seen = new boolean[W * H];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(y * W + x);
+        seen[y * W + x] = true;
+        Rectangle bounds = null;
+        while (!queue.isEmpty()) {
+            int p = queue.poll();
+            int px = p % W, py = p / W;
+            bounds = bounds == null ? new Rectangle(px, py, 1, 1) : bounds.union(new Rectangle(px, py, 1, 1));
+            int[] next = {px > 0 ? p - 1 : -1, px < W - 1 ? p + 1 : -1, py > 0 ? p - W : -1, py < H - 1 ? p + W : -1};
+            for (int n : next) {
+                if (n >= 0 && !seen[n] && matches(pixels[n], target, tolerance)) {
+                    seen[n] = true;
+                    queue.add(n);
+                }
+            }
+            pixels[p] = FILL;
+        }
+        return bounds;
+    }
+
+    private static boolean matches(int argb, int target, int tolerance) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs((argb >>> shift & 0xff) - (target >>> shift & 0xff)) > tolerance) return false;
+        }
+        return true;
+    }
+
+    private static int[] pixels(TiledCanvas canvas) {
+        int[] p = new int[W * H];
+        canvas.readPixels(0, 0, W, H, p);
+        return p;
+    }
+}
@@ -0,0 +1,77 @@
+package paint;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PngEncoderTest {
+    // Enough rows for several strips, so the stitched checksum and stream are covered
+    private static final int W = 700, H = 1300;
+
+    @Test
+    void opaqueCanvasReadsBack() throws IOException {
+        TiledCanvas canvas = noise(0xff000000);
+        byte[] png = PngEncoder.encode(canvas);
+        assertFalse(ImageIO.read(new ByteArrayInputStream(png)).getColorModel().hasAlpha());
+        assertReadsBack(canvas, png, new Rectangle(0, 0, W, H));
+    }
+
+    @Test
+    void translucentCanvasReadsBack() throws IOException {
+        TiledCanvas canvas = noise(0);
+        byte[] png = PngEncoder.encode(canvas);
+        assertTrue(ImageIO.read(new ByteArrayInputStream(png)).getColorModel().hasAlpha());
+        assertReadsBack(canvas, png, new Rectangle(0, 0, W, H));
+    }
+
+    @Test
+    void regionReadsBack() throws IOException {
+        TiledCanvas canvas = noise(0);
+        Rectangle region = new Rectangle(130, 270, 411, 777);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            PngEncoder.write(canvas, region, out, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertReadsBack(canvas, out.toByteArray(), region);
+    }
+
+    /**
+     * Random pixels with some flat areas that compress well, ORed with {@code alpha}.
+     */
+    private static TiledCanvas noise(int alpha) {
+        TiledCanvas canvas = new TiledCanvas(W, H, 0xffffffff);
+        Random rnd = new Random(3);
+        int[] row = new int[W];
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                row[x] = (x / 50 + y / 50) % 3 == 0 ? 0xff336699 : rnd.nextInt() | alpha;
+            }
+            canvas.writePixels(0, y, W, 1, row);
+        }
+        return canvas;
+    }
+
+    private static void assertReadsBack(TiledCanvas canvas, byte[] png, Rectangle r) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(r.width, img.getWidth());
+        assertEquals(r.height, img.getHeight());
+        int[] want = new int[r.width * r.height];
+        canvas.readPixels(r.x, r.y, r.width, r.height, want);
+        assertArrayEquals(want, img.getRGB(0, 0, r.width, r.height, null, 0, r.width));
+    }
+}
@@ -0,0 +1,87 @@
+package paint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RawCanvasFileTest {
+    // Not a whole number of tiles, and with some tiles left a single color
+    private static final int W = 1000, H = 700;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void saveOpenAndSaveOverItself() throws IOException {
+        File file = new File(dir, "round" + RawCanvasFile.EXTENSION);
+        TiledCanvas canvas = new TiledCanvas(W, H, 0xffffffff);
+        Random rnd = new Random(5);
+        scribble(canvas, rnd);
+        int[] saved = pixels(canvas);
+        RawCanvasFile.save(canvas, file);
+
+        TiledCanvas opened = RawCanvasFile.open(file);
+        assertEquals(W, opened.getWidth());
+        assertEquals(H, opened.getHeight());
+        assertArrayEquals(saved, pixels(opened));
+
+        // a second canvas on the same file must keep what it showed when the first is saved over it
+        TiledCanvas other = RawCanvasFile.open(file);
+        for (int round = 0; round < 3; round++) {
+            scribble(opened, rnd);
+            int[] edited = pixels(opened);
+            RawCanvasFile.save(opened, file);
+            assertArrayEquals(edited, pixels(opened), "canvas after save " + round);
+            assertArrayEquals(edited, pixels(RawCanvasFile.open(file)), "file after save " + round);
+            assertArrayEquals(saved, pixels(other), "other canvas after save " + round);
+        }
+
+        // unchanged, the save writes nothing but must still leave the file as it was
+        int[] last = pixels(opened);
+        RawCanvasFile.save(opened, file);
+        assertArrayEquals(last, pixels(RawCanvasFile.open(file)));
+    }
+
+    @Test
+    void saveCopyLeavesCanvasOnItsFile() throws IOException {
+        File file = new File(dir, "a" + RawCanvasFile.EXTENSION);
+        File copy = new File(dir, "b" + RawCanvasFile.EXTENSION);
+        TiledCanvas canvas = new TiledCanvas(W, H, 0);
+        Random rnd = new Random(6);
+        scribble(canvas, rnd);
+        RawCanvasFile.save(canvas, file);
+        TiledCanvas opened = RawCanvasFile.open(file);
+        int[] before = pixels(opened);
+
+        scribble(opened, rnd);
+        RawCanvasFile.saveCopy(opened, copy);
+        assertArrayEquals(pixels(opened), pixels(RawCanvasFile.open(copy)));
+        assertArrayEquals(before, pixels(RawCanvasFile.open(file)));
+    }
+
+    /**
+     * Writes a few random blocks of noise, some spanning tiles.
+     */
+    private static void scribble(TiledCanvas canvas, Random rnd) {
+        for (int i = 0; i < 6; i++) {
+            int w = 1 + rnd.nextInt(300), h = 1 + rnd.nextInt(300);
+            int x = rnd.nextInt(W - w), y = rnd.nextInt(H - h);
+            int[] block = new int[w * h];
+            Arrays.setAll(block, p -> rnd.nextInt());
+            canvas.writePixels(x, y, w, h, block);
+        }
+    }
+
+    private static int[] pixels(TiledCanvas canvas) {
+        int[] p = new int[canvas.getWidth() * canvas.getHeight()];
+        canvas.readPixels(0, 0, canvas.getWidth(), canvas.getHeight(), p);
+        return p;
+    }
+}
@@ -0,0 +1,104 @@
+package paint;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the freehand drawing hot path does not allocate.
+ * <p>
+ *     Counts the bytes the event dispatch thread allocates, using the JVM's per-thread
+ *     allocation counter, while it feeds points into a stroke and asks ToolOptions for
+ *     its stroke and font the way the drawing code does. Points only go into the stroke
+ *     engine's ring buffer and settings are memoized, so every count should be 0. Drawing
+ *     a buffered frame is reported for reference; it allocates a path and a little
+ *     per-draw state once per frame, not per point. Exits with status 1 if a per-point
+ *     count is not 0.
+ * <p>
+ *     Usage: java -cp benchmarks/target/benchmarks.jar paint.AllocationCheck
+ */
+public class AllocationCheck {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        boolean[] ok = {true};
+        SwingUtilities.invokeAndWait(() -> {
+            DrawingPanel panel = new DrawingPanel(null);
+            panel.getEngine().resizeCanvas(2000, 2000);
+            panel.setBrushSize(8);
+            ToolOptions options = panel.getToolOptions();
+            RenderEngine engine = panel.getEngine();
+
+            // warm up so class loading and JIT do not count
+            for (int round = 0; round < 200; round++) {
+                stroke(panel, options, round);
+            }
+
+            long overhead = allocated(() -> { });
+            int points = 1000;
+            long perStroke = allocated(() -> {
+                for (int i = 0; i < points; i++) {
+                    engine.addStrokePoint(100 + i % 1800, 100 + (i * 7) % 1800);
+                }
+            }, () -> begin(panel, options), panel::endStroke) - overhead;
+            long settings = allocated(() -> {
+                for (int i = 0; i < points; i++) {
+                    options.getStroke();
+                    options.getFont();
+                    options.getStrokePadding();
+                }
+            }) - overhead;
+            long frame = allocated(panel::flushStroke, () -> {
+                begin(panel, options);
+                for (int i = 0; i < 16; i++) engine.addStrokePoint(500 + i * 3, 500 + i);
+            }, panel::endStroke) - overhead;
+
+            System.out.printf("adding %d points to a stroke: %d bytes (%.2f per point)%n",
+                    points, perStroke, perStroke / (double) points);
+            System.out.printf("%d x stroke, font and padding lookups: %d bytes%n", points, settings);
+            System.out.printf("drawing one frame of 16 points: %d bytes%n", frame);
+            ok[0] = perStroke == 0 && settings == 0;
+        });
+        System.out.println(ok[0] ? "OK: no allocation per point" : "FAIL: the per-point path allocates");
+        System.exit(ok[0] ? 0 : 1);
+    }
+
+    private static void begin(DrawingPanel panel, ToolOptions options) {
+        panel.beginStroke(100, 100, Color.BLACK, options);
+    }
+
+    private static void stroke(DrawingPanel panel, ToolOptions options, int round) {
+        begin(panel, options);
+        for (int i = 0; i < 1000; i++) {
+            panel.getEngine().addStrokePoint(100 + (i + round) % 1800, 100 + (i * 7) % 1800);
+            options.getStroke();
+            options.getFont();
+            options.getStrokePadding();
+            if (i % 16 == 15) panel.flushStroke();
+        }
+        panel.endStroke();
+    }
+
+    private static long allocated(Runnable measured) {
+        return allocated(measured, () -> { }, () -> { });
+    }
+
+    /**
+     * @return bytes allocated by this thread while running {@code measured} only
+     */
+    private static long allocated(Runnable measured, Runnable before, Runnable after) {
+        long best = Long.MAX_VALUE;
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < 5; i++) {
+            before.run();
+            long start = threads.getThreadAllocatedBytes(id);
+            measured.run();
+            long end = threads.getThreadAllocatedBytes(id);
+            after.run();
+            best = Math.min(best, end - start);
+        }
+        return best;
+    }
+}
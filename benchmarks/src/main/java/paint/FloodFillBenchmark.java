@@ -0,0 +1,121 @@
+package paint;
+
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Times the bucket fill on large canvases.
+ * <p>
+ *     Fills a square canvas from its centre in three scenes: a blank canvas, where every
+ *     tile is a single color; a canvas of light noise inside the tolerance, where every
+ *     pixel has to be read and written; and a noisy disc enclosed by a black ring on a
+ *     blank canvas. Prints the best of a few runs for finding the region, for writing
+ *     it, and for the whole fill including the undo record, as RenderEngine does it. The
+ *     record is compressed in the background, so the fill is timed up to where the calling
+ *     thread gets on, and separately up to where the record is compressed.
+ * <p>
+ *     Usage: java -Xmx4g -cp benchmarks/target/benchmarks.jar paint.FloodFillBenchmark [sizes runs],
+ *     e.g. {@code 4096,8192 5}.
+ */
+public class FloodFillBenchmark {
+    private static final int TOLERANCE = 32;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = parse(args.length > 0 ? args[0] : "4096");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.out.printf("%d cores available%n", Runtime.getRuntime().availableProcessors());
+
+        for (int size : sizes) {
+            System.out.printf("%n%dx%d (%.0f megapixels)%n", size, size, size * (double) size / 1e6);
+            for (String scene : new String[]{"blank", "noise", "ring"}) {
+                TiledCanvas canvas = scene(scene, size);
+                long select = Long.MAX_VALUE, apply = Long.MAX_VALUE, total = Long.MAX_VALUE, ready = Long.MAX_VALUE;
+                long pixels = 0;
+                for (int run = 0; run < runs; run++) {
+                    TiledCanvas copy = canvas.snapshot();
+                    TiledCanvas target = restore(copy);
+
+                    long t0 = System.nanoTime();
+                    FloodFill fill = new FloodFill(target, size / 2, size / 2, TOLERANCE);
+                    long t1 = System.nanoTime();
+                    fill.apply(0xFFFF0000);
+                    long t2 = System.nanoTime();
+                    select = Math.min(select, t1 - t0);
+                    apply = Math.min(apply, t2 - t1);
+                    Rectangle b = fill.getBounds();
+                    pixels = (long) b.width * b.height;
+
+                    target = restore(copy);
+                    CanvasHistory history = new CanvasHistory(10, Long.MAX_VALUE);
+                    long t3 = System.nanoTime();
+                    FloodFill undoable = new FloodFill(target, size / 2, size / 2, TOLERANCE);
+                    history.recordChange(target, undoable.getBounds(), undoable.getTileAreas(),
+                            () -> undoable.apply(0xFFFF0000));
+                    total = Math.min(total, System.nanoTime() - t3);
+                    //the patches count towards the memory use once they are settled
+                    while (history.getMemoryUsage() == 0) sleep();
+                    ready = Math.min(ready, System.nanoTime() - t3);
+                }
+                System.out.printf("  %-6s find %7.1f ms  write %7.1f ms  with undo %7.1f ms  undo compressed %7.1f ms  (%,d px box)%n",
+                        scene, select / 1e6, apply / 1e6, total / 1e6, ready / 1e6, pixels);
+            }
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a writable copy of the snapshot
+     */
+    private static TiledCanvas restore(TiledCanvas snapshot) {
+        TiledCanvas canvas = new TiledCanvas(snapshot.getWidth(), snapshot.getHeight(), 0);
+        int[] row = new int[snapshot.getWidth() * TiledCanvas.TILE_SIZE];
+        for (int y = 0; y < snapshot.getHeight(); y += TiledCanvas.TILE_SIZE) {
+            int rows = Math.min(TiledCanvas.TILE_SIZE, snapshot.getHeight() - y);
+            snapshot.readPixels(0, y, snapshot.getWidth(), rows, row);
+            canvas.loadTileRow(y, row);
+        }
+        return canvas;
+    }
+
+    private static TiledCanvas scene(String name, int size) {
+        TiledCanvas canvas = new TiledCanvas(size, size, 0xFFFFFFFF);
+        if (name.equals("blank")) return canvas;
+        Random rnd = new Random(42);
+        int[] row = new int[size * TiledCanvas.TILE_SIZE];
+        double c = size / 2.0, inner = size * 0.45, outer = size * 0.46;
+        for (int y = 0; y < size; y += TiledCanvas.TILE_SIZE) {
+            int rows = Math.min(TiledCanvas.TILE_SIZE, size - y);
+            for (int r = 0; r < rows; r++) {
+                for (int x = 0; x < size; x++) {
+                    int grey = 0xFF - rnd.nextInt(TOLERANCE / 2);
+                    int noise = 0xFF000000 | grey * 0x10101;
+                    int pixel = noise;
+                    if (name.equals("ring")) {
+                        double d = Math.hypot(x - c, y + r - c);
+                        pixel = d < inner ? noise : d < outer ? 0xFF000000 : 0xFFFFFFFF;
+                    }
+                    row[r * size + x] = pixel;
+                }
+            }
+            canvas.loadTileRow(y, row);
+        }
+        return canvas;
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
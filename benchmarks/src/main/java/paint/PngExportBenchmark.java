@@ -0,0 +1,116 @@
+package paint;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares PNG export through ImageIO with the parallel PngEncoder.
+ * <p>
+ *     Builds a square canvas with a mix of blank area, strokes and a noisy patch, then
+ *     times ImageIO (single threaded, from a flattened copy, as the old save did) and
+ *     PngEncoder on pools of each requested size. Output goes to a counting stream so
+ *     disk speed does not matter. Prints the best of a few runs and the file size.
+ * <p>
+ *     Usage: java -Xmx6g -cp benchmarks/target/benchmarks.jar paint.PngExportBenchmark [sizes threads runs],
+ *     e.g. {@code 2048,8192,16384 1,4,16 3}. The 16K case needs a large heap for ImageIO.
+ */
+public class PngExportBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = parse(args.length > 0 ? args[0] : "2048,8192,16384");
+        int[] threads = parse(args.length > 1 ? args[1] : "1,4,16");
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        System.out.printf("%d cores available%n", Runtime.getRuntime().availableProcessors());
+
+        for (int size : sizes) {
+            TiledCanvas canvas = scene(size);
+            System.out.printf("%n%dx%d%n", size, size);
+            try {
+                CountingStream bytes = new CountingStream();
+                long best = time(runs, () -> {
+                    bytes.count = 0;
+                    ImageIO.write(canvas.toImage(), "png", bytes);
+                });
+                System.out.printf("  ImageIO            %9.1f ms  %,12d bytes%n", best / 1e6, bytes.count);
+            } catch (OutOfMemoryError ex) {
+                System.out.printf("  ImageIO            skipped, not enough heap%n");
+            }
+            for (int n : threads) {
+                ForkJoinPool pool = new ForkJoinPool(n);
+                CountingStream bytes = new CountingStream();
+                long best = time(runs, () -> {
+                    bytes.count = 0;
+                    PngEncoder.write(canvas, new Rectangle(0, 0, size, size), bytes, pool);
+                });
+                pool.shutdown();
+                System.out.printf("  PngEncoder %2d thr  %9.1f ms  %,12d bytes%n", n, best / 1e6, bytes.count);
+            }
+        }
+    }
+
+    private static TiledCanvas scene(int size) {
+        TiledCanvas canvas = new TiledCanvas(size, size, 0xFFFFFFFF);
+        java.util.Random rnd = new java.util.Random(42);
+        for (int i = 0; i < size / 8; i++) {
+            int x1 = rnd.nextInt(size), y1 = rnd.nextInt(size);
+            int x2 = Math.max(0, Math.min(size - 1, x1 + rnd.nextInt(400) - 200));
+            int y2 = Math.max(0, Math.min(size - 1, y1 + rnd.nextInt(400) - 200));
+            Color c = new Color(rnd.nextInt(0xFFFFFF));
+            Rectangle bounds = new Rectangle(Math.min(x1, x2) - 8, Math.min(y1, y2) - 8,
+                    Math.abs(x2 - x1) + 17, Math.abs(y2 - y1) + 17);
+            canvas.draw(bounds, g2 -> {
+                g2.setColor(c);
+                g2.setStroke(new BasicStroke(6, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                g2.drawLine(x1, y1, x2, y2);
+            });
+        }
+        // something photographic that does not compress well
+        int patch = size / 4;
+        int[] row = new int[patch];
+        for (int y = 0; y < patch; y++) {
+            for (int x = 0; x < patch; x++) {
+                row[x] = 0xFF000000 | ((x * 255 / patch) << 16) | ((y * 255 / patch) << 8) | rnd.nextInt(64);
+            }
+            canvas.writePixels(size / 2, size / 2 + y, patch, 1, row);
+        }
+        return canvas;
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+
+    private static long time(int runs, Job job) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long t0 = System.nanoTime();
+            job.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
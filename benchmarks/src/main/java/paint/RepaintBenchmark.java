@@ -0,0 +1,90 @@
+package paint;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * Measures how much of the viewport a freehand stroke repaints per mouse event.
+ * <p>
+ *     Replays a synthetic drag on a headless DrawingPanel and paints the panel into an
+ *     offscreen buffer after every event, once with the full viewport as the clip (the
+ *     old bare {@code repaint()}) and once with the rectangle the panel actually asked
+ *     to repaint. Prints events per second and pixels painted per event for both.
+ * <p>
+ *     Usage: java -Djava.awt.headless=true -cp benchmarks/target/benchmarks.jar paint.RepaintBenchmark [width height events]
+ */
+public class RepaintBenchmark {
+    /** Panel that remembers the area it asked Swing to repaint. */
+    static class RecordingPanel extends DrawingPanel {
+        final Rectangle dirty = new Rectangle();
+
+        RecordingPanel() {
+            super(null);
+        }
+
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+            // called from the JPanel constructor before the field is initialized
+            if (dirty != null) {
+                dirty.setBounds(x, y, width, height);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 3840;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2160;
+        int events = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        System.out.printf("Canvas %dx%d, %d drag events, brush %d px%n", width, height, events, 8);
+        run("full repaint ", width, height, events, false);
+        run("dirty region ", width, height, events, true);
+    }
+
+    private static void run(String label, int width, int height, int events, boolean useDirty) {
+        RecordingPanel panel = new RecordingPanel();
+        panel.getEngine().resizeCanvas(width, height);
+        panel.setSize(width, height);
+        panel.setBrushSize(8);
+        panel.setTool(DrawingTool.DRAW);
+
+        BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        Rectangle full = new Rectangle(0, 0, width, height);
+
+        // warm up the paths before timing
+        drag(panel, g, full, 200, width, height, useDirty);
+
+        long start = System.nanoTime();
+        long pixels = drag(panel, g, full, events, width, height, useDirty);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        g.dispose();
+
+        System.out.printf("%s %10.1f events/s %12d px/event%n", label, events / seconds, pixels / events);
+    }
+
+    private static long drag(RecordingPanel panel, Graphics2D g, Rectangle full,
+                             int events, int width, int height, boolean useDirty) {
+        int cx = width / 2, cy = height / 2;
+        int radius = Math.min(width, height) / 3;
+        send(panel, MouseEvent.MOUSE_PRESSED, cx + radius, cy);
+        long pixels = 0;
+        for (int i = 1; i <= events; i++) {
+            double a = i * 0.05;
+            send(panel, MouseEvent.MOUSE_DRAGGED, cx + (int) (radius * Math.cos(a)), cy + (int) (radius * Math.sin(a)));
+            Rectangle clip = useDirty ? panel.dirty.intersection(full) : full;
+            g.setClip(clip);
+            panel.paint(g);
+            pixels += (long) clip.width * clip.height;
+        }
+        send(panel, MouseEvent.MOUSE_RELEASED, cx + radius, cy);
+        return pixels;
+    }
+
+    private static void send(Component c, int id, int x, int y) {
+        int mods = id == MouseEvent.MOUSE_RELEASED ? 0 : MouseEvent.BUTTON1_DOWN_MASK;
+        c.dispatchEvent(new MouseEvent(c, id, System.currentTimeMillis(), mods, x, y, 1, false, MouseEvent.BUTTON1));
+    }
+}
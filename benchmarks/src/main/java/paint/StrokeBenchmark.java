@@ -0,0 +1,101 @@
+package paint;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Measures freehand drawing throughput in input points per second.
+ * <p>
+ *     Feeds a random walk of points, like a fast mouse or a tablet, into a DrawingPanel
+ *     two ways: one {@code drawSegment} per point, which is how strokes were drawn before
+ *     the stroke engine, and through the stroke engine with a frame flushed every few
+ *     points. At 60 frames a second a 1000 Hz tablet delivers about 16 points per frame.
+ *     Undo history is recorded as in normal use; the journal is off.
+ * <p>
+ *     Usage: java -cp benchmarks/target/benchmarks.jar paint.StrokeBenchmark [points brushSizes pointsPerFrame],
+ *     e.g. {@code 200000 3,20 1,4,16}.
+ */
+public class StrokeBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int[] sizes = parse(args.length > 1 ? args[1] : "3,20");
+        int[] perFrame = parse(args.length > 2 ? args[2] : "1,4,16");
+        float[] xs = new float[points], ys = new float[points];
+        Random rnd = new Random(7);
+        float x = 1000, y = 1000;
+        for (int i = 0; i < points; i++) {
+            x = Math.max(0, Math.min(1999, x + rnd.nextInt(9) - 4));
+            y = Math.max(0, Math.min(1999, y + rnd.nextInt(9) - 4));
+            xs[i] = x;
+            ys[i] = y;
+        }
+
+        SwingUtilities.invokeAndWait(() -> {
+            for (int size : sizes) {
+                System.out.printf("%nbrush %d px%n", size);
+                run("per-segment", points, () -> {
+                    DrawingPanel panel = panel(size, false);
+                    RenderEngine engine = panel.getEngine();
+                    for (int i = 1; i < points; i++) {
+                        if (i % 500 == 1) engine.beginEdit();
+                        engine.drawSegment((int) xs[i - 1], (int) ys[i - 1], (int) xs[i], (int) ys[i],
+                                Color.BLACK, panel.getToolOptions());
+                        if (i % 500 == 0) engine.commitEdit();
+                    }
+                    engine.commitEdit();
+                });
+                for (boolean smooth : new boolean[]{false, true}) {
+                    for (int n : perFrame) {
+                        run(String.format("engine %2d/frame%s", n, smooth ? " smooth" : ""), points, () -> {
+                            DrawingPanel panel = panel(size, smooth);
+                            RenderEngine engine = panel.getEngine();
+                            for (int i = 0; i < points; i++) {
+                                if (i % 500 == 0) {
+                                    engine.beginEdit();
+                                    panel.beginStroke((int) xs[i], (int) ys[i], Color.BLACK, panel.getToolOptions());
+                                }
+                                engine.addStrokePoint((int) xs[i], (int) ys[i]);
+                                if (i % n == n - 1) panel.flushStroke();
+                                if (i % 500 == 499) {
+                                    panel.endStroke();
+                                    engine.commitEdit();
+                                }
+                            }
+                            panel.endStroke();
+                            engine.commitEdit();
+                        });
+                    }
+                }
+            }
+        });
+        System.exit(0);
+    }
+
+    private static DrawingPanel panel(int size, boolean smooth) {
+        DrawingPanel panel = new DrawingPanel(null);
+        panel.getEngine().resizeCanvas(2000, 2000);
+        panel.setBrushSize(size);
+        panel.setSmoothing(smooth);
+        return panel;
+    }
+
+    private static void run(String label, int points, Runnable job) {
+        job.run(); // warm up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long t0 = System.nanoTime();
+            job.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        System.out.printf("  %-24s %,12.0f points/s%n", label, points / (best / 1e9));
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+}
@@ -0,0 +1,135 @@
+package paint;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for PaintWebServer.
+ * <p>
+ *     Starts the server on a headless DrawingPanel, then runs concurrent readers that
+ *     poll the canvas PNG (half of them revalidating with If-None-Match) while a
+ *     publisher thread keeps drawing and calling {@code updateSharedImages}, the way
+ *     the UI does. Prints p50/p99 request latency and the latency of the publish call.
+ * <p>
+ *     Usage: java -Djava.awt.headless=true -cp benchmarks/target/benchmarks.jar paint.WebServerLoadTest [readers seconds port]
+ */
+public class WebServerLoadTest {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8089;
+
+        DrawingPanel panel = new DrawingPanel(null);
+        panel.getEngine().resizeCanvas(1920, 1080);
+        panel.setTool(DrawingTool.DRAW);
+        panel.setBrushSize(6);
+
+        PaintWebServer server = new PaintWebServer();
+        server.start(port);
+        server.updateSharedImages(Map.of("canvas1", panel));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(16))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        URI uri = URI.create("http://localhost:" + port + "/canvas1.png");
+
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        long[][] latencies = new long[readers][];
+        int[] counts = new int[readers];
+        CountDownLatch done = new CountDownLatch(readers);
+        for (int r = 0; r < readers; r++) {
+            int id = r;
+            boolean conditional = r % 2 == 1;
+            pool.execute(() -> {
+                long[] samples = new long[1 << 16];
+                int n = 0;
+                String etag = null;
+                try {
+                    while (System.nanoTime() < deadline && n < samples.length) {
+                        HttpRequest.Builder req = HttpRequest.newBuilder(uri);
+                        if (conditional && etag != null) req.header("If-None-Match", etag);
+                        long t0 = System.nanoTime();
+                        HttpResponse<byte[]> resp = client.send(req.build(), HttpResponse.BodyHandlers.ofByteArray());
+                        samples[n++] = System.nanoTime() - t0;
+                        etag = resp.headers().firstValue("ETag").orElse(etag);
+                    }
+                } catch (Exception ex) {
+                    System.err.println("reader " + id + " failed: " + ex);
+                } finally {
+                    latencies[id] = samples;
+                    counts[id] = n;
+                    done.countDown();
+                }
+            });
+        }
+
+        // publisher: draw a segment and republish on the event thread, like the UI does
+        long[] publish = new long[1 << 16];
+        int published = 0;
+        int step = 0;
+        while (System.nanoTime() < deadline && published < publish.length) {
+            int x = 100 + (step * 7) % 1700;
+            int y = 100 + (step * 13) % 900;
+            long[] elapsed = new long[1];
+            EventQueue.invokeAndWait(() -> {
+                send(panel, MouseEvent.MOUSE_PRESSED, x, y);
+                send(panel, MouseEvent.MOUSE_DRAGGED, x + 40, y + 25);
+                send(panel, MouseEvent.MOUSE_RELEASED, x + 40, y + 25);
+                long t0 = System.nanoTime();
+                server.updateSharedImages(Map.of("canvas1", panel));
+                elapsed[0] = System.nanoTime() - t0;
+            });
+            publish[published++] = elapsed[0];
+            step++;
+            Thread.sleep(16);
+        }
+
+        done.await();
+        pool.shutdown();
+        server.stop();
+
+        int total = 0;
+        for (int c : counts) total += c;
+        long[] all = new long[total];
+        int off = 0;
+        for (int r = 0; r < readers; r++) {
+            System.arraycopy(latencies[r], 0, all, off, counts[r]);
+            off += counts[r];
+        }
+        Arrays.sort(all);
+        long[] pub = Arrays.copyOf(publish, published);
+        Arrays.sort(pub);
+
+        System.out.printf("%d readers, %d s, %d requests (%.0f req/s)%n", readers, seconds, total, total / (double) seconds);
+        System.out.printf("request latency  p50 %8.2f ms   p99 %8.2f ms   max %8.2f ms%n",
+                pct(all, 50), pct(all, 99), all.length > 0 ? all[all.length - 1] / 1e6 : 0);
+        System.out.printf("publish latency  p50 %8.4f ms   p99 %8.4f ms   (%d updates)%n",
+                pct(pub, 50), pct(pub, 99), published);
+        System.exit(0);
+    }
+
+    private static double pct(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(p / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    private static void send(Component c, int id, int x, int y) {
+        int mods = id == MouseEvent.MOUSE_RELEASED ? 0 : MouseEvent.BUTTON1_DOWN_MASK;
+        c.dispatchEvent(new MouseEvent(c, id, System.currentTimeMillis(), mods, x, y, 1, false, MouseEvent.BUTTON1));
+    }
+}
@@ -0,0 +1,53 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.RenderEngine;
+import paint.ShapeType;
+import paint.ToolOptions;
+
+/**
+ * Undo followed by redo of one edit on the benchmark scene. {@code shape} is a thick
+ * rectangle outline (a few border tiles), {@code fill} a flood fill of the white
+ * background (most of the canvas) and {@code rotate} a quarter turn of the selection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class HistoryBenchmark {
+    @Param({"1024", "4096"})
+    int size;
+
+    @Param({"shape", "fill", "rotate"})
+    String edit;
+
+    private RenderEngine engine;
+
+    @Setup
+    public void setup() {
+        engine = Scenes.engine(size);
+        Rectangle sel = Scenes.selection(size);
+        switch (edit) {
+            case "shape" -> {
+                ToolOptions options = new ToolOptions().withColor(Color.RED).withSize(12)
+                        .withShapeType(ShapeType.RECTANGLE);
+                engine.beginEdit();
+                engine.drawShape(sel.x, sel.y, sel.x + sel.width, sel.y + sel.height, options);
+                engine.commitEdit();
+            }
+            case "fill" -> engine.floodFill(0, 0, Color.RED, 32);
+            case "rotate" -> engine.rotate(90, sel);
+            default -> throw new IllegalArgumentException(edit);
+        }
+    }
+
+    @Benchmark
+    public void undoRedo() {
+        engine.undo();
+        engine.redo();
+    }
+}
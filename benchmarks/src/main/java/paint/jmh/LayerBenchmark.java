@@ -0,0 +1,72 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.BlendMode;
+import paint.RenderEngine;
+import paint.TiledCanvas;
+import paint.ToolOptions;
+
+/**
+ * Five layers over {@link Scenes#canvas(int)}, each with random strokes at 70% opacity in
+ * a different blend mode, drawing on the middle one: a short stroke followed by the
+ * composite, which only redoes the tiles the stroke touched, against recompositing every
+ * tile after a layer property changed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LayerBenchmark {
+    private static final int LAYERS = 5, STROKES = 200, POINTS = 1024;
+
+    @Param({"1024", "4096"})
+    int size;
+
+    private RenderEngine engine;
+    private ToolOptions options;
+    private int[] xs, ys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        engine = new RenderEngine(Scenes.canvas(size), false);
+        options = new ToolOptions().withSize(5);
+        Random rnd = new Random(42);
+        BlendMode[] modes = BlendMode.values();
+        for (int i = 1; i <= LAYERS; i++) {
+            engine.addLayer();
+            for (int s = 0; s < STROKES; s++) {
+                engine.drawSegment(rnd.nextInt(size), rnd.nextInt(size), rnd.nextInt(size), rnd.nextInt(size),
+                        new Color(rnd.nextInt(0xFFFFFF)), options);
+            }
+            engine.setLayerProperties(i, "Layer " + i, 0.7f, modes[i % modes.length], true, false);
+        }
+        engine.selectLayer(LAYERS / 2);
+        engine.getComposite();
+        xs = new int[POINTS];
+        ys = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = rnd.nextInt(size - 32);
+            ys[i] = rnd.nextInt(size - 32);
+        }
+    }
+
+    @Benchmark
+    public TiledCanvas strokeAndComposite() {
+        int i = next++ & (POINTS - 1);
+        engine.drawSegment(xs[i], ys[i], xs[i] + 30, ys[i] + 20, Color.BLACK, options);
+        return engine.getComposite();
+    }
+
+    @Benchmark
+    public TiledCanvas fullComposite() {
+        int i = next++ & 1;
+        engine.setLayerProperties(LAYERS, "Top", i == 0 ? 0.7f : 0.6f, BlendMode.NORMAL, true, false);
+        return engine.getComposite();
+    }
+}
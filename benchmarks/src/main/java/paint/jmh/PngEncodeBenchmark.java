@@ -0,0 +1,33 @@
+package paint.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.PngEncoder;
+import paint.TiledCanvas;
+
+/**
+ * PngEncoder.encode of a canvas snapshot, as PaintWebServer does for every new version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PngEncodeBenchmark {
+    @Param({"1024", "4096"})
+    int size;
+
+    private TiledCanvas snapshot;
+
+    @Setup
+    public void setup() {
+        snapshot = Scenes.canvas(size).snapshot();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return PngEncoder.encode(snapshot);
+    }
+}
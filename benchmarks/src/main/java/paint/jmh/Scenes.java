@@ -0,0 +1,56 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.util.Random;
+import paint.RenderEngine;
+import paint.TiledCanvas;
+
+/**
+ * Canvases shared by the JMH benchmarks: white, with random strokes and a noisy patch,
+ * the same mix PngExportBenchmark uses. Seeded so every fork sees the same pixels.
+ */
+final class Scenes {
+    private Scenes() {
+    }
+
+    static TiledCanvas canvas(int size) {
+        TiledCanvas canvas = new TiledCanvas(size, size, 0xFFFFFFFF);
+        Random rnd = new Random(42);
+        for (int i = 0; i < size / 8; i++) {
+            int x1 = rnd.nextInt(size), y1 = rnd.nextInt(size);
+            int x2 = Math.max(0, Math.min(size - 1, x1 + rnd.nextInt(400) - 200));
+            int y2 = Math.max(0, Math.min(size - 1, y1 + rnd.nextInt(400) - 200));
+            Color c = new Color(rnd.nextInt(0xFFFFFF));
+            Rectangle bounds = new Rectangle(Math.min(x1, x2) - 8, Math.min(y1, y2) - 8,
+                    Math.abs(x2 - x1) + 17, Math.abs(y2 - y1) + 17);
+            canvas.draw(bounds, g2 -> {
+                g2.setColor(c);
+                g2.setStroke(new BasicStroke(6, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                g2.drawLine(x1, y1, x2, y2);
+            });
+        }
+        int patch = size / 4;
+        int[] row = new int[patch];
+        for (int y = 0; y < patch; y++) {
+            for (int x = 0; x < patch; x++) {
+                row[x] = 0xFF000000 | ((x * 255 / patch) << 16) | ((y * 255 / patch) << 8) | rnd.nextInt(64);
+            }
+            canvas.writePixels(size / 2, size / 2 + y, patch, 1, row);
+        }
+        return canvas;
+    }
+
+    /**
+     * An engine editing {@link #canvas(int)}, with no history yet.
+     */
+    static RenderEngine engine(int size) {
+        return new RenderEngine(canvas(size));
+    }
+
+    /**
+     * The centered square covering a quarter of the canvas, used as the selection.
+     */
+    static Rectangle selection(int size) {
+        return new Rectangle(size / 4, size / 4, size / 2, size / 2);
+    }
+}
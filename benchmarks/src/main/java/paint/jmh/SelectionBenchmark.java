@@ -0,0 +1,82 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.CanvasClip;
+import paint.RenderEngine;
+import paint.SelectionTool;
+import paint.ShapeType;
+import paint.TiledCanvas;
+import paint.ToolOptions;
+
+/**
+ * SelectionTool copy of the centered quarter of the canvas, which shares its tiles rather
+ * than copying pixels, and paste of that clipboard back into an image of the canvas size.
+ * {@code copyWithShapes} copies the same area the way DrawingPanel does, from an engine
+ * with {@value #SHAPES} vector shapes over the canvas, which are drawn into the copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SelectionBenchmark {
+    private static final int SHAPES = 500;
+
+    @Param({"1024", "4096"})
+    int size;
+
+    private TiledCanvas canvas;
+    private RenderEngine engine;
+    private SelectionTool selection;
+    private BufferedImage target;
+    private Graphics2D g2;
+
+    @Setup
+    public void setup() {
+        canvas = Scenes.canvas(size);
+        Rectangle sel = Scenes.selection(size);
+        selection = new SelectionTool();
+        selection.startSelection(sel.x, sel.y);
+        selection.updateSelection(sel.x + sel.width, sel.y + sel.height);
+        selection.copy(canvas);
+        engine = new RenderEngine(Scenes.canvas(size), false);
+        engine.setVectorShapes(true);
+        Random rnd = new Random(42);
+        ToolOptions options = new ToolOptions().withSize(3);
+        ShapeType[] types = ShapeType.values();
+        for (int i = 0; i < SHAPES; i++) {
+            int x = rnd.nextInt(size), y = rnd.nextInt(size);
+            engine.drawShape(x, y, x + rnd.nextInt(200), y + rnd.nextInt(200),
+                    options.withShapeType(types[i % types.length]));
+        }
+        target = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        g2 = target.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public CanvasClip copy() {
+        selection.copy(canvas);
+        return selection.getClipboard();
+    }
+
+    @Benchmark
+    public CanvasClip copyWithShapes() {
+        selection.copy(engine);
+        return selection.getClipboard();
+    }
+
+    @Benchmark
+    public void paste() {
+        selection.paste(g2, size / 8, size / 8);
+    }
+}
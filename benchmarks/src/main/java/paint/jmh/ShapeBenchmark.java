@@ -0,0 +1,47 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.AdvancedShapeDrawer;
+import paint.ShapeType;
+
+/**
+ * AdvancedShapeDrawer.drawShape for every shape type, spanning the centered half of an
+ * image of the given size with a 6px stroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeBenchmark {
+    @Param({"1024", "4096"})
+    int size;
+
+    @Param
+    ShapeType type;
+
+    private BufferedImage image;
+    private Graphics2D g2;
+
+    @Setup
+    public void setup() {
+        image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        g2 = image.createGraphics();
+        g2.setColor(Color.BLUE);
+        g2.setStroke(new BasicStroke(6, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public void drawShape() {
+        AdvancedShapeDrawer.drawShape(g2, type, size / 4, size / 4, size * 3 / 4, size * 3 / 4, 7);
+    }
+}
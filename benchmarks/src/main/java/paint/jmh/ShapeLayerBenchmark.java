@@ -0,0 +1,94 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.ShapeCommand;
+import paint.ShapeLayer;
+import paint.ShapeType;
+import paint.ToolOptions;
+
+/**
+ * ShapeLayer with the given number of random shapes, up to 200px across, spread over an
+ * 8192px canvas: picking at a point, finding the shapes in a 64px dirty region, repainting
+ * that region and moving a shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeLayerBenchmark {
+    private static final int CANVAS = 8192, REGION = 64, POINTS = 1024;
+
+    @Param({"10000", "100000"})
+    int shapes;
+
+    private ShapeLayer layer;
+    private ShapeLayer.Item moved;
+    private int[] xs, ys;
+    private int next;
+    private BufferedImage region;
+    private Graphics2D g2;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        ShapeType[] types = ShapeType.values();
+        ToolOptions base = new ToolOptions().withSize(3).withPolygonSides(6);
+        layer = new ShapeLayer(CANVAS, CANVAS);
+        for (int i = 0; i < shapes; i++) {
+            int x = rnd.nextInt(CANVAS), y = rnd.nextInt(CANVAS);
+            ToolOptions options = base.withShapeType(types[rnd.nextInt(types.length)]).withColor(new Color(rnd.nextInt(0xFFFFFF)));
+            moved = layer.add(new ShapeCommand(x, y, x + 8 + rnd.nextInt(192), y + 8 + rnd.nextInt(192), options));
+        }
+        xs = new int[POINTS];
+        ys = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = rnd.nextInt(CANVAS);
+            ys[i] = rnd.nextInt(CANVAS);
+        }
+        region = new BufferedImage(REGION, REGION, BufferedImage.TYPE_INT_ARGB);
+        g2 = region.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    private Rectangle nextRegion() {
+        int i = next++ & (POINTS - 1);
+        return new Rectangle(xs[i], ys[i], REGION, REGION);
+    }
+
+    @Benchmark
+    public ShapeLayer.Item pick() {
+        int i = next++ & (POINTS - 1);
+        return layer.pick(xs[i], ys[i]);
+    }
+
+    @Benchmark
+    public int query() {
+        return layer.query(nextRegion()).size();
+    }
+
+    @Benchmark
+    public void paintRegion() {
+        Rectangle r = nextRegion();
+        Graphics2D g = (Graphics2D) g2.create();
+        g.translate(-r.x, -r.y);
+        g.clip(r);
+        layer.paint(g, r);
+        g.dispose();
+    }
+
+    @Benchmark
+    public void move() {
+        int dx = (next++ & 1) == 0 ? 5 : -5;
+        layer.move(moved, dx, dx);
+    }
+}
@@ -0,0 +1,60 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.RenderEngine;
+import paint.ShapeCommand;
+import paint.ShapeType;
+import paint.TiledCanvas;
+import paint.ToolOptions;
+
+/**
+ * 10k random shapes, up to 100px across, stamped over a blank canvas of the given size:
+ * one drawShape call each against a single drawShapes call, which draws tiles in parallel
+ * on the common pool and so should pull ahead with the number of cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StampBenchmark {
+    private static final int SHAPES = 10_000;
+
+    @Param({"1024", "4096"})
+    int size;
+
+    private List<ShapeCommand> shapes;
+    private RenderEngine engine;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        ShapeType[] types = ShapeType.values();
+        ToolOptions base = new ToolOptions().withSize(3).withPolygonSides(6);
+        shapes = new ArrayList<>(SHAPES);
+        for (int i = 0; i < SHAPES; i++) {
+            int x = rnd.nextInt(size), y = rnd.nextInt(size);
+            ToolOptions options = base.withShapeType(types[rnd.nextInt(types.length)]).withColor(new Color(rnd.nextInt(0xFFFFFF)));
+            shapes.add(new ShapeCommand(x, y, x + 4 + rnd.nextInt(96), y + 4 + rnd.nextInt(96), options));
+        }
+        engine = new RenderEngine(new TiledCanvas(size, size, RenderEngine.BACKGROUND), false);
+    }
+
+    @Benchmark
+    public void oneByOne() {
+        for (ShapeCommand s : shapes) {
+            engine.drawShape(s.getX1(), s.getY1(), s.getX2(), s.getY2(), s.getOptions());
+        }
+    }
+
+    @Benchmark
+    public void stamped() {
+        engine.drawShapes(shapes);
+    }
+}
@@ -0,0 +1,105 @@
+package paint.jmh;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import paint.RenderEngine;
+import paint.RasterOps;
+
+/**
+ * Copying, rotating and flipping the canvas image through RasterOps against the Java2D
+ * AffineTransform paths it replaced (the {@code Java2D} benchmarks), and rotating or
+ * flipping the whole canvas or the selection through RenderEngine, history included.
+ * The selection is the centered quarter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TransformBenchmark {
+    @Param({"1024", "4096"})
+    int size;
+
+    private RenderEngine engine;
+    private BufferedImage image;
+    private Rectangle sel;
+
+    @Setup
+    public void setup() {
+        engine = Scenes.engine(size);
+        image = engine.getImage();
+        sel = Scenes.selection(size);
+    }
+
+    @Benchmark
+    public BufferedImage copyImage() {
+        return RasterOps.copy(image);
+    }
+
+    @Benchmark
+    public BufferedImage copyImageJava2D() {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = copy.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return copy;
+    }
+
+    @Benchmark
+    public BufferedImage rotateImage() {
+        return RasterOps.rotate(image, 90);
+    }
+
+    @Benchmark
+    public BufferedImage rotateImageJava2D() {
+        int w = image.getWidth(), h = image.getHeight();
+        BufferedImage result = new BufferedImage(h, w, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = result.createGraphics();
+        AffineTransform at = AffineTransform.getTranslateInstance(h, 0);
+        at.rotate(Math.toRadians(90));
+        g2.drawImage(image, at, null);
+        g2.dispose();
+        return result;
+    }
+
+    @Benchmark
+    public BufferedImage flipImage() {
+        return RasterOps.flip(image, true);
+    }
+
+    @Benchmark
+    public BufferedImage flipImageJava2D() {
+        int w = image.getWidth(), h = image.getHeight();
+        BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = result.createGraphics();
+        AffineTransform at = AffineTransform.getScaleInstance(-1, 1);
+        at.translate(-w, 0);
+        g2.drawImage(image, at, null);
+        g2.dispose();
+        return result;
+    }
+
+    @Benchmark
+    public void rotateCanvas() {
+        engine.rotate(90, null);
+    }
+
+    @Benchmark
+    public void rotateSelection() {
+        engine.rotate(90, sel);
+    }
+
+    @Benchmark
+    public void flipCanvas() {
+        engine.flip(true, null);
+    }
+
+    @Benchmark
+    public void flipSelection() {
+        engine.flip(true, sel);
+    }
+}